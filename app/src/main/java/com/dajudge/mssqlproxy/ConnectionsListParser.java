@@ -18,6 +18,7 @@ package com.dajudge.mssqlproxy;
 import com.dajudge.proxybase.config.Endpoint;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.stream.Stream;
 
 import static java.lang.Integer.parseUnsignedInt;
@@ -25,7 +26,8 @@ import static java.lang.String.format;
 import static java.util.stream.Collectors.toList;
 
 public class ConnectionsListParser {
-    private static final String EXPECTED = "<bindAddress>:<bindPort>=<username>:<password>@<serverAddress>:<serverPort>";
+    private static final String EXPECTED = "<bindAddress>:<bindPort>=<username>:<password>@<serverAddress>:<serverPort>"
+            + "[|<serverAddress>:<serverPort>...][+<replicaAddress>:<replicaPort>...]";
 
     public static Collection<ProxyConnectionInfo> parseProxyConnections(final String connections) {
         return Stream.of(connections.split(","))
@@ -45,16 +47,24 @@ public class ConnectionsListParser {
         }
         final String[] serverEndpointWithCredentialsParts = serverEndpointWithCredentials.split("@", 2);
         final String credentials = serverEndpointWithCredentialsParts[0];
-        final String serverEndpoint = serverEndpointWithCredentialsParts[1];
+        final String[] serverEndpoints = serverEndpointWithCredentialsParts[1].split("\\+");
         if (!credentials.contains(":")) {
             throw illegalProxySpecification(conn);
         }
         final String[] credentialsParts = credentials.split(":", 2);
         final String username = credentialsParts[0];
         final String password = credentialsParts[1];
+        final List<Endpoint> servers = Stream.of(serverEndpoints[0].split("\\|"))
+                .map(ConnectionsListParser::parseEndpoint)
+                .collect(toList());
+        final List<Endpoint> replicas = Stream.of(serverEndpoints)
+                .skip(1)
+                .map(ConnectionsListParser::parseEndpoint)
+                .collect(toList());
         return new ProxyConnectionInfo(
                 parseEndpoint(proxyEndpoint),
-                parseEndpoint(serverEndpoint),
+                servers,
+                replicas,
                 username,
                 password
         );
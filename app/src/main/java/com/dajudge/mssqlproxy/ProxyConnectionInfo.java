@@ -18,20 +18,25 @@ package com.dajudge.mssqlproxy;
 
 import com.dajudge.proxybase.config.Endpoint;
 
+import java.util.List;
+
 public class ProxyConnectionInfo {
     private final Endpoint proxy;
-    private final Endpoint server;
+    private final List<Endpoint> servers;
+    private final List<Endpoint> replicas;
     private final String username;
     private final String password;
 
     public ProxyConnectionInfo(
             final Endpoint proxy,
-            final Endpoint server,
+            final List<Endpoint> servers,
+            final List<Endpoint> replicas,
             final String username,
             final String password
     ) {
         this.proxy = proxy;
-        this.server = server;
+        this.servers = servers;
+        this.replicas = replicas;
         this.username = username;
         this.password = password;
     }
@@ -40,8 +45,12 @@ public class ProxyConnectionInfo {
         return proxy;
     }
 
-    public Endpoint getServer() {
-        return server;
+    public List<Endpoint> getServers() {
+        return servers;
+    }
+
+    public List<Endpoint> getReplicas() {
+        return replicas;
     }
 
     public String getUsername() {
@@ -56,7 +65,8 @@ public class ProxyConnectionInfo {
     public String toString() {
         return "ProxyConnectionInfo{" +
                 "proxy=" + proxy +
-                ", server=" + server +
+                ", servers=" + servers +
+                ", replicas=" + replicas +
                 ", username='" + username + '\'' +
                 ", password='" + password.replaceAll(".", "*") + '\'' +
                 '}';
@@ -17,42 +17,129 @@ package com.dajudge.mssqlproxy;
 
 import com.dajudge.mssqlproxy.core.MssqlProxyApplication;
 import com.dajudge.mssqlproxy.core.MssqlProxyApplication.ProxyConfig;
-import com.dajudge.mssqlproxy.core.client.requests.ParsedRequest;
-import com.dajudge.proxybase.ProxyApplication;
-import io.netty.buffer.ByteBuf;
+import com.dajudge.mssqlproxy.core.balancing.Balancing;
+import com.dajudge.mssqlproxy.core.net.BufferAllocation;
+import com.dajudge.mssqlproxy.core.net.Transport;
+import com.dajudge.mssqlproxy.core.pool.PoolMode;
 import io.quarkus.runtime.ShutdownEvent;
 import io.quarkus.runtime.StartupEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import static com.dajudge.mssqlproxy.ConnectionsListParser.parseProxyConnections;
+import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
 import static java.util.stream.Collectors.toList;
 
+@ApplicationScoped
 public class Startup {
     private static final Logger LOG = LoggerFactory.getLogger(Startup.class);
-    private ProxyApplication<ByteBuf, ByteBuf, ByteBuf, ParsedRequest> app;
+    private MssqlProxyApplication app;
 
     void onStart(@Observes StartupEvent ev) {
-        app = new MssqlProxyApplication(getProxyConfigs()).start();
+        app = new MssqlProxyApplication(
+                getProxyConfigs(),
+                getTransport(),
+                getIntEnv("MSSQLPROXY_EVENT_LOOP_THREADS", 0)
+        ).withMemoryBudget(
+                getLongEnv("MSSQLPROXY_MEMORY_SOFT_LIMIT_BYTES", 0),
+                getLongEnv("MSSQLPROXY_MEMORY_HARD_LIMIT_BYTES", 0)
+        ).start();
     }
 
     void onStop(@Observes ShutdownEvent ev) {
         app.shutdown();
     }
 
+    MssqlProxyApplication app() {
+        return app;
+    }
+
     private ProxyConfig createProxy(final ProxyConnectionInfo proxyConnectionInfo) {
         LOG.info("Creating proxy: {}", proxyConnectionInfo);
+        final String captureDirectory = getEnv("MSSQLPROXY_CAPTURE_DIR", "");
         return new ProxyConfig(
                 proxyConnectionInfo.getProxy(),
-                proxyConnectionInfo.getServer(),
+                proxyConnectionInfo.getServers().get(0),
                 proxyConnectionInfo.getUsername(),
                 proxyConnectionInfo.getPassword()
+        ).withServers(
+                proxyConnectionInfo.getServers(),
+                Balancing.valueOf(getEnv("MSSQLPROXY_BALANCING", "ROUND_ROBIN").toUpperCase())
+        ).withReadReplicas(
+                proxyConnectionInfo.getReplicas()
+        ).withHealthChecks(
+                Duration.ofMillis(getIntEnv("MSSQLPROXY_HEALTH_CHECK_MILLIS", 0)),
+                getIntEnv("MSSQLPROXY_HEALTH_CHECK_FAILURES", 2),
+                Duration.ofSeconds(getIntEnv("MSSQLPROXY_SLOW_START_SECONDS", 30))
+        ).withConcurrencyLimit(
+                getIntEnv("MSSQLPROXY_CONCURRENCY_MAX", 0),
+                Duration.ofMillis(getIntEnv("MSSQLPROXY_CONCURRENCY_QUEUE_MILLIS", 5000))
+        ).withFlushThresholds(
+                getIntEnv("MSSQLPROXY_FLUSH_MAX_BYTES", 64 * 1024),
+                getIntEnv("MSSQLPROXY_FLUSH_MAX_WRITES", 64)
+        ).withSlowQueryLog(
+                Duration.ofMillis(getIntEnv("MSSQLPROXY_SLOW_QUERY_MILLIS", 0))
+        ).withStatementStats(
+                getIntEnv("MSSQLPROXY_STATEMENT_STATS", 0)
+        ).withWireCapture(
+                captureDirectory.isEmpty() ? null : Paths.get(captureDirectory),
+                getLongEnv("MSSQLPROXY_CAPTURE_SEGMENT_BYTES", 64 * 1024 * 1024),
+                getIntEnv("MSSQLPROXY_CAPTURE_SEGMENTS", 16),
+                getIntEnv("MSSQLPROXY_CAPTURE_EVERY_NTH_SESSION", 1)
+        ).withWriteBufferWaterMark(
+                getIntEnv("MSSQLPROXY_WRITE_BUFFER_LOW", 32 * 1024),
+                getIntEnv("MSSQLPROXY_WRITE_BUFFER_HIGH", 64 * 1024)
+        ).withBufferAllocation(
+                BufferAllocation.valueOf(getEnv("MSSQLPROXY_BUFFER_ALLOCATION", "POOLED_DIRECT").toUpperCase())
+        ).withSplice(
+                Boolean.parseBoolean(getEnv("MSSQLPROXY_SPLICE", "false"))
+        ).withSessionPool(
+                PoolMode.valueOf(getEnv("MSSQLPROXY_POOL_MODE", "SESSION").toUpperCase()),
+                getIntEnv("MSSQLPROXY_POOL_SIZE", 0),
+                Duration.ofSeconds(getIntEnv("MSSQLPROXY_POOL_IDLE_TIMEOUT_SECONDS", 60))
+        ).withWarmSpares(
+                getIntEnv("MSSQLPROXY_SPARES_MIN", 0),
+                getIntEnv("MSSQLPROXY_SPARES_MAX", 0)
+        ).withResultCache(
+                getPatternEnv("MSSQLPROXY_CACHE_PATTERN"),
+                Duration.ofSeconds(getIntEnv("MSSQLPROXY_CACHE_TTL_SECONDS", 10)),
+                getLongEnv("MSSQLPROXY_CACHE_BYTES", 0)
+        ).withQueryCoalescing(
+                Boolean.parseBoolean(getEnv("MSSQLPROXY_CACHE_COALESCE", "false"))
         );
     }
 
+    private static Transport getTransport() {
+        final String transport = getEnv("MSSQLPROXY_TRANSPORT", "AUTO").toUpperCase();
+        return "AUTO".equals(transport) ? Transport.bestAvailable() : Transport.valueOf(transport);
+    }
+
+    private static String getEnv(final String name, final String defaultValue) {
+        final String value = System.getenv(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private static int getIntEnv(final String name, final int defaultValue) {
+        return parseInt(getEnv(name, String.valueOf(defaultValue)));
+    }
+
+    private static long getLongEnv(final String name, final long defaultValue) {
+        return parseLong(getEnv(name, String.valueOf(defaultValue)));
+    }
+
+    private static Pattern getPatternEnv(final String name) {
+        final String value = getEnv(name, "");
+        return value.isEmpty() ? null : Pattern.compile(value);
+    }
+
     private List<ProxyConfig> getProxyConfigs() {
         final String proxyDefintions = System.getenv("MSSQLPROXY_PROXIES");
         if (proxyDefintions == null || proxyDefintions.trim().isEmpty()) {
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy;
+
+import com.dajudge.mssqlproxy.core.metrics.ProxyMetrics;
+import com.dajudge.mssqlproxy.core.metrics.StatementStats;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toList;
+
+@Path("/statements")
+public class StatementsResource {
+    @Inject
+    Startup startup;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public String statements(@QueryParam("limit") @DefaultValue("20") final int limit) throws JsonProcessingException {
+        final Map<String, List<Map<String, Object>>> listeners = new LinkedHashMap<>();
+        for (final ProxyMetrics metrics : startup.app().metrics()) {
+            if (metrics.statements() != null) {
+                listeners.put(metrics.listener(), metrics.statements().top(limit).stream()
+                        .map(StatementsResource::toJson)
+                        .collect(toList()));
+            }
+        }
+        return objectMapper.writeValueAsString(listeners);
+    }
+
+    private static Map<String, Object> toJson(final StatementStats.Statement statement) {
+        final Map<String, Object> json = new LinkedHashMap<>();
+        json.put("fingerprint", Long.toHexString(statement.fingerprint()));
+        json.put("text", statement.text());
+        json.put("calls", statement.calls());
+        json.put("maxOverestimation", statement.overestimation());
+        json.put("totalMillis", NANOSECONDS.toMillis(statement.totalNanos()));
+        json.put("maxMillis", NANOSECONDS.toMillis(statement.maxNanos()));
+        json.put("responseBytes", statement.responseBytes());
+        return json;
+    }
+}
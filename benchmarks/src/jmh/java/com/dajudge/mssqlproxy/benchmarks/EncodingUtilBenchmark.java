@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.benchmarks;
+
+import com.dajudge.mssqlproxy.core.util.EncodingUtil;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.netty.buffer.Unpooled.directBuffer;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EncodingUtilBenchmark {
+    @Param({"16", "1024"})
+    public int length;
+    private String text;
+    private byte[] encoded;
+    private ByteBuf buffer;
+
+    @Setup
+    public void setup() {
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        text = builder.toString();
+        encoded = EncodingUtil.toUCS16(text);
+        buffer = directBuffer(encoded.length).writeBytes(encoded);
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+    }
+
+    @Benchmark
+    public byte[] toUCS16() {
+        return EncodingUtil.toUCS16(text);
+    }
+
+    @Benchmark
+    public String fromUCS16Bytes() {
+        return EncodingUtil.fromUCS16(encoded);
+    }
+
+    @Benchmark
+    public String fromUCS16Buffer() {
+        return EncodingUtil.fromUCS16(buffer, buffer.readerIndex(), buffer.readableBytes());
+    }
+}
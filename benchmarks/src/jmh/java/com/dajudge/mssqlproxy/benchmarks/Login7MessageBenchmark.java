@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.benchmarks;
+
+import com.dajudge.mssqlproxy.core.protocol.transport.Login7Message;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.netty.buffer.Unpooled.directBuffer;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Login7MessageBenchmark {
+    private byte[] payload;
+    private ByteBuf buffer;
+    private Login7Message login;
+
+    @Setup
+    public void setup() {
+        payload = Payloads.login7().get(0);
+        buffer = directBuffer(payload.length).writeBytes(payload);
+        login = new Login7Message(payload);
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+    }
+
+    @Benchmark
+    public Login7Message parseBytes() {
+        return new Login7Message(payload);
+    }
+
+    @Benchmark
+    public Login7Message parseDirectBuffer() {
+        return new Login7Message(buffer);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return login.serialize();
+    }
+
+    // What the proxy does for every client login
+    @Benchmark
+    public byte[] replaceCredentials() {
+        final Login7Message message = new Login7Message(buffer);
+        message.setUsername("sa");
+        message.setPassword("yourStrong(!)Password");
+        return message.serialize();
+    }
+}
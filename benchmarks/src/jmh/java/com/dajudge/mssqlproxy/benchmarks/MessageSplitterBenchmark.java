@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.benchmarks;
+
+import com.dajudge.mssqlproxy.core.protocol.MessageSplitter;
+import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+import com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader;
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static io.netty.buffer.Unpooled.directBuffer;
+import static java.lang.Math.min;
+
+// Splits a stream of PACKETS packets per invocation, handed over as a single read (fragmentSize 0, coalesced) or as
+// reads of fragmentSize bytes that don't line up with the packet boundaries (fragmented).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageSplitterBenchmark {
+    private static final int PACKETS = 16;
+
+    @Param({"512", "4096"})
+    public int packetSize;
+    @Param({"0", "100", "1460"})
+    public int fragmentSize;
+
+    private ByteBuf stream;
+    private MessageSplitter splitter;
+    private int packets;
+
+    @Setup
+    public void setup() {
+        stream = directBuffer(PACKETS * packetSize);
+        for (int i = 0; i < PACKETS; i++) {
+            final int status = i == PACKETS - 1 ? 0x01 : 0x00;
+            stream.writeBytes(new TDSHeader(0x04, status, packetSize, 52, i + 1, 0).serialize());
+            for (int j = TDS_HEADER_SIZE; j < packetSize; j++) {
+                stream.writeByte(j);
+            }
+        }
+        splitter = new MessageSplitter(new Sink<SqlServerMessage>() {
+            @Override
+            public void accept(final SqlServerMessage message) {
+                packets++;
+                message.release();
+            }
+
+            @Override
+            public ChannelFuture close() {
+                return null;
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        stream.release();
+    }
+
+    @Benchmark
+    public int split() {
+        packets = 0;
+        if (fragmentSize == 0) {
+            splitter.accept(stream.retainedDuplicate());
+            return packets;
+        }
+        for (int offset = 0; offset < stream.writerIndex(); offset += fragmentSize) {
+            splitter.accept(stream.retainedSlice(offset, min(fragmentSize, stream.writerIndex() - offset)));
+        }
+        return packets;
+    }
+}
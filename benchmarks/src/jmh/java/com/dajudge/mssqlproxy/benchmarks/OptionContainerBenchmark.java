@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.benchmarks;
+
+import com.dajudge.mssqlproxy.core.client.requests.PreloginRequest;
+import com.dajudge.mssqlproxy.core.protocol.transport.OptionContainer;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OptionContainerBenchmark {
+    private ByteBuf payload;
+
+    @Setup
+    public void setup() {
+        final PreloginRequest prelogin = PreloginRequest.standard();
+        payload = prelogin.getMessage().payload().copy();
+        prelogin.getMessage().release();
+    }
+
+    @TearDown
+    public void tearDown() {
+        payload.release();
+    }
+
+    @Benchmark
+    public Map<Byte, OptionContainer> parseOptions() {
+        return OptionContainer.parseOptions(payload);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.benchmarks;
+
+import com.dajudge.mssqlproxy.core.util.PasswordUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PasswordUtilBenchmark {
+    @Param({"yourStrong(!)Password"})
+    public String password;
+    private byte[] encrypted;
+
+    @Setup
+    public void setup() {
+        encrypted = PasswordUtil.encryptPassword(password);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return PasswordUtil.encryptPassword(password);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return PasswordUtil.decryptPassword(encrypted);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+
+final class Payloads {
+    private Payloads() {
+    }
+
+    // The LOGIN7 payloads of the core tests, one base64 line each
+    static List<byte[]> login7() {
+        return asList(new String(readResource("payloads/login7.dat"), StandardCharsets.UTF_8).split("\n")).stream()
+                .map(String::trim)
+                .filter(it -> !it.startsWith("#"))
+                .filter(it -> it.length() > 0)
+                .map(Base64.getDecoder()::decode)
+                .collect(toList());
+    }
+
+    private static byte[] readResource(final String resname) {
+        try (final InputStream is = Payloads.class.getClassLoader().getResourceAsStream(resname)) {
+            if (is == null) {
+                throw new IllegalStateException("Resource not found: " + resname);
+            }
+            final byte[] buffer = new byte[1024];
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                bos.write(buffer, 0, read);
+            }
+            return bos.toByteArray();
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to read resource", e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.benchmarks;
+
+import com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.netty.buffer.Unpooled.directBuffer;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TdsHeaderBenchmark {
+    private final TDSHeader header = new TDSHeader(0x01, 0x01, 4096, 52, 1, 0);
+    private byte[] bytes;
+    private ByteBuf buffer;
+
+    @Setup
+    public void setup() {
+        bytes = header.serialize();
+        buffer = directBuffer(bytes.length).writeBytes(bytes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+    }
+
+    @Benchmark
+    public TDSHeader parseBytes() {
+        return new TDSHeader(bytes);
+    }
+
+    @Benchmark
+    public TDSHeader parseBuffer() {
+        return new TDSHeader(buffer);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return header.serialize();
+    }
+}
@@ -16,86 +16,524 @@
 
 package com.dajudge.mssqlproxy.core;
 
+import com.dajudge.mssqlproxy.core.balancing.Backend;
+import com.dajudge.mssqlproxy.core.balancing.BackendGroup;
+import com.dajudge.mssqlproxy.core.balancing.Balancing;
+import com.dajudge.mssqlproxy.core.balancing.HealthChecker;
+import com.dajudge.mssqlproxy.core.cache.ResultCache;
+import com.dajudge.mssqlproxy.core.cache.ResultCacheHandler;
+import com.dajudge.mssqlproxy.core.cache.SingleFlight;
+import com.dajudge.mssqlproxy.core.capture.CaptureHandler;
+import com.dajudge.mssqlproxy.core.capture.WireCapture;
+import com.dajudge.mssqlproxy.core.client.CutThroughFilter;
 import com.dajudge.mssqlproxy.core.client.DownstreamPipelineCustomizer;
+import com.dajudge.mssqlproxy.core.client.HandshakeState;
+import com.dajudge.mssqlproxy.core.client.LoginHandler;
+import com.dajudge.mssqlproxy.core.client.PassThroughRequestSink;
 import com.dajudge.mssqlproxy.core.client.RequestParser;
 import com.dajudge.mssqlproxy.core.client.ResponseParser;
 import com.dajudge.mssqlproxy.core.client.ResponseRelay;
 import com.dajudge.mssqlproxy.core.client.requests.ParsedRequest;
+import com.dajudge.mssqlproxy.core.limit.ConcurrencyLimitHandler;
+import com.dajudge.mssqlproxy.core.limit.ConcurrencyLimiter;
+import com.dajudge.mssqlproxy.core.limit.MemoryBudget;
+import com.dajudge.mssqlproxy.core.limit.MemoryBudgetHandler;
+import com.dajudge.mssqlproxy.core.limit.OverloadRejectHandler;
+import com.dajudge.mssqlproxy.core.metrics.ProxyMetrics;
+import com.dajudge.mssqlproxy.core.metrics.SlowQueryLog;
+import com.dajudge.mssqlproxy.core.metrics.StatementStats;
+import com.dajudge.mssqlproxy.core.metrics.TrafficMetricsHandler;
+import com.dajudge.mssqlproxy.core.net.BufferAllocation;
+import com.dajudge.mssqlproxy.core.net.FlushCoalescingHandler;
+import com.dajudge.mssqlproxy.core.net.ProxyListener;
+import com.dajudge.mssqlproxy.core.net.ProxySession;
+import com.dajudge.mssqlproxy.core.net.Splicer;
+import com.dajudge.mssqlproxy.core.net.Transport;
+import com.dajudge.mssqlproxy.core.pool.BackendPool;
+import com.dajudge.mssqlproxy.core.pool.BackendSession;
+import com.dajudge.mssqlproxy.core.pool.PoolMode;
+import com.dajudge.mssqlproxy.core.pool.PooledClientSession;
+import com.dajudge.mssqlproxy.core.pool.SessionKey;
+import com.dajudge.mssqlproxy.core.pool.SessionKeyRecorder;
 import com.dajudge.mssqlproxy.core.protocol.MessageJoiner;
 import com.dajudge.mssqlproxy.core.protocol.MessageSplitter;
-import com.dajudge.proxybase.*;
-import com.dajudge.proxybase.ca.NullCertificateAuthority;
-import com.dajudge.proxybase.config.DownstreamSslConfig;
+import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+import com.dajudge.mssqlproxy.core.protocol.transport.EncryptionLevel;
+import com.dajudge.mssqlproxy.core.routing.BackendRouter;
+import com.dajudge.mssqlproxy.core.routing.RoutingClientSession;
+import com.dajudge.mssqlproxy.core.spare.Spare;
+import com.dajudge.mssqlproxy.core.spare.SpareClientSession;
+import com.dajudge.mssqlproxy.core.spare.SparePool;
+import com.dajudge.proxybase.ProxyContextFactory;
+import com.dajudge.proxybase.Sink;
 import com.dajudge.proxybase.config.Endpoint;
-import com.dajudge.proxybase.config.UpstreamSslConfig;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
 
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
 
-public class MssqlProxyApplication extends ProxyApplication<ByteBuf, ByteBuf, ByteBuf, ParsedRequest> {
+public class MssqlProxyApplication {
+    private static final Logger LOG = LoggerFactory.getLogger(MssqlProxyApplication.class);
     private final Collection<ProxyConfig> configs;
+    private final Transport transport;
+    private final int eventLoopThreads;
+    private EventLoopGroup eventLoopGroup;
+    private List<ProxyListener> listeners;
+    private final List<SparePool> sparePools = new ArrayList<>();
+    private final List<HealthChecker> healthCheckers = new ArrayList<>();
+    private final List<SlowQueryLog> slowQueryLogs = new ArrayList<>();
+    private final List<WireCapture> wireCaptures = new ArrayList<>();
+    private MemoryBudget memoryBudget;
+    private final List<ProxyMetrics> listenerMetrics = new CopyOnWriteArrayList<>();
 
     public MssqlProxyApplication(final Collection<ProxyConfig> configs) {
-        super(UpstreamSslConfig.NO_SSL, DownstreamSslConfig.NO_SSL, NullCertificateAuthority.INSTANCE);
-        this.configs = configs;
+        this(configs, Transport.NIO, 0);
     }
 
-    @Override
-    protected Collection<ProxyChannel<ByteBuf, ByteBuf, ByteBuf, ParsedRequest>> initializeProxyChannels(
-            final ProxyChannelFactory<ByteBuf, ByteBuf, ByteBuf, ParsedRequest> proxyChannelFactory
+    public MssqlProxyApplication(
+            final Collection<ProxyConfig> configs,
+            final Transport transport,
+            final int eventLoopThreads
     ) {
-        return configs.stream()
-                .map(config -> createChannel(proxyChannelFactory, config))
-                .peek(ProxyChannel::start)
+        if (!transport.isAvailable()) {
+            throw new IllegalArgumentException("Transport " + transport + " is not available on this platform");
+        }
+        this.configs = configs;
+        this.transport = transport;
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    // Shared by all listeners, see MemoryBudget. A zero limit is no limit.
+    public MssqlProxyApplication withMemoryBudget(final long softLimit, final long hardLimit) {
+        memoryBudget = softLimit > 0 || hardLimit > 0
+                ? new MemoryBudget(noLimitIfZero(softLimit), noLimitIfZero(hardLimit))
+                : null;
+        return this;
+    }
+
+    private static long noLimitIfZero(final long limit) {
+        return limit > 0 ? limit : Long.MAX_VALUE;
+    }
+
+    public MssqlProxyApplication start() {
+        eventLoopGroup = transport.createEventLoopGroup(eventLoopThreads);
+        listeners = configs.stream()
+                .map(this::createListener)
+                .peek(ProxyListener::start)
                 .collect(toList());
+        return this;
     }
 
-    private ProxyChannel<ByteBuf, ByteBuf, ByteBuf, ParsedRequest> createChannel(
-            final ProxyChannelFactory<ByteBuf, ByteBuf, ByteBuf, ParsedRequest> proxyChannelFactory,
-            final ProxyConfig config
-    ) {
-        return proxyChannelFactory.createProxyChannel(
+    // One per listener
+    public List<ProxyMetrics> metrics() {
+        return listenerMetrics;
+    }
+
+    public void shutdown() {
+        listeners.forEach(ProxyListener::stop);
+        sparePools.forEach(SparePool::stop);
+        healthCheckers.forEach(HealthChecker::stop);
+        slowQueryLogs.forEach(SlowQueryLog::stop);
+        eventLoopGroup.shutdownGracefully().syncUninterruptibly();
+        // Only once the event loops are done capturing
+        wireCaptures.forEach(WireCapture::stop);
+    }
+
+    private ProxyListener createListener(final ProxyConfig config) {
+        if (config.splice && !transport.supportsSplice()) {
+            throw new IllegalArgumentException("Splicing requires the EPOLL transport, not " + transport);
+        }
+        if (config.splice && config.poolMaxSessions > 0) {
+            throw new IllegalArgumentException("Session pooling cannot be combined with splicing");
+        }
+        if (config.maxSpares > 0 && config.poolMaxSessions > 0) {
+            throw new IllegalArgumentException("Warm spares cannot be combined with session pooling");
+        }
+        if (config.splice && config.cacheMaxBytes > 0) {
+            throw new IllegalArgumentException("The result cache cannot be combined with splicing");
+        }
+        if (config.splice && config.concurrencyMaxLimit > 0) {
+            throw new IllegalArgumentException("The concurrency limit cannot be combined with splicing");
+        }
+        final BackendRouter router = new BackendRouter(
+                new BackendGroup(config.servers, config.balancing),
+                new BackendGroup(config.readReplicas, config.balancing)
+        );
+        if (router.needsLogin() && (config.poolMaxSessions > 0 || config.maxSpares > 0)) {
+            throw new IllegalArgumentException(
+                    "Read replicas and hash balancing cannot be combined with session pooling or warm spares"
+            );
+        }
+        if (config.cacheMaxBytes > 0 && config.cachePattern == null) {
+            throw new IllegalArgumentException("The result cache requires a pattern of the batches to cache");
+        }
+        if (config.coalesceQueries && config.cacheMaxBytes <= 0) {
+            throw new IllegalArgumentException("Query coalescing requires the result cache");
+        }
+        final ResultCache cache = config.cacheMaxBytes > 0
+                ? new ResultCache(config.cacheMaxBytes, config.cacheTtl)
+                : null;
+        final SingleFlight flights = config.coalesceQueries ? new SingleFlight() : null;
+        if (config.concurrencyMaxLimit > 0) {
+            router.backends().forEach(backend -> backend.limiter(new ConcurrencyLimiter(config.concurrencyMaxLimit)));
+        }
+        if (!config.healthCheckInterval.isZero()) {
+            final HealthChecker healthChecker = new HealthChecker(
+                    router.backends(),
+                    transport,
+                    config.healthCheckInterval,
+                    config.healthCheckFailures,
+                    config.slowStart
+            );
+            healthChecker.start(eventLoopGroup);
+            healthCheckers.add(healthChecker);
+        }
+        final SlowQueryLog slowQueries = config.slowQueryThreshold.isZero()
+                ? null
+                : new SlowQueryLog(config.slowQueryThreshold.toNanos());
+        if (slowQueries != null) {
+            slowQueryLogs.add(slowQueries);
+        }
+        final WireCapture capture = config.captureDirectory == null ? null : new WireCapture(
+                config.captureDirectory,
+                "mssqlproxy-" + config.upstream.getPort(),
+                config.captureSegmentBytes,
+                config.captureSegments,
+                config.captureSampling
+        );
+        if (capture != null) {
+            capture.start();
+            wireCaptures.add(capture);
+        }
+        final ProxyMetrics metrics = new ProxyMetrics(
+                config.upstream.getHost() + ":" + config.upstream.getPort(),
+                slowQueries,
+                config.statementCapacity > 0 ? new StatementStats(config.statementCapacity) : null,
+                capture
+        );
+        listenerMetrics.add(metrics);
+        final BackendPool pool = config.poolMaxSessions > 0
+                ? new BackendPool(config.poolMode, config.poolMaxSessions, config.poolIdleTimeout)
+                : null;
+        final SparePool spares = config.maxSpares > 0
+                ? new SparePool(config.minSpares, config.maxSpares, () -> createSpare(config, router, metrics))
+                : null;
+        if (spares != null) {
+            spares.start(eventLoopGroup);
+            sparePools.add(spares);
+        }
+        LOG.info(
+                "Proxying {} -> {} (read replicas: {}, balancing: {})",
+                config.upstream,
+                config.servers,
+                config.readReplicas,
+                config.balancing
+        );
+        return new ProxyListener(
                 config.upstream,
-                config.downstream,
-                () -> createProxyContext(config)
+                transport,
+                eventLoopGroup,
+                config.splice,
+                ch -> {
+                    if (memoryBudget != null && memoryBudget.isExhausted()) {
+                        LOG.warn("Out of memory, rejecting {}", ch.remoteAddress());
+                        ch.pipeline().addLast(OverloadRejectHandler.class.getName(), new OverloadRejectHandler());
+                    } else {
+                        startSession(ch, config, pool, spares, cache, flights, router, metrics);
+                    }
+                }
+        );
+    }
+
+    private void startSession(
+            final Channel upstreamChannel,
+            final ProxyConfig config,
+            final BackendPool pool,
+            final SparePool spares,
+            final ResultCache cache,
+            final SingleFlight flights,
+            final BackendRouter router,
+            final ProxyMetrics metrics
+    ) {
+        metrics.sessionOpened();
+        upstreamChannel.closeFuture().addListener(future -> metrics.sessionClosed());
+        if (cache != null) {
+            upstreamChannel.pipeline().addLast(ResultCacheHandler.class.getName(), new ResultCacheHandler(
+                    cache,
+                    flights,
+                    config.cachePattern,
+                    pool != null && config.poolMode == PoolMode.TRANSACTION
+            ));
+        }
+        final Spare spare = spares == null ? null : spares.take(upstreamChannel.eventLoop());
+        if (spare != null) {
+            new SpareClientSession(upstreamChannel, spare, replay -> replayAfterConnect(
+                    upstreamChannel,
+                    startProxySession(upstreamChannel, config, router.route(null), null, false, null, router, metrics),
+                    replay
+            )).start();
+        } else if (router.needsLogin()) {
+            configureChannel(upstreamChannel, config);
+            addFlushCoalescing(upstreamChannel.pipeline(), config);
+            new RoutingClientSession(upstreamChannel, router, (replay, preloginAnswered, backend) -> replayAfterConnect(
+                    upstreamChannel,
+                    startProxySession(upstreamChannel, config, backend, null, preloginAnswered, null, router, metrics),
+                    replay
+            )).start();
+        } else if (pool == null || !pool.isPrimed()) {
+            startProxySession(upstreamChannel, config, router.route(null), pool, false, null, router, metrics);
+        } else {
+            configureChannel(upstreamChannel, config);
+            addFlushCoalescing(upstreamChannel.pipeline(), config);
+            new PooledClientSession(upstreamChannel, pool, (replay, preloginAnswered, reservation) -> replayAfterConnect(
+                    upstreamChannel,
+                    startProxySession(
+                            upstreamChannel,
+                            config,
+                            router.route(null),
+                            pool,
+                            preloginAnswered,
+                            reservation,
+                            router,
+                            metrics
+                    ),
+                    replay
+            )).start();
+        }
+    }
+
+    private static void replayAfterConnect(
+            final Channel upstreamChannel,
+            final ChannelFuture connectFuture,
+            final List<SqlServerMessage> replay
+    ) {
+        connectFuture.addListener(future -> {
+            if (future.isSuccess()) {
+                replay.forEach(m -> upstreamChannel.pipeline().fireChannelRead(wrappedBuffer(m.header(), m.payload())));
+            } else {
+                replay.forEach(SqlServerMessage::release);
+            }
+        });
+    }
+
+    private Spare createSpare(final ProxyConfig config, final BackendRouter router, final ProxyMetrics metrics) {
+        final Backend backend = router.route(null);
+        final HandshakeState handshake = new HandshakeState();
+        // The prelogin response is replayed to the client the spare ends up with
+        handshake.recordTranscript();
+        return new Spare(
+                new ProxySession<>(
+                        backend.endpoint(),
+                        transport,
+                        config.splice,
+                        createProxyContext(config, handshake, null, backend, metrics)
+                ),
+                handshake
         );
     }
 
+    private ChannelFuture startProxySession(
+            final Channel upstreamChannel,
+            final ProxyConfig config,
+            final Backend backend,
+            final BackendPool pool,
+            final boolean preloginAnswered,
+            final SessionKey reservation,
+            final BackendRouter router,
+            final ProxyMetrics metrics
+    ) {
+        final HandshakeState handshake = new HandshakeState();
+        final BackendSession backendSession = pool == null ? null : new BackendSession(pool);
+        if (backendSession != null) {
+            handshake.recordTranscript();
+            backendSession.reservation(reservation);
+        }
+        if (router.needsLogin() && !router.isPrimed()) {
+            handshake.recordTranscript();
+            handshake.onComplete(() -> router.prime(handshake.getPreloginResponse()));
+        }
+        final long started = System.nanoTime();
+        handshake.onComplete(() -> backend.loginCompleted(System.nanoTime() - started));
+        if (preloginAnswered) {
+            handshake.preloginAnswered();
+        }
+        return new ProxySession<>(
+                backend.endpoint(),
+                transport,
+                config.splice,
+                createProxyContext(config, handshake, backendSession, backend, metrics)
+        ).start(upstreamChannel);
+    }
+
     private ProxyContextFactory.ProxyContext<ByteBuf, ByteBuf, ByteBuf, ParsedRequest> createProxyContext(
-            final ProxyConfig config
+            final ProxyConfig config,
+            final HandshakeState handshake,
+            final BackendSession backendSession,
+            final Backend backend,
+            final ProxyMetrics metrics
     ) {
         return new ProxyContextFactory.ProxyContext<ByteBuf, ByteBuf, ByteBuf, ParsedRequest>() {
+            private Channel downstreamChannel;
+            private Channel upstreamChannel;
+
             @Override
             public void customizeDownstreamPipeline(final ChannelPipeline channelPipeline) {
-                new DownstreamPipelineCustomizer(config.username, config.password)
-                        .customize(channelPipeline);
+                downstreamChannel = channelPipeline.channel();
+                backend.sessionOpened();
+                downstreamChannel.closeFuture().addListener(future -> backend.sessionClosed());
+                if (backendSession != null) {
+                    backendSession.channel(downstreamChannel);
+                }
+                configureChannel(downstreamChannel, config);
+                // Splicing needs a plaintext server connection past the login
+                new DownstreamPipelineCustomizer(
+                        config.username,
+                        config.password,
+                        config.splice ? EncryptionLevel.OFF : EncryptionLevel.REQUIRED,
+                        handshake
+                ).customize(channelPipeline);
+                if (backend.limiter() != null) {
+                    channelPipeline.addAfter(
+                            LoginHandler.class.getName(),
+                            ConcurrencyLimitHandler.class.getName(),
+                            new ConcurrencyLimitHandler(
+                                    backend.limiter(),
+                                    handshake,
+                                    config.concurrencyQueueTimeoutMillis
+                            )
+                    );
+                }
+                // Closest to the wire, so only what the server actually gets and sends is counted
+                channelPipeline.addAfter(
+                        LoginHandler.class.getName(),
+                        TrafficMetricsHandler.class.getName(),
+                        new TrafficMetricsHandler(metrics, handshake)
+                );
+                if (metrics.capture() != null) {
+                    final long session = metrics.capture().openSession();
+                    if (session >= 0) {
+                        channelPipeline.addAfter(
+                                LoginHandler.class.getName(),
+                                CaptureHandler.class.getName(),
+                                new CaptureHandler(metrics.capture(), session)
+                        );
+                    }
+                }
+                addFlushCoalescing(channelPipeline, config);
             }
 
             @Override
             public void customizeUpstreamPipeline(final ChannelPipeline channelPipeline) {
+                upstreamChannel = channelPipeline.channel();
+                configureChannel(upstreamChannel, config);
+                addFlushCoalescing(channelPipeline, config);
+                if (config.splice) {
+                    handshake.onComplete(this::splice);
+                }
+                if (backendSession != null) {
+                    handshake.onComplete(() -> backendSession.handshakeComplete(handshake, upstreamChannel));
+                }
+            }
 
+            private void splice() {
+                if (handshake.isLoginOnlyEncryption()) {
+                    Splicer.splice(upstreamChannel, downstreamChannel);
+                } else {
+                    LOG.debug("Server requires full encryption, not splicing {}", upstreamChannel.remoteAddress());
+                }
             }
 
             @Override
             public Sink<ByteBuf> downstreamFilter(final Sink<ParsedRequest> sink) {
-                return new MessageSplitter(new RequestParser(sink));
+                final Sink<ParsedRequest> parsedSink = backendSession == null
+                        ? sink
+                        : new SessionKeyRecorder(backendSession, sink);
+                return new CutThroughFilter(
+                        handshake,
+                        new MessageSplitter(new RequestParser(parsedSink)),
+                        new PassThroughRequestSink(sink)
+                );
             }
 
             @Override
             public Sink<ByteBuf> upstreamFilter(final Sink<ByteBuf> sink) {
-                return new MessageSplitter(new ResponseParser(new ResponseRelay(new MessageJoiner(sink))));
+                return new CutThroughFilter(
+                        handshake,
+                        new MessageSplitter(new ResponseParser(new ResponseRelay(handshake, new MessageJoiner(sink)))),
+                        sink
+                );
             }
         };
     }
 
+    private void configureChannel(final Channel channel, final ProxyConfig config) {
+        channel.config().setAllocator(config.bufferAllocation.allocator());
+        channel.config().setWriteBufferWaterMark(config.writeBufferWaterMark);
+        if (memoryBudget != null && channel.pipeline().get(MemoryBudgetHandler.class.getName()) == null) {
+            channel.pipeline().addFirst(MemoryBudgetHandler.class.getName(), new MemoryBudgetHandler(memoryBudget));
+            memoryBudget.register(channel);
+        }
+    }
+
+    private static void addFlushCoalescing(final ChannelPipeline pipeline, final ProxyConfig config) {
+        if (pipeline.get(FlushCoalescingHandler.class.getName()) != null) {
+            return;
+        }
+        pipeline.addFirst(
+                FlushCoalescingHandler.class.getName(),
+                new FlushCoalescingHandler(config.flushMaxPendingBytes, config.flushMaxPendingWrites)
+        );
+    }
+
     public static class ProxyConfig {
         private final Endpoint upstream;
-        private final Endpoint downstream;
         private final String username;
         private final String password;
+        private int flushMaxPendingBytes = 64 * 1024;
+        private int flushMaxPendingWrites = 64;
+        private BufferAllocation bufferAllocation = BufferAllocation.POOLED_DIRECT;
+        private WriteBufferWaterMark writeBufferWaterMark = WriteBufferWaterMark.DEFAULT;
+        private boolean splice;
+        private int poolMaxSessions;
+        private PoolMode poolMode = PoolMode.SESSION;
+        private int minSpares;
+        private int maxSpares;
+        private Duration poolIdleTimeout = Duration.ofSeconds(60);
+        private Pattern cachePattern;
+        private Duration cacheTtl;
+        private long cacheMaxBytes;
+        private boolean coalesceQueries;
+        private List<Endpoint> servers;
+        private Balancing balancing = Balancing.ROUND_ROBIN;
+        private List<Endpoint> readReplicas = emptyList();
+        private Duration healthCheckInterval = Duration.ZERO;
+        private int healthCheckFailures;
+        private Duration slowStart = Duration.ZERO;
+        private int concurrencyMaxLimit;
+        private long concurrencyQueueTimeoutMillis;
+        private Duration slowQueryThreshold = Duration.ZERO;
+        private int statementCapacity;
+        private Path captureDirectory;
+        private long captureSegmentBytes;
+        private int captureSegments;
+        private int captureSampling;
 
         public ProxyConfig(
                 final Endpoint upstream,
@@ -104,9 +542,118 @@ public class MssqlProxyApplication extends ProxyApplication<ByteBuf, ByteBuf, By
                 final String password
         ) {
             this.upstream = upstream;
-            this.downstream = downstream;
+            this.servers = singletonList(downstream);
             this.username = username;
             this.password = password;
         }
+
+        public ProxyConfig withFlushThresholds(final int maxPendingBytes, final int maxPendingWrites) {
+            this.flushMaxPendingBytes = maxPendingBytes;
+            this.flushMaxPendingWrites = maxPendingWrites;
+            return this;
+        }
+
+        public ProxyConfig withBufferAllocation(final BufferAllocation bufferAllocation) {
+            this.bufferAllocation = bufferAllocation;
+            return this;
+        }
+
+        // Reading from the other side of a session pauses while more than high bytes wait to be written to a channel
+        // and resumes once less than low bytes do
+        public ProxyConfig withWriteBufferWaterMark(final int low, final int high) {
+            this.writeBufferWaterMark = new WriteBufferWaterMark(low, high);
+            return this;
+        }
+
+        public ProxyConfig withSplice(final boolean splice) {
+            this.splice = splice;
+            return this;
+        }
+
+        // Spares per event loop, between the two the number follows the rate clients arrive at
+        public ProxyConfig withWarmSpares(final int minSpares, final int maxSpares) {
+            this.minSpares = minSpares;
+            this.maxSpares = maxSpares;
+            return this;
+        }
+
+        // In SESSION mode maxSessions limits the idle sessions, in TRANSACTION mode all sessions (per event loop)
+        public ProxyConfig withSessionPool(final PoolMode mode, final int maxSessions, final Duration idleTimeout) {
+            this.poolMode = mode;
+            this.poolMaxSessions = maxSessions;
+            this.poolIdleTimeout = idleTimeout;
+            return this;
+        }
+
+        // Batches whose whitespace-normalized text matches the pattern as a whole are cached per database. There is no
+        // default pattern, since only the operator knows which batches are safe to share between sessions.
+        public ProxyConfig withResultCache(final Pattern pattern, final Duration ttl, final long maxBytes) {
+            this.cachePattern = pattern;
+            this.cacheTtl = ttl;
+            this.cacheMaxBytes = maxBytes;
+            return this;
+        }
+
+        // Servers to spread the sessions across instead of the one given to the constructor
+        public ProxyConfig withServers(final List<Endpoint> servers, final Balancing balancing) {
+            this.servers = servers;
+            this.balancing = balancing;
+            return this;
+        }
+
+        // A backend is taken out of balancing after the given number of failed probes in a row and ramped up over the
+        // slow start period once a probe succeeds again. A zero interval disables health checks.
+        public ProxyConfig withHealthChecks(final Duration interval, final int failures, final Duration slowStart) {
+            this.healthCheckInterval = interval;
+            this.healthCheckFailures = failures;
+            this.slowStart = slowStart;
+            return this;
+        }
+
+        // Requests to a backend beyond its adaptive limit (which never exceeds maxLimit) wait for up to the queue
+        // timeout and are then answered with an error. A zero maxLimit disables the limit.
+        public ProxyConfig withConcurrencyLimit(final int maxLimit, final Duration queueTimeout) {
+            this.concurrencyMaxLimit = maxLimit;
+            this.concurrencyQueueTimeoutMillis = queueTimeout.toMillis();
+            return this;
+        }
+
+        // Requests whose response takes at least the threshold are logged with their text. Zero disables the log.
+        public ProxyConfig withSlowQueryLog(final Duration threshold) {
+            this.slowQueryThreshold = threshold;
+            return this;
+        }
+
+        // Statistics are kept for this many of the most frequent SQL batch fingerprints. Zero disables them.
+        public ProxyConfig withStatementStats(final int capacity) {
+            this.statementCapacity = capacity;
+            return this;
+        }
+
+        // Every nth session's packets are written to rolling segment files in the directory. Null disables capturing.
+        public ProxyConfig withWireCapture(
+                final Path directory,
+                final long segmentBytes,
+                final int maxSegments,
+                final int sessionSampling
+        ) {
+            this.captureDirectory = directory;
+            this.captureSegmentBytes = segmentBytes;
+            this.captureSegments = maxSegments;
+            this.captureSampling = sessionSampling;
+            return this;
+        }
+
+        // Clients logging in with ApplicationIntent=ReadOnly are spread across the replicas, using the same balancing
+        public ProxyConfig withReadReplicas(final List<Endpoint> readReplicas) {
+            this.readReplicas = readReplicas;
+            return this;
+        }
+
+        // Concurrent misses for the same cacheable batch wait for the first one's response instead of running it too
+        public ProxyConfig withQueryCoalescing(final boolean coalesceQueries) {
+            this.coalesceQueries = coalesceQueries;
+            return this;
+        }
     }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.balancing;
+
+import com.dajudge.mssqlproxy.core.limit.ConcurrencyLimiter;
+import com.dajudge.proxybase.config.Endpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A server sessions can be opened to, with the load and login latency observed by this proxy. Backends are healthy
+// unless health checks say otherwise.
+public class Backend {
+    private static final Logger LOG = LoggerFactory.getLogger(Backend.class);
+    private static final double SMOOTHING = 0.3;
+    private static final double MIN_WEIGHT = 0.1;
+    private final Endpoint endpoint;
+    private final AtomicInteger sessions = new AtomicInteger();
+    private double loginNanos;
+    private int failedChecks;
+    private volatile boolean healthy = true;
+    private volatile long recoveredAt;
+    private volatile long slowStartNanos;
+    private volatile ConcurrencyLimiter limiter;
+
+    public Backend(final Endpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public Endpoint endpoint() {
+        return endpoint;
+    }
+
+    // Null unless requests to the backend are limited
+    public ConcurrencyLimiter limiter() {
+        return limiter;
+    }
+
+    public void limiter(final ConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public void sessionOpened() {
+        sessions.incrementAndGet();
+    }
+
+    public void sessionClosed() {
+        sessions.decrementAndGet();
+    }
+
+    public int sessions() {
+        return sessions.get();
+    }
+
+    public synchronized void loginCompleted(final long nanos) {
+        loginNanos = loginNanos == 0 ? nanos : SMOOTHING * nanos + (1 - SMOOTHING) * loginNanos;
+    }
+
+    // Zero until the first login completed
+    public synchronized double loginNanos() {
+        return loginNanos;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    // The share of the sessions it would otherwise get, which ramps up while it is slowly started
+    public double weight() {
+        final long ramp = slowStartNanos;
+        if (ramp == 0) {
+            return 1;
+        }
+        final double elapsed = (double) (System.nanoTime() - recoveredAt) / ramp;
+        if (elapsed >= 1) {
+            slowStartNanos = 0;
+            return 1;
+        }
+        return Math.max(MIN_WEIGHT, elapsed);
+    }
+
+    public synchronized void checkSucceeded(final long slowStartNanos) {
+        failedChecks = 0;
+        if (!healthy) {
+            LOG.info("Backend {} is healthy again", this);
+            recoveredAt = System.nanoTime();
+            this.slowStartNanos = slowStartNanos;
+            healthy = true;
+        }
+    }
+
+    public synchronized void checkFailed(final int threshold, final Throwable cause) {
+        if (++failedChecks >= threshold && healthy) {
+            LOG.warn("Backend {} is unhealthy: {}", this, cause.toString());
+            healthy = false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return endpoint.getHost() + ":" + endpoint.getPort();
+    }
+}
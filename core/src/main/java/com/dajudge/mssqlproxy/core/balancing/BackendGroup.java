@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.balancing;
+
+import com.dajudge.mssqlproxy.core.protocol.transport.Login7Message;
+import com.dajudge.proxybase.config.Endpoint;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+import static java.util.stream.Collectors.toList;
+
+// Interchangeable backends and the strategy to pick one of them. Hashing uses a ring with virtual nodes, so adding or
+// removing a backend only moves the clients of its share of the ring.
+public class BackendGroup {
+    private static final int VIRTUAL_NODES = 128;
+    private final List<Backend> backends;
+    private final Balancing balancing;
+    private final AtomicInteger next = new AtomicInteger();
+    private final int[] ringHashes;
+    private final Backend[] ringBackends;
+
+    public BackendGroup(final List<Endpoint> endpoints, final Balancing balancing) {
+        this.backends = endpoints.stream().map(Backend::new).collect(toList());
+        this.balancing = balancing;
+        final long[] ring = new long[backends.size() * VIRTUAL_NODES];
+        for (int i = 0; i < backends.size(); i++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                final Endpoint endpoint = backends.get(i).endpoint();
+                final int hash = hash(endpoint.getHost() + ":" + endpoint.getPort() + "#" + node);
+                // Sorts by hash, keeping the backend's index in the lower half
+                ring[i * VIRTUAL_NODES + node] = ((long) hash << 32) | i;
+            }
+        }
+        Arrays.sort(ring);
+        ringHashes = new int[ring.length];
+        ringBackends = new Backend[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            ringHashes[i] = (int) (ring[i] >> 32);
+            ringBackends[i] = backends.get((int) ring[i]);
+        }
+    }
+
+    public boolean isEmpty() {
+        return backends.isEmpty();
+    }
+
+    public List<Backend> backends() {
+        return backends;
+    }
+
+    public Balancing balancing() {
+        return balancing;
+    }
+
+    // The login is null if the backend has to be picked before the client logs in
+    public Backend select(final Login7Message login) {
+        return balancing.select(this, login);
+    }
+
+    // Unhealthy backends are skipped, ones that are slowly started only take their share. If no backend is healthy all
+    // of them are tried, since the health checks may be wrong.
+    Backend next() {
+        final int offset = next.getAndIncrement();
+        Backend fallback = null;
+        for (int i = 0; i < backends.size(); i++) {
+            final Backend backend = backends.get(Math.floorMod(offset + i, backends.size()));
+            if (backend.isHealthy()) {
+                if (admits(backend)) {
+                    return backend;
+                }
+                fallback = fallback == null ? backend : fallback;
+            }
+        }
+        return fallback == null ? backends.get(Math.floorMod(offset, backends.size())) : fallback;
+    }
+
+    // Ties are broken round-robin, so an idle group is not filled one backend at a time
+    Backend min(final ToDoubleFunction<Backend> cost) {
+        final int offset = next.getAndIncrement();
+        Backend best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (int i = 0; i < backends.size(); i++) {
+            final Backend backend = backends.get(Math.floorMod(offset + i, backends.size()));
+            if (!backend.isHealthy() || !admits(backend)) {
+                continue;
+            }
+            final double backendCost = cost.applyAsDouble(backend);
+            if (best == null || backendCost < bestCost) {
+                best = backend;
+                bestCost = backendCost;
+            }
+        }
+        return best == null ? next() : best;
+    }
+
+    // Walks on along the ring past unhealthy backends, so only their clients move
+    Backend hashed(final String value) {
+        final int index = Arrays.binarySearch(ringHashes, hash(value));
+        final int start = index >= 0 ? index : -index - 1;
+        Backend fallback = null;
+        for (int i = 0; i < ringBackends.length; i++) {
+            final Backend backend = ringBackends[(start + i) % ringBackends.length];
+            if (backend.isHealthy()) {
+                if (admits(backend)) {
+                    return backend;
+                }
+                fallback = fallback == null ? backend : fallback;
+            }
+        }
+        return fallback == null ? ringBackends[start % ringBackends.length] : fallback;
+    }
+
+    private static boolean admits(final Backend backend) {
+        final double weight = backend.weight();
+        return weight >= 1 || ThreadLocalRandom.current().nextDouble() < weight;
+    }
+
+    // FNV-1a with a final avalanche, String.hashCode() spreads similar names too little
+    private static int hash(final String value) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
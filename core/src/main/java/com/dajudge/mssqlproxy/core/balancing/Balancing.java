@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.balancing;
+
+import com.dajudge.mssqlproxy.core.protocol.transport.Login7Message;
+
+import java.util.function.Function;
+
+// How a backend is picked for a new session. The hashing strategies keep clients with the same login field on the
+// same backend; without a login (e.g. for warm spares) or the field they fall back to round-robin.
+public enum Balancing {
+    ROUND_ROBIN {
+        @Override
+        Backend select(final BackendGroup group, final Login7Message login) {
+            return group.next();
+        }
+    },
+    // Fewest sessions currently open through this proxy
+    LEAST_SESSIONS {
+        @Override
+        Backend select(final BackendGroup group, final Login7Message login) {
+            return group.min(Backend::sessions);
+        }
+    },
+    // Smoothed login latency weighted by the open sessions, so a fast backend does not take every session. Backends
+    // without a login yet are tried first.
+    LOGIN_LATENCY {
+        @Override
+        Backend select(final BackendGroup group, final Login7Message login) {
+            return group.min(it -> it.loginNanos() * (it.sessions() + 1));
+        }
+    },
+    HASH_APP_NAME {
+        @Override
+        Backend select(final BackendGroup group, final Login7Message login) {
+            return hashed(group, login, Login7Message::getAppName);
+        }
+
+        @Override
+        public boolean needsLogin() {
+            return true;
+        }
+    },
+    HASH_HOSTNAME {
+        @Override
+        Backend select(final BackendGroup group, final Login7Message login) {
+            return hashed(group, login, Login7Message::getHostname);
+        }
+
+        @Override
+        public boolean needsLogin() {
+            return true;
+        }
+    };
+
+    abstract Backend select(BackendGroup group, Login7Message login);
+
+    public boolean needsLogin() {
+        return false;
+    }
+
+    private static Backend hashed(
+            final BackendGroup group,
+            final Login7Message login,
+            final Function<Login7Message, String> field
+    ) {
+        final String value = login == null ? null : field.apply(login);
+        return value == null || value.isEmpty() ? group.next() : group.hashed(value);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.balancing;
+
+import com.dajudge.mssqlproxy.core.client.requests.PreloginRequest;
+import com.dajudge.mssqlproxy.core.net.Transport;
+import com.dajudge.mssqlproxy.core.protocol.PacketTracker;
+import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// Probes every backend with a prelogin exchange in the background, so sessions are not sent to a server that is known
+// to be down. A probe has to be answered before the next one starts.
+public class HealthChecker {
+    private final List<Backend> backends;
+    private final Transport transport;
+    private final long intervalMillis;
+    private final int failureThreshold;
+    private final long slowStartNanos;
+    private ScheduledFuture<?> tick;
+
+    // A backend is unhealthy after failureThreshold probes in a row failed
+    public HealthChecker(
+            final List<Backend> backends,
+            final Transport transport,
+            final Duration interval,
+            final int failureThreshold,
+            final Duration slowStart
+    ) {
+        this.backends = backends;
+        this.transport = transport;
+        this.intervalMillis = interval.toMillis();
+        this.failureThreshold = failureThreshold;
+        this.slowStartNanos = slowStart.toNanos();
+    }
+
+    public void start(final EventLoopGroup eventLoopGroup) {
+        final EventLoop eventLoop = eventLoopGroup.next();
+        tick = eventLoop.scheduleAtFixedRate(
+                () -> backends.forEach(it -> probe(eventLoop, it)),
+                0,
+                intervalMillis,
+                MILLISECONDS
+        );
+    }
+
+    public void stop() {
+        if (tick != null) {
+            tick.cancel(false);
+        }
+    }
+
+    private void probe(final EventLoop eventLoop, final Backend backend) {
+        final Probe probe = new Probe(backend);
+        final Channel channel = new Bootstrap()
+                .group(eventLoop)
+                .channel(transport.socketChannelClass())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) intervalMillis)
+                .handler(probe)
+                .connect(backend.endpoint().getHost(), backend.endpoint().getPort())
+                .addListener(future -> {
+                    if (!future.isSuccess()) {
+                        probe.failed(future.cause());
+                    }
+                })
+                .channel();
+        probe.timeout(eventLoop.schedule(() -> {
+            probe.failed(new TimeoutException("No prelogin response within " + intervalMillis + "ms"));
+            channel.close();
+        }, intervalMillis, MILLISECONDS));
+    }
+
+    private class Probe extends ChannelInboundHandlerAdapter implements PacketTracker.Listener {
+        private final Backend backend;
+        private final PacketTracker tracker = new PacketTracker(this);
+        private boolean done;
+        private ScheduledFuture<?> timeout;
+
+        private Probe(final Backend backend) {
+            this.backend = backend;
+        }
+
+        // A connect may already have failed by the time the timeout is scheduled
+        private void timeout(final ScheduledFuture<?> timeout) {
+            if (done) {
+                timeout.cancel(false);
+            } else {
+                this.timeout = timeout;
+            }
+        }
+
+        @Override
+        public void channelActive(final ChannelHandlerContext ctx) {
+            final SqlServerMessage prelogin = PreloginRequest.standard().getMessage();
+            ctx.writeAndFlush(wrappedBuffer(prelogin.header(), prelogin.payload()));
+            ctx.fireChannelActive();
+        }
+
+        @Override
+        public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+            final ByteBuf buffer = (ByteBuf) msg;
+            try {
+                tracker.track(buffer);
+            } finally {
+                buffer.release();
+            }
+            if (tracker.isBroken()) {
+                failed(new IllegalStateException("Malformed prelogin response"));
+            }
+            if (done) {
+                ctx.close();
+            }
+        }
+
+        @Override
+        public void channelInactive(final ChannelHandlerContext ctx) {
+            failed(new IllegalStateException("Connection closed before the prelogin response"));
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+            failed(cause);
+            ctx.close();
+        }
+
+        @Override
+        public int onPacketStatus(final int type, final int status, final boolean firstPacketOfMessage) {
+            return status;
+        }
+
+        @Override
+        public void onMessageEnd(final int type) {
+            if (!done) {
+                finish();
+                backend.checkSucceeded(slowStartNanos);
+            }
+        }
+
+        private void failed(final Throwable cause) {
+            if (!done) {
+                finish();
+                backend.checkFailed(failureThreshold, cause);
+            }
+        }
+
+        private void finish() {
+            done = true;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+    }
+}
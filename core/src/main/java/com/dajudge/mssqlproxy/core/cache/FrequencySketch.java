@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.cache;
+
+// Approximate access counts in a count-min sketch of 4 bit counters, halved periodically so the counts follow
+// recent popularity. This is the admission filter of TinyLFU.
+class FrequencySketch {
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xb8e04a1d, 0x2f6f2fa5, 0x6fa3d7c1};
+    private final int[] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(final int width) {
+        final int size = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+        this.counters = new int[size];
+        this.mask = size - 1;
+        this.sampleSize = 10 * size;
+    }
+
+    int frequency(final Object key) {
+        final int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (final int seed : SEEDS) {
+            frequency = Math.min(frequency, counters[index(hash, seed)]);
+        }
+        return frequency;
+    }
+
+    void increment(final Object key) {
+        final int hash = spread(key.hashCode());
+        boolean added = false;
+        for (final int seed : SEEDS) {
+            final int index = index(hash, seed);
+            if (counters[index] < MAX_COUNT) {
+                counters[index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] >>>= 1;
+        }
+        additions /= 2;
+    }
+
+    private int index(final int hash, final int seed) {
+        final int h = (hash ^ seed) * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(final int hash) {
+        final int h = hash * 0x85ebca6b;
+        return h ^ (h >>> 13);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.cache;
+
+import io.netty.buffer.ByteBuf;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Server responses keyed by database and batch text, kept in direct buffers within a byte budget. Eviction is LRU
+// with TinyLFU admission: a new response only displaces older ones if it has been asked for more often recently.
+// Shared by all event loops, the lock is only held for map operations.
+public class ResultCache {
+    private static final int SKETCH_WIDTH = 64 * 1024;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch = new FrequencySketch(SKETCH_WIDTH);
+    private long usedBytes;
+
+    public ResultCache(final long maxBytes, final Duration ttl) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    // A single response may take up an eighth of the budget at most
+    public int maxEntryBytes() {
+        return (int) Math.min(Integer.MAX_VALUE, maxBytes / 8);
+    }
+
+    // Returns a duplicate the caller has to release, or null
+    public synchronized ByteBuf get(final String key) {
+        sketch.increment(key);
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            remove(key);
+            return null;
+        }
+        return entry.response.retainedDuplicate();
+    }
+
+    // Takes ownership of the response
+    public synchronized void put(final String key, final ByteBuf response) {
+        final int weight = response.readableBytes();
+        if (weight > maxEntryBytes()) {
+            response.release();
+            return;
+        }
+        remove(key);
+        final long now = System.nanoTime();
+        final int frequency = sketch.frequency(key);
+        final List<String> victims = new ArrayList<>();
+        long freed = 0;
+        final Iterator<Entry> eldest = entries.values().iterator();
+        while (usedBytes - freed + weight > maxBytes && eldest.hasNext()) {
+            final Entry victim = eldest.next();
+            if (!victim.isExpired(now) && sketch.frequency(victim.key) >= frequency) {
+                response.release();
+                return;
+            }
+            victims.add(victim.key);
+            freed += victim.response.readableBytes();
+        }
+        victims.forEach(this::remove);
+        entries.put(key, new Entry(key, response, now + ttlNanos));
+        usedBytes += weight;
+    }
+
+    public synchronized void clear() {
+        new ArrayList<>(entries.keySet()).forEach(this::remove);
+    }
+
+    private void remove(final String key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null) {
+            usedBytes -= entry.response.readableBytes();
+            entry.response.release();
+        }
+    }
+
+    private static class Entry {
+        private final String key;
+        private final ByteBuf response;
+        private final long expiresAt;
+
+        private Entry(final String key, final ByteBuf response, final long expiresAt) {
+            this.key = key;
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(final long now) {
+            return now - expiresAt > 0;
+        }
+    }
+}
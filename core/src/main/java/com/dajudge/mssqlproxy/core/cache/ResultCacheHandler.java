@@ -0,0 +1,498 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.cache;
+
+import com.dajudge.mssqlproxy.core.protocol.PacketTracker;
+import com.dajudge.mssqlproxy.core.protocol.TokenStreamWalker;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.regex.Pattern;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.STATUS_EOM;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+
+// Sits on the client channel, where the traffic is plaintext and framed as the client sent it. Complete SQL batches
+// matching the pattern are answered from the cache, misses have their response recorded. Cached packets are replayed
+// verbatim to other sessions, so the key holds everything that shapes them besides the text: the session's database,
+// the TDS version and packet size negotiated at the login, the login's option flags and the language. The responses
+// that may change these are walked for LOGINACK and ENVCHANGE tokens. Sessions that set options of their own are
+// not cached for. With single flight a miss for a batch another session is already waiting for is held back until
+// that session's response can be shared.
+public class ResultCacheHandler extends ChannelDuplexHandler implements PacketTracker.Listener, TokenStreamWalker.Listener {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultCacheHandler.class);
+    private static final int SQL_BATCH = 1;
+    private static final int RPC = 3;
+    private static final int ATTENTION = 6;
+    private static final int BULK_LOAD = 7;
+    private static final int TRANSACTION_MANAGER = 14;
+    private static final int LOGIN = 16;
+    private static final int PRELOGIN = 18;
+    private static final int STATUS_RESET_CONNECTION = 0x08;
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+    private static final int ERROR = 0xAA;
+    private static final int ENV_DATABASE = 1;
+    private static final int ENV_LANGUAGE = 2;
+    private static final int ENV_PACKET_SIZE = 4;
+    // The fixed part of LOGIN7 up to and including OptionFlags3
+    private static final int LOGIN_PREFIX_LENGTH = 28;
+    private static final int LOGIN_PACKET_SIZE = 8;
+    private static final int LOGIN_OPTION_FLAGS = 24;
+    private static final Pattern USE = Pattern.compile("(?i)\\buse\\b");
+    private static final Pattern SET_OPTION = Pattern.compile("(?i)\\bset\\s+(ansi_|arithabort|arithignore|"
+            + "concat_null|cursor_close|datefirst|dateformat|deadlock_priority|fmtonly|forceplan|implicit_transactions|"
+            + "language|lock_timeout|nocount|noexec|numeric_roundabort|parseonly|query_governor|quoted_identifier|"
+            + "rowcount|showplan|statistics|textsize|transaction|xact_abort)");
+
+    private final ResultCache cache;
+    private final SingleFlight flights;
+    private final Pattern pattern;
+    private final boolean followAllResponses;
+    private final PacketTracker responseTracker = new PacketTracker(this);
+    private final TokenStreamWalker walker = new TokenStreamWalker(this);
+    private boolean disabled;
+
+    // Request framing
+    private int headerIndex;
+    private int requestType;
+    private int status;
+    private int remaining;
+    private boolean inRequest;
+    private boolean resetRequested;
+    private CompositeByteBuf batch;
+
+    // Session shape
+    private final byte[] loginPrefix = new byte[LOGIN_PREFIX_LENGTH];
+    private int loginPrefixLength;
+    private boolean loginPending;
+    private int tdsVersion;
+    private String packetSize;
+    private String language;
+    private String loginLanguage;
+    private boolean customized;
+    private String shape;
+
+    // Response handling
+    private String database;
+    private boolean following;
+    private String captureKey;
+    private ByteBuf capture;
+    private boolean cacheable;
+    private boolean leading;
+    private Waiter waiter;
+
+    // followAllResponses is needed when something else may reset the session behind the client's back, flights may
+    // be null
+    public ResultCacheHandler(
+            final ResultCache cache,
+            final SingleFlight flights,
+            final Pattern pattern,
+            final boolean followAllResponses
+    ) {
+        this.cache = cache;
+        this.flights = flights;
+        this.pattern = pattern;
+        this.followAllResponses = followAllResponses;
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+        if (disabled || !(msg instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        final ByteBuf buffer = (ByteBuf) msg;
+        try {
+            frameRequests(ctx, buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private void frameRequests(final ChannelHandlerContext ctx, final ByteBuf buffer) {
+        int start = buffer.readerIndex();
+        int index = start;
+        final int end = buffer.writerIndex();
+        while (index < end && !disabled) {
+            if (headerIndex == 0 && !inRequest) {
+                forward(ctx, buffer, start, index);
+                start = index;
+                onRequestStart(ctx, buffer.getUnsignedByte(index));
+            }
+            if (headerIndex < TDS_HEADER_SIZE) {
+                onHeaderByte(buffer.getUnsignedByte(index++));
+            } else {
+                final int skipped = Math.min(remaining, end - index);
+                if (requestType == LOGIN && loginPrefixLength < LOGIN_PREFIX_LENGTH) {
+                    final int copied = Math.min(skipped, LOGIN_PREFIX_LENGTH - loginPrefixLength);
+                    buffer.getBytes(index, loginPrefix, loginPrefixLength, copied);
+                    loginPrefixLength += copied;
+                }
+                index += skipped;
+                remaining -= skipped;
+            }
+            if (headerIndex == TDS_HEADER_SIZE && remaining == 0) {
+                headerIndex = 0;
+                if ((status & STATUS_EOM) != 0) {
+                    inRequest = false;
+                    if (batch != null) {
+                        batch.addComponent(true, buffer.retainedSlice(start, index - start));
+                        start = index;
+                        onBatch(ctx);
+                    }
+                }
+            }
+            if (batch != null && batch.readableBytes() + index - start > MAX_BATCH_BYTES) {
+                // Too large to be worth caching, let it through as it comes
+                following = true;
+                forwardBatch(ctx);
+            }
+        }
+        forward(ctx, buffer, start, end);
+        if (disabled && batch != null) {
+            forwardBatch(ctx);
+        }
+    }
+
+    private void onRequestStart(final ChannelHandlerContext ctx, final int type) {
+        resetRequested = false;
+        requestType = type;
+        switch (type) {
+            case SQL_BATCH:
+                batch = PooledByteBufAllocator.DEFAULT.compositeBuffer();
+                following = followAllResponses;
+                break;
+            case ATTENTION:
+                // Whatever response was being recorded will be cut short, a waiting batch has to reach the server
+                // before its cancellation
+                abortCapture();
+                stopWaiting(ctx);
+                break;
+            case PRELOGIN:
+                following = false;
+                break;
+            case LOGIN:
+                following = true;
+                loginPending = true;
+                loginPrefixLength = 0;
+                tdsVersion = 0;
+                packetSize = null;
+                language = null;
+                customized = false;
+                shape = null;
+                break;
+            case RPC:
+            case BULK_LOAD:
+            case TRANSACTION_MANAGER:
+                following = followAllResponses;
+                break;
+            default:
+                // E.g. MARS, where requests and responses cannot be matched up here
+                LOG.debug("Disabling result cache for unexpected message type {}", type);
+                disable();
+                break;
+        }
+    }
+
+    private void onHeaderByte(final int value) {
+        switch (headerIndex++) {
+            case 1:
+                status = value;
+                if (!inRequest && (status & STATUS_RESET_CONNECTION) != 0) {
+                    // Resets the database, the language and the options to the ones from the login
+                    resetRequested = true;
+                    following = true;
+                    customized = false;
+                    language = loginLanguage;
+                    shape = null;
+                }
+                inRequest = true;
+                break;
+            case 2:
+                remaining = value << 8;
+                break;
+            case 3:
+                remaining = (remaining | value) - TDS_HEADER_SIZE;
+                if (remaining < 0) {
+                    disable();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void forward(final ChannelHandlerContext ctx, final ByteBuf buffer, final int start, final int end) {
+        if (start == end) {
+            return;
+        }
+        if (batch != null) {
+            batch.addComponent(true, buffer.retainedSlice(start, end - start));
+        } else {
+            ctx.fireChannelRead(buffer.retainedSlice(start, end - start));
+        }
+    }
+
+    private void forwardBatch(final ChannelHandlerContext ctx) {
+        final ByteBuf message = batch;
+        batch = null;
+        ctx.fireChannelRead(message);
+    }
+
+    private void onBatch(final ChannelHandlerContext ctx) {
+        final SqlBatch parsed = SqlBatch.parse(batch);
+        if (parsed == null) {
+            forwardBatch(ctx);
+            return;
+        }
+        final String text = SqlBatch.normalize(parsed.text());
+        if (SET_OPTION.matcher(text).find()) {
+            customized = true;
+        }
+        final String shape = customized ? null : shape();
+        if (database != null
+                && shape != null
+                && !parsed.isInTransaction()
+                && !resetRequested
+                && pattern.matcher(text).matches()) {
+            final String key = database + '\0' + shape + '\0' + text;
+            final ByteBuf cached = cache.get(key);
+            if (cached != null) {
+                batch.release();
+                batch = null;
+                ctx.writeAndFlush(cached);
+                return;
+            }
+            if (flights != null) {
+                // Same key as the cache, a follower must be able to take the leader's response as it is
+                leading = flights.lead(key);
+                if (!leading) {
+                    final Waiter waiter = new Waiter(ctx, batch);
+                    if (flights.follow(key, waiter)) {
+                        this.waiter = waiter;
+                        batch = null;
+                        return;
+                    }
+                }
+            }
+            captureKey = key;
+            following = true;
+        } else if (USE.matcher(text).find()) {
+            following = true;
+        }
+        forwardBatch(ctx);
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
+        if (!disabled && msg instanceof ByteBuf) {
+            final ByteBuf buffer = (ByteBuf) msg;
+            if (captureKey != null) {
+                record(buffer);
+            }
+            responseTracker.track(buffer);
+            if (responseTracker.isBroken()) {
+                disable();
+            }
+        }
+        ctx.write(msg, promise);
+    }
+
+    private void record(final ByteBuf buffer) {
+        if (capture == null) {
+            capture = PooledByteBufAllocator.DEFAULT.directBuffer();
+            cacheable = true;
+        }
+        if (capture.readableBytes() + buffer.readableBytes() > cache.maxEntryBytes()) {
+            abortCapture();
+            return;
+        }
+        capture.writeBytes(buffer, buffer.readerIndex(), buffer.readableBytes());
+    }
+
+    @Override
+    public int onPacketStatus(final int type, final int status, final boolean firstPacketOfMessage) {
+        if (firstPacketOfMessage) {
+            walker.reset();
+        }
+        return status;
+    }
+
+    @Override
+    public void onPayload(final ByteBuf buffer, final int index, final int length) {
+        if (following) {
+            walker.onPayload(buffer, index, length);
+        }
+    }
+
+    @Override
+    public void onMessageEnd(final int type) {
+        if (following) {
+            walker.onMessageEnd();
+        }
+        if (captureKey != null && capture != null && cacheable && !walker.isLost()) {
+            if (leading) {
+                leading = false;
+                flights.complete(captureKey, capture);
+            }
+            cache.put(captureKey, capture);
+            capture = null;
+        }
+        abortCapture();
+        following = false;
+        if (loginPending) {
+            loginPending = false;
+            loginLanguage = language;
+        }
+    }
+
+    @Override
+    public void onToken(final int token) {
+        if (token == ERROR) {
+            cacheable = false;
+        }
+    }
+
+    @Override
+    public void onEnvChange(final ByteBuf envChange) {
+        // Anything changing the session's state makes the response unfit for other sessions
+        cacheable = false;
+        switch (envChange.getUnsignedByte(envChange.readerIndex())) {
+            case ENV_DATABASE:
+                database = newValue(envChange);
+                break;
+            case ENV_LANGUAGE:
+                language = newValue(envChange);
+                shape = null;
+                break;
+            case ENV_PACKET_SIZE:
+                packetSize = newValue(envChange);
+                shape = null;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static String newValue(final ByteBuf envChange) {
+        final int index = envChange.readerIndex();
+        final int length = envChange.getUnsignedByte(index + 1) * 2;
+        return envChange.toString(index + 2, length, UTF_16LE);
+    }
+
+    @Override
+    public void onLoginAck(final ByteBuf loginAck) {
+        // After the interface byte
+        tdsVersion = loginAck.getInt(loginAck.readerIndex() + 1);
+        shape = null;
+    }
+
+    // Null until the login was acknowledged
+    private String shape() {
+        if (shape == null && tdsVersion != 0 && loginPrefixLength == LOGIN_PREFIX_LENGTH) {
+            shape = Integer.toHexString(tdsVersion)
+                    + '/' + (packetSize != null ? packetSize : String.valueOf(intLE(loginPrefix, LOGIN_PACKET_SIZE)))
+                    + '/' + Integer.toHexString(intLE(loginPrefix, LOGIN_OPTION_FLAGS))
+                    + '/' + language;
+        }
+        return shape;
+    }
+
+    private static int intLE(final byte[] data, final int offset) {
+        return (data[offset] & 0xFF)
+                | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16
+                | (data[offset + 3] & 0xFF) << 24;
+    }
+
+    private void abortCapture() {
+        if (leading) {
+            leading = false;
+            flights.complete(captureKey, null);
+        }
+        captureKey = null;
+        if (capture != null) {
+            capture.release();
+            capture = null;
+        }
+    }
+
+    private void disable() {
+        disabled = true;
+        database = null;
+        abortCapture();
+    }
+
+    private void stopWaiting(final ChannelHandlerContext ctx) {
+        if (waiter != null) {
+            final ByteBuf batch = waiter.batch;
+            waiter = null;
+            ctx.fireChannelRead(batch);
+        }
+    }
+
+    @Override
+    public void handlerRemoved(final ChannelHandlerContext ctx) {
+        abortCapture();
+        if (waiter != null) {
+            waiter.batch.release();
+            waiter = null;
+        }
+        if (batch != null) {
+            batch.release();
+            batch = null;
+        }
+    }
+
+    private class Waiter implements SingleFlight.Follower {
+        private final ChannelHandlerContext ctx;
+        private final ByteBuf batch;
+
+        private Waiter(final ChannelHandlerContext ctx, final ByteBuf batch) {
+            this.ctx = ctx;
+            this.batch = batch;
+        }
+
+        @Override
+        public void onResponse(final ByteBuf response) {
+            ctx.executor().execute(() -> {
+                if (waiter != this) {
+                    response.release();
+                    return;
+                }
+                waiter = null;
+                batch.release();
+                ctx.writeAndFlush(response);
+            });
+        }
+
+        @Override
+        public void onFailure() {
+            ctx.executor().execute(() -> {
+                if (waiter == this) {
+                    stopWaiting(ctx);
+                }
+            });
+        }
+    }
+}
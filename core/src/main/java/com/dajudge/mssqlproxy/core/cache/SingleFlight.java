@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.cache;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Lets one session run a query while the sessions asking for the same one in the meantime wait for its response.
+public class SingleFlight {
+    private final Map<String, List<Follower>> flights = new HashMap<>();
+
+    // Called on the leader's event loop
+    public interface Follower {
+        // Takes ownership of the response
+        void onResponse(ByteBuf response);
+
+        // The leader got no response that can be shared, the follower has to ask the server itself
+        void onFailure();
+    }
+
+    public synchronized boolean lead(final String key) {
+        if (flights.containsKey(key)) {
+            return false;
+        }
+        flights.put(key, new ArrayList<>());
+        return true;
+    }
+
+    public synchronized boolean follow(final String key, final Follower follower) {
+        final List<Follower> followers = flights.get(key);
+        if (followers == null) {
+            return false;
+        }
+        followers.add(follower);
+        return true;
+    }
+
+    // The response is null if it cannot be shared, ownership stays with the caller
+    public void complete(final String key, final ByteBuf response) {
+        final List<Follower> followers;
+        synchronized (this) {
+            followers = flights.remove(key);
+        }
+        if (followers == null) {
+            return;
+        }
+        for (final Follower follower : followers) {
+            if (response == null) {
+                follower.onFailure();
+            } else {
+                follower.onResponse(response.retainedDuplicate());
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.cache;
+
+import io.netty.buffer.ByteBuf;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+
+// The text and transaction descriptor of a complete SQL_BATCH message, assuming TDS 7.2 or later (ALL_HEADERS).
+class SqlBatch {
+    private static final int TRANSACTION_DESCRIPTOR_HEADER = 2;
+    private final String text;
+    private final long transactionDescriptor;
+
+    private SqlBatch(final String text, final long transactionDescriptor) {
+        this.text = text;
+        this.transactionDescriptor = transactionDescriptor;
+    }
+
+    // The message including its packet headers, returns null if it does not look like a batch
+    static SqlBatch parse(final ByteBuf message) {
+        final ByteBuf payload = message.alloc().heapBuffer(message.readableBytes());
+        try {
+            int index = message.readerIndex();
+            while (index + TDS_HEADER_SIZE <= message.writerIndex()) {
+                final int length = message.getUnsignedShort(index + 2);
+                if (length < TDS_HEADER_SIZE || index + length > message.writerIndex()) {
+                    return null;
+                }
+                payload.writeBytes(message, index + TDS_HEADER_SIZE, length - TDS_HEADER_SIZE);
+                index += length;
+            }
+            return parsePayload(payload);
+        } catch (final IndexOutOfBoundsException e) {
+            return null;
+        } finally {
+            payload.release();
+        }
+    }
+
+    private static SqlBatch parsePayload(final ByteBuf payload) {
+        final long totalLength = payload.getUnsignedIntLE(0);
+        if (totalLength < 4 || totalLength > payload.readableBytes()) {
+            return null;
+        }
+        long transactionDescriptor = 0;
+        int index = 4;
+        while (index < totalLength) {
+            final long length = payload.getUnsignedIntLE(index);
+            if (length < 6 || index + length > totalLength) {
+                return null;
+            }
+            if (payload.getUnsignedShortLE(index + 4) == TRANSACTION_DESCRIPTOR_HEADER) {
+                transactionDescriptor = payload.getLongLE(index + 6);
+            }
+            index += length;
+        }
+        final String text = payload.toString(index, payload.writerIndex() - index, UTF_16LE);
+        return new SqlBatch(text, transactionDescriptor);
+    }
+
+    String text() {
+        return text;
+    }
+
+    boolean isInTransaction() {
+        return transactionDescriptor != 0;
+    }
+
+    // Collapses whitespace outside of literals and quoted identifiers, so formatting does not split cache entries
+    static String normalize(final String text) {
+        final StringBuilder normalized = new StringBuilder(text.length());
+        char closing = 0;
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (closing != 0) {
+                normalized.append(c);
+                if (c == closing) {
+                    closing = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(c);
+                closing = closingQuote(c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static char closingQuote(final char c) {
+        switch (c) {
+            case '\'':
+                return '\'';
+            case '"':
+                return '"';
+            case '[':
+                return ']';
+            default:
+                return 0;
+        }
+    }
+}
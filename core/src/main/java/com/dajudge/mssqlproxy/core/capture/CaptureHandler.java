@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.STATUS_EOM;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+
+// Hands every packet relayed over a server connection to the capture. A packet that arrives in one piece, which is
+// the common case, is copied straight from the buffer it arrived in. Like the traffic metrics it sits past the TLS
+// handler, so it sees plaintext packets no matter how the connection is encrypted.
+public class CaptureHandler extends ChannelDuplexHandler {
+    private static final int LOGIN7 = 0x10;
+    private final WireCapture capture;
+    private final long session;
+    private final Framing requests = new Framing(WireCapture.REQUEST);
+    private final Framing responses = new Framing(WireCapture.RESPONSE);
+
+    public CaptureHandler(final WireCapture capture, final long session) {
+        this.capture = capture;
+        this.session = session;
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            responses.frame((ByteBuf) msg);
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(
+            final ChannelHandlerContext ctx,
+            final Object msg,
+            final ChannelPromise promise
+    ) throws Exception {
+        if (msg instanceof ByteBuf) {
+            requests.frame((ByteBuf) msg);
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    private final class Framing {
+        private final byte direction;
+        // A packet split across buffers is gathered here
+        private byte[] partial = new byte[TDS_HEADER_SIZE];
+        private int partialLength;
+        private int packetLength;
+        private boolean inMessage;
+        private boolean broken;
+
+        private Framing(final byte direction) {
+            this.direction = direction;
+        }
+
+        private void frame(final ByteBuf buffer) {
+            int index = buffer.readerIndex();
+            final int end = buffer.writerIndex();
+            while (index < end && !broken) {
+                if (partialLength == 0 && end - index >= TDS_HEADER_SIZE) {
+                    final int length = buffer.getUnsignedShort(index + 2);
+                    if (length < TDS_HEADER_SIZE) {
+                        broken = true;
+                        return;
+                    }
+                    if (end - index >= length) {
+                        record(buffer, index, length);
+                        index += length;
+                        continue;
+                    }
+                }
+                index = gather(buffer, index, end);
+            }
+        }
+
+        private int gather(final ByteBuf buffer, final int index, final int end) {
+            final int wanted = (partialLength < TDS_HEADER_SIZE ? TDS_HEADER_SIZE : packetLength) - partialLength;
+            final int copied = Math.min(wanted, end - index);
+            buffer.getBytes(index, partial, partialLength, copied);
+            partialLength += copied;
+            if (partialLength == TDS_HEADER_SIZE && packetLength == 0) {
+                packetLength = (partial[2] & 0xFF) << 8 | partial[3] & 0xFF;
+                if (packetLength < TDS_HEADER_SIZE) {
+                    broken = true;
+                    return end;
+                }
+                if (partial.length < packetLength) {
+                    final byte[] grown = new byte[packetLength];
+                    System.arraycopy(partial, 0, grown, 0, TDS_HEADER_SIZE);
+                    partial = grown;
+                }
+            }
+            if (packetLength > 0 && partialLength == packetLength) {
+                record(wrappedBuffer(partial, 0, packetLength), 0, packetLength);
+                partialLength = 0;
+                packetLength = 0;
+            }
+            return index + copied;
+        }
+
+        private void record(final ByteBuf buffer, final int index, final int length) {
+            final boolean login = !inMessage && buffer.getUnsignedByte(index) == LOGIN7;
+            capture.record(session, direction, buffer, index, length, login);
+            inMessage = (buffer.getUnsignedByte(index + 1) & STATUS_EOM) == 0;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.capture;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// A ring of variable sized records with many producers and a single consumer. Producers claim space with a CAS on
+// the tail, write their record and then publish its length in a separate array, so the consumer never sees a record
+// that is still being written. A record that doesn't fit at the end of the ring is preceded by padding up to the
+// end. A full ring drops the record rather than making the producer wait.
+class CaptureRing {
+    private static final int ALIGNMENT = 8;
+    private static final int ALIGNMENT_SHIFT = 3;
+    private final byte[] data;
+    private final int mask;
+    // Length of the record starting at each aligned offset, negative for padding, zero while unpublished
+    private final AtomicIntegerArray lengths;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    interface Consumer {
+        void accept(byte[] data, int offset, int length);
+    }
+
+    CaptureRing(final int capacity) {
+        if (capacity < ALIGNMENT || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two, not " + capacity);
+        }
+        data = new byte[capacity];
+        mask = capacity - 1;
+        lengths = new AtomicIntegerArray(capacity >> ALIGNMENT_SHIFT);
+    }
+
+    byte[] data() {
+        return data;
+    }
+
+    // Offset to write the record to, -1 if there is no space for it
+    int claim(final int length) {
+        final int aligned = align(length);
+        if (aligned > data.length) {
+            dropped.increment();
+            return -1;
+        }
+        while (true) {
+            final long position = tail.get();
+            final int offset = (int) (position & mask);
+            final int toEnd = data.length - offset;
+            final int needed = aligned <= toEnd ? aligned : toEnd + aligned;
+            if (position + needed - head.get() > data.length) {
+                dropped.increment();
+                return -1;
+            }
+            if (tail.compareAndSet(position, position + needed)) {
+                if (needed == aligned) {
+                    return offset;
+                }
+                lengths.lazySet(offset >> ALIGNMENT_SHIFT, -toEnd);
+                return 0;
+            }
+        }
+    }
+
+    void publish(final int offset, final int length) {
+        lengths.lazySet(offset >> ALIGNMENT_SHIFT, length);
+    }
+
+    // Hands the next published record to the consumer, false if there is none yet. Only one thread may poll.
+    boolean poll(final Consumer consumer) {
+        final long position = head.get();
+        final int offset = (int) (position & mask);
+        final int length = lengths.get(offset >> ALIGNMENT_SHIFT);
+        if (length == 0) {
+            return false;
+        }
+        if (length > 0) {
+            consumer.accept(data, offset, length);
+        }
+        lengths.lazySet(offset >> ALIGNMENT_SHIFT, 0);
+        head.lazySet(position + (length > 0 ? align(length) : -length));
+        return true;
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    private static int align(final int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.capture;
+
+// A packet read back from a capture segment
+public class CapturedPacket {
+    private final long epochNanos;
+    private final long session;
+    private final byte direction;
+    private final byte[] packet;
+
+    public CapturedPacket(final long epochNanos, final long session, final byte direction, final byte[] packet) {
+        this.epochNanos = epochNanos;
+        this.session = session;
+        this.direction = direction;
+        this.packet = packet;
+    }
+
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+
+    public long getSession() {
+        return session;
+    }
+
+    // WireCapture.REQUEST or WireCapture.RESPONSE
+    public byte getDirection() {
+        return direction;
+    }
+
+    // Including the TDS header
+    public byte[] getPacket() {
+        return packet;
+    }
+}
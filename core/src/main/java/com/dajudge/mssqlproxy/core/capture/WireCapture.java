@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+// Writes the packets of captured sessions to memory-mapped segment files. Event loops only copy a packet into the
+// ring, a thread of its own moves it to the current segment. Once a segment is full the next one is started and the
+// oldest ones are deleted, so the capture never takes more than maxSegments segments of disk.
+//
+// A segment starts with MAGIC, followed by records of a length (int), the capture time in nanoseconds since the
+// epoch (long), the session id (long), the direction (byte) and the packet. A zero length or the end of the file ends
+// the segment. Passwords in LOGIN7 packets are overwritten with zeros.
+public class WireCapture {
+    private static final Logger LOG = LoggerFactory.getLogger(WireCapture.class);
+    public static final byte[] MAGIC = "TDSCAP01".getBytes(StandardCharsets.US_ASCII);
+    public static final byte REQUEST = 0;
+    public static final byte RESPONSE = 1;
+    static final int RECORD_HEADER_SIZE = 8 + 8 + 1;
+    private static final int DEFAULT_RING_BYTES = 8 * 1024 * 1024;
+    private static final int MIN_SEGMENT_BYTES = 256 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long DROP_REPORT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private final Path directory;
+    private final String prefix;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final int sessionSampling;
+    private final CaptureRing ring;
+    private final AtomicLong sessions = new AtomicLong();
+    private final long epochNanosAtStart;
+    private final long nanoTimeAtStart;
+    private final Deque<Path> segments = new ArrayDeque<>();
+    private volatile boolean running;
+    private Thread writer;
+    private FileChannel file;
+    private MappedByteBuffer segment;
+    private int segmentCount;
+
+    public WireCapture(
+            final Path directory,
+            final String prefix,
+            final long segmentBytes,
+            final int maxSegments,
+            final int sessionSampling
+    ) {
+        this(directory, prefix, segmentBytes, maxSegments, sessionSampling, DEFAULT_RING_BYTES);
+    }
+
+    WireCapture(
+            final Path directory,
+            final String prefix,
+            final long segmentBytes,
+            final int maxSegments,
+            final int sessionSampling,
+            final int ringBytes
+    ) {
+        if (segmentBytes < MIN_SEGMENT_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Capture segments must have between " + MIN_SEGMENT_BYTES
+                    + " and " + Integer.MAX_VALUE + " bytes, not " + segmentBytes);
+        }
+        if (maxSegments < 1 || sessionSampling < 1) {
+            throw new IllegalArgumentException("Segments and session sampling must be at least 1");
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        this.sessionSampling = sessionSampling;
+        this.ring = new CaptureRing(ringBytes);
+        final Instant now = Instant.now();
+        this.epochNanosAtStart = TimeUnit.SECONDS.toNanos(now.getEpochSecond()) + now.getNano();
+        this.nanoTimeAtStart = System.nanoTime();
+    }
+
+    public void start() {
+        try {
+            Files.createDirectories(directory);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to create the capture directory " + directory, e);
+        }
+        running = true;
+        writer = new Thread(this::drain, "wire-capture-" + prefix);
+        writer.setDaemon(true);
+        writer.start();
+        LOG.info("Capturing every {}. session to {}", sessionSampling, directory);
+    }
+
+    // Writes what was captured so far before it returns
+    public void stop() {
+        running = false;
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // The id to capture a new session with, or -1 if it is not sampled
+    public long openSession() {
+        final long session = sessions.incrementAndGet();
+        return session % sessionSampling == 0 ? session : -1;
+    }
+
+    public long dropped() {
+        return ring.dropped();
+    }
+
+    // A full ring drops the packet, as do packets that are larger than a segment
+    public void record(
+            final long session,
+            final byte direction,
+            final ByteBuf buffer,
+            final int index,
+            final int length,
+            final boolean login
+    ) {
+        final int recordLength = RECORD_HEADER_SIZE + length;
+        final int offset = ring.claim(recordLength);
+        if (offset < 0) {
+            return;
+        }
+        final byte[] data = ring.data();
+        putLong(data, offset, epochNanosAtStart + System.nanoTime() - nanoTimeAtStart);
+        putLong(data, offset + 8, session);
+        data[offset + 16] = direction;
+        buffer.getBytes(index, data, offset + RECORD_HEADER_SIZE, length);
+        if (login) {
+            blankPasswords(data, offset + RECORD_HEADER_SIZE, length);
+        }
+        ring.publish(offset, recordLength);
+    }
+
+    // The password and the new password of a LOGIN7 message, as far as they are in its first packet
+    private static void blankPasswords(final byte[] data, final int packet, final int length) {
+        blankString(data, packet, length, 44);
+        blankString(data, packet, length, 86);
+    }
+
+    private static void blankString(final byte[] data, final int packet, final int length, final int field) {
+        final int payload = packet + TDS_HEADER_SIZE;
+        final int payloadLength = length - TDS_HEADER_SIZE;
+        if (field + 4 > payloadLength) {
+            return;
+        }
+        final int start = getShortLE(data, payload + field);
+        final int end = Math.min(payloadLength, start + getShortLE(data, payload + field + 2) * 2);
+        for (int i = start; i < end; i++) {
+            data[payload + i] = 0;
+        }
+    }
+
+    private void drain() {
+        long lastDropped = 0;
+        long lastReport = System.nanoTime();
+        try {
+            while (true) {
+                // Whatever was published before stop() was called is still written
+                final boolean stopping = !running;
+                if (ring.poll(this::write)) {
+                    continue;
+                }
+                if (stopping) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                if (System.nanoTime() - lastReport > DROP_REPORT_NANOS) {
+                    final long dropped = ring.dropped();
+                    if (dropped > lastDropped) {
+                        LOG.warn("Dropped {} packets of the capture, it cannot keep up", dropped - lastDropped);
+                        lastDropped = dropped;
+                    }
+                    lastReport = System.nanoTime();
+                }
+            }
+        } catch (final RuntimeException e) {
+            // The ring fills up and stays full, so the event loops drop every packet from here on
+            LOG.error("Capture to {} failed, no longer capturing", directory, e);
+        } finally {
+            closeSegment();
+        }
+    }
+
+    private void write(final byte[] data, final int offset, final int length) {
+        if (4 + length > segmentBytes - MAGIC.length) {
+            return;
+        }
+        if (segment == null || segment.remaining() < 4 + length) {
+            nextSegment();
+        }
+        segment.putInt(length);
+        segment.put(data, offset, length);
+    }
+
+    private void nextSegment() {
+        closeSegment();
+        final Path path = directory.resolve(String.format("%s-%06d.tdscap", prefix, ++segmentCount));
+        try {
+            file = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+            segment = file.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            segment.put(MAGIC);
+            segments.add(path);
+            while (segments.size() > maxSegments) {
+                Files.deleteIfExists(segments.remove());
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to start capture segment " + path, e);
+        }
+    }
+
+    // Unmapped right away instead of whenever the buffer is collected, and cut to what was written
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        final int written = segment.position();
+        PlatformDependent.freeDirectBuffer(segment);
+        segment = null;
+        try {
+            file.truncate(written);
+            file.close();
+        } catch (final IOException e) {
+            LOG.warn("Failed to close capture segment", e);
+        }
+    }
+
+    public static List<CapturedPacket> readSegment(final Path path) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        final byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a capture segment: " + path);
+        }
+        final List<CapturedPacket> packets = new ArrayList<>();
+        while (buffer.remaining() >= 4) {
+            final int length = buffer.getInt();
+            if (length == 0) {
+                break;
+            }
+            final long epochNanos = buffer.getLong();
+            final long session = buffer.getLong();
+            final byte direction = buffer.get();
+            final byte[] packet = new byte[length - RECORD_HEADER_SIZE];
+            buffer.get(packet);
+            packets.add(new CapturedPacket(epochNanos, session, direction, packet));
+        }
+        return packets;
+    }
+
+    private static void putLong(final byte[] data, final int offset, final long value) {
+        for (int i = 0; i < 8; i++) {
+            data[offset + i] = (byte) (value >>> (56 - i * 8));
+        }
+    }
+
+    private static int getShortLE(final byte[] data, final int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+}
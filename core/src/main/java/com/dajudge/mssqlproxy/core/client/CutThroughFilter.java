@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.client;
+
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+
+public class CutThroughFilter implements Sink<ByteBuf> {
+    private final HandshakeState handshake;
+    private final Sink<ByteBuf> framedSink;
+    private final Sink<ByteBuf> passThroughSink;
+
+    public CutThroughFilter(
+            final HandshakeState handshake,
+            final Sink<ByteBuf> framedSink,
+            final Sink<ByteBuf> passThroughSink
+    ) {
+        this.handshake = handshake;
+        this.framedSink = framedSink;
+        this.passThroughSink = passThroughSink;
+    }
+
+    @Override
+    public ChannelFuture close() {
+        return framedSink.close();
+    }
+
+    @Override
+    public void accept(final ByteBuf byteBuf) {
+        if (handshake.isComplete()) {
+            passThroughSink.accept(byteBuf);
+        } else {
+            framedSink.accept(byteBuf);
+        }
+    }
+}
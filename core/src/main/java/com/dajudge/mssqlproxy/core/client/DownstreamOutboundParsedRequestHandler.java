@@ -18,18 +18,29 @@ package com.dajudge.mssqlproxy.core.client;
 
 import com.dajudge.mssqlproxy.core.client.requests.GenericRequest;
 import com.dajudge.mssqlproxy.core.client.requests.LoginRequest;
+import com.dajudge.mssqlproxy.core.client.requests.PassThroughRequest;
 import com.dajudge.mssqlproxy.core.client.requests.PreloginRequest;
+import com.dajudge.mssqlproxy.core.protocol.transport.EncryptionLevel;
 import com.dajudge.mssqlproxy.core.protocol.transport.EncryptionState;
 import com.dajudge.mssqlproxy.core.protocol.transport.OptionContainer;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelPromise;
 import io.r2dbc.mssql.client.ssl.SslState;
 
-import static com.dajudge.mssqlproxy.core.protocol.transport.EncryptionLevel.REQUIRED;
-
 public class DownstreamOutboundParsedRequestHandler extends ChannelOutboundHandlerAdapter {
     private static final byte ENCRYPTION_OPTION = (byte) 1;
+    private final EncryptionLevel requestedEncryption;
+    private final HandshakeState handshake;
+
+    public DownstreamOutboundParsedRequestHandler(
+            final EncryptionLevel requestedEncryption,
+            final HandshakeState handshake
+    ) {
+        this.requestedEncryption = requestedEncryption;
+        this.handshake = handshake;
+    }
 
     @Override
     public void write(
@@ -37,21 +48,29 @@ public class DownstreamOutboundParsedRequestHandler extends ChannelOutboundHandl
             final Object msg,
             final ChannelPromise promise
     ) throws Exception {
-        if (msg instanceof LoginRequest) {
+        if (msg instanceof PassThroughRequest) {
+            ctx.write(((PassThroughRequest) msg).getData(), promise);
+        } else if (msg instanceof LoginRequest) {
             ctx.pipeline().fireUserEventTriggered(msg);
-            ctx.pipeline().fireUserEventTriggered(SslState.CONNECTION);
+            if (!handshake.isTlsEstablished()) {
+                startTls(ctx.pipeline(), handshake);
+            }
         } else if (msg instanceof PreloginRequest) {
-            // Force server communication to be fully encrypted
+            // Force server communication to be encrypted, either fully or only for the login
             final PreloginRequest preloginRequest = (PreloginRequest) msg;
             final OptionContainer encryptionOption = preloginRequest.getOptions().get(ENCRYPTION_OPTION);
             final byte[] encryptionData = encryptionOption.getOptionData();
-            encryptionData[0] = new EncryptionState(REQUIRED, false).serialize();
+            encryptionData[0] = new EncryptionState(requestedEncryption, false).serialize();
             encryptionOption.setOptionData(encryptionData);
-            ctx.writeAndFlush(preloginRequest.getMessage());
+            ctx.write(preloginRequest.getMessage(), promise);
         } else if (msg instanceof GenericRequest) {
-            ctx.writeAndFlush(((GenericRequest) msg).getMessage());
+            ctx.write(((GenericRequest) msg).getMessage(), promise);
         } else {
             super.write(ctx, msg, promise);
         }
     }
+
+    public static void startTls(final ChannelPipeline pipeline, final HandshakeState handshake) {
+        pipeline.fireUserEventTriggered(handshake.isLoginOnlyEncryption() ? SslState.LOGIN_ONLY : SslState.CONNECTION);
+    }
 }
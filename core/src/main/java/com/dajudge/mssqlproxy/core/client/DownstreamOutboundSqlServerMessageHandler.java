@@ -20,10 +20,8 @@ import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
-import io.r2dbc.mssql.message.tds.ContextualTdsFragment;
 
-import static io.netty.buffer.Unpooled.copiedBuffer;
-import static io.r2dbc.mssql.message.header.Header.decode;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
 
 public class DownstreamOutboundSqlServerMessageHandler extends ChannelOutboundHandlerAdapter {
     @Override
@@ -33,15 +31,9 @@ public class DownstreamOutboundSqlServerMessageHandler extends ChannelOutboundHa
             final ChannelPromise promise
     ) throws Exception {
         if (msg instanceof SqlServerMessage) {
+            // The packet already carries a valid header, so it is forwarded as is and the channel takes over both buffers
             final SqlServerMessage sqlServerMessage = (SqlServerMessage) msg;
-            try {
-                ctx.writeAndFlush(new ContextualTdsFragment(
-                        decode(sqlServerMessage.header()),
-                        copiedBuffer(sqlServerMessage.payload())
-                ));
-            } finally {
-                sqlServerMessage.release();
-            }
+            ctx.write(wrappedBuffer(sqlServerMessage.header(), sqlServerMessage.payload()), promise);
         } else {
             super.write(ctx, msg, promise);
         }
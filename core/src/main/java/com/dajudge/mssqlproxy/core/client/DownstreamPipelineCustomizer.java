@@ -16,6 +16,7 @@
 
 package com.dajudge.mssqlproxy.core.client;
 
+import com.dajudge.mssqlproxy.core.protocol.transport.EncryptionLevel;
 import io.netty.channel.ChannelPipeline;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
@@ -30,15 +31,24 @@ import io.r2dbc.mssql.message.header.PacketIdProvider;
 
 import java.util.UUID;
 
-import static com.dajudge.proxybase.ProxyChannel.DOWNSTREAM_INBOUND_HANDLER;
+import static com.dajudge.mssqlproxy.core.net.ProxySession.DOWNSTREAM_INBOUND_HANDLER;
 
 public class DownstreamPipelineCustomizer {
     private final String username;
     private final String password;
+    private final EncryptionLevel requestedEncryption;
+    private final HandshakeState handshake;
 
-    public DownstreamPipelineCustomizer(final String username, final String password) {
+    public DownstreamPipelineCustomizer(
+            final String username,
+            final String password,
+            final EncryptionLevel requestedEncryption,
+            final HandshakeState handshake
+    ) {
         this.username = username;
         this.password = password;
+        this.requestedEncryption = requestedEncryption;
+        this.handshake = handshake;
     }
 
     public void customize(final ChannelPipeline pipeline) {
@@ -61,7 +71,7 @@ public class DownstreamPipelineCustomizer {
         pipeline.addBefore(
                 DOWNSTREAM_INBOUND_HANDLER,
                 LoginHandler.class.getName(),
-                new LoginHandler(username, password)
+                new LoginHandler(username, password, handshake)
         );
         pipeline.addBefore(
                 DOWNSTREAM_INBOUND_HANDLER,
@@ -71,7 +81,7 @@ public class DownstreamPipelineCustomizer {
         pipeline.addBefore(
                 DOWNSTREAM_INBOUND_HANDLER,
                 DownstreamOutboundParsedRequestHandler.class.getName(),
-                new DownstreamOutboundParsedRequestHandler()
+                new DownstreamOutboundParsedRequestHandler(requestedEncryption, handshake)
         );
     }
 
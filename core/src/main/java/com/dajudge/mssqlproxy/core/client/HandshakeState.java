@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.client;
+
+import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+import com.dajudge.mssqlproxy.core.protocol.transport.EncryptionLevel;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HandshakeState {
+    private final List<Runnable> completionListeners = new ArrayList<>();
+    private final List<Runnable> tlsListeners = new ArrayList<>();
+    private final List<Runnable> rejectionListeners = new ArrayList<>();
+    private volatile boolean complete;
+    private boolean tlsEstablished;
+    private volatile EncryptionLevel serverEncryption;
+    private volatile int tdsVersion;
+    private volatile int spid;
+    private boolean preloginAnswered;
+    private boolean recordingTranscript;
+    private byte[] preloginResponse;
+    private ByteArrayOutputStream loginResponse;
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void complete() {
+        complete = true;
+        completionListeners.forEach(Runnable::run);
+    }
+
+    public void onComplete(final Runnable listener) {
+        completionListeners.add(listener);
+    }
+
+    // The server answered the login without acknowledging it
+    public void loginRejected() {
+        rejectionListeners.forEach(Runnable::run);
+    }
+
+    public void onLoginRejected(final Runnable listener) {
+        rejectionListeners.add(listener);
+    }
+
+    public void loginAcknowledged(final int tdsVersion, final int spid) {
+        this.tdsVersion = tdsVersion;
+        this.spid = spid;
+    }
+
+    // As acknowledged by the server, 0 until the login was acknowledged
+    public int getTdsVersion() {
+        return tdsVersion;
+    }
+
+    public int getSpid() {
+        return spid;
+    }
+
+    public boolean isTlsEstablished() {
+        return tlsEstablished;
+    }
+
+    public void tlsEstablished() {
+        tlsEstablished = true;
+        tlsListeners.forEach(Runnable::run);
+    }
+
+    public void onTlsEstablished(final Runnable listener) {
+        tlsListeners.add(listener);
+    }
+
+    public void serverEncryption(final EncryptionLevel level) {
+        serverEncryption = level;
+    }
+
+    // The client already got its prelogin response from somewhere else, the server's one is dropped
+    public void preloginAnswered() {
+        preloginAnswered = true;
+    }
+
+    public boolean isPreloginAnswered() {
+        return preloginAnswered;
+    }
+
+    // Keeps copies of the responses relayed to the client, so they can be replayed to later clients
+    public void recordTranscript() {
+        recordingTranscript = true;
+        loginResponse = new ByteArrayOutputStream();
+    }
+
+    public void preloginResponse(final SqlServerMessage message) {
+        if (recordingTranscript) {
+            preloginResponse = bytes(message);
+        }
+    }
+
+    public void loginResponse(final SqlServerMessage message) {
+        if (recordingTranscript) {
+            final byte[] bytes = bytes(message);
+            loginResponse.write(bytes, 0, bytes.length);
+        }
+    }
+
+    public byte[] getPreloginResponse() {
+        return preloginResponse;
+    }
+
+    public byte[] getLoginResponse() {
+        return loginResponse.toByteArray();
+    }
+
+    private static byte[] bytes(final SqlServerMessage message) {
+        final byte[] bytes = new byte[message.header().readableBytes() + message.payload().readableBytes()];
+        message.header().getBytes(message.header().readerIndex(), bytes, 0, message.header().readableBytes());
+        message.payload().getBytes(
+                message.payload().readerIndex(),
+                bytes,
+                message.header().readableBytes(),
+                message.payload().readableBytes()
+        );
+        return bytes;
+    }
+
+    // The server only encrypts the login packet if neither side asked for more during the prelogin
+    public boolean isLoginOnlyEncryption() {
+        return serverEncryption == EncryptionLevel.OFF;
+    }
+}
@@ -26,16 +26,21 @@ import io.r2dbc.mssql.client.ssl.SslState;
 public class LoginHandler extends ChannelInboundHandlerAdapter {
     private final String username;
     private final String password;
+    private final HandshakeState handshake;
     private LoginRequest loginRequest;
 
-    public LoginHandler(final String username, final String password) {
+    public LoginHandler(final String username, final String password, final HandshakeState handshake) {
         this.username = username;
         this.password = password;
+        this.handshake = handshake;
     }
 
     @Override
     public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) throws Exception {
-        if (evt instanceof LoginRequest) {
+        if (evt instanceof LoginRequest && handshake.isTlsEstablished()) {
+            // Connection was warmed up before the client arrived
+            ctx.channel().writeAndFlush(rewriteLogin((LoginRequest) evt));
+        } else if (evt instanceof LoginRequest) {
             this.loginRequest = (LoginRequest) evt;
         } else {
             super.userEventTriggered(ctx, evt);
@@ -46,8 +51,11 @@ public class LoginHandler extends ChannelInboundHandlerAdapter {
     @SuppressWarnings("PMD.NullAssignment") // we use the null reference as a state
     public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
         if (msg instanceof SslState && loginRequest != null) {
+            handshake.tlsEstablished();
             ctx.channel().writeAndFlush(rewriteLogin(loginRequest));
             loginRequest = null;
+        } else if (msg instanceof SslState) {
+            handshake.tlsEstablished();
         } else {
             super.channelRead(ctx, msg);
         }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.client;
+
+import com.dajudge.mssqlproxy.core.client.requests.ParsedRequest;
+import com.dajudge.mssqlproxy.core.client.requests.PassThroughRequest;
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+
+public class PassThroughRequestSink implements Sink<ByteBuf> {
+    private final Sink<ParsedRequest> requestSink;
+
+    public PassThroughRequestSink(final Sink<ParsedRequest> requestSink) {
+        this.requestSink = requestSink;
+    }
+
+    @Override
+    public ChannelFuture close() {
+        return requestSink.close();
+    }
+
+    @Override
+    public void accept(final ByteBuf byteBuf) {
+        requestSink.accept(new PassThroughRequest(byteBuf));
+    }
+}
@@ -20,6 +20,7 @@ import com.dajudge.mssqlproxy.core.client.requests.LoginRequest;
 import com.dajudge.mssqlproxy.core.client.requests.ParsedRequest;
 import com.dajudge.mssqlproxy.core.client.requests.PreloginRequest;
 import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+import com.dajudge.mssqlproxy.core.protocol.transport.TDSHeaderView;
 import com.dajudge.proxybase.Sink;
 import io.netty.channel.ChannelFuture;
 import org.slf4j.Logger;
@@ -30,6 +31,7 @@ public class RequestParser implements Sink<SqlServerMessage> {
     private static final byte PRE_LOGIN_REQUEST = 18;
     private static final byte LOGIN_REQUEST = 16;
     private final Sink<ParsedRequest> requestSink;
+    private final TDSHeaderView header = new TDSHeaderView();
 
     public RequestParser(final Sink<ParsedRequest> requestSink) {
         this.requestSink = requestSink;
@@ -42,10 +44,11 @@ public class RequestParser implements Sink<SqlServerMessage> {
 
     @Override
     public void accept(final SqlServerMessage msg) {
-        if (msg.parsedHeader().getMessageType() == PRE_LOGIN_REQUEST) {
+        final int messageType = header.wrap(msg.header()).getMessageType();
+        if (messageType == PRE_LOGIN_REQUEST) {
             LOG.debug("PRELOGIN REQUEST");
             requestSink.accept(new PreloginRequest(msg));
-        } else if (msg.parsedHeader().getMessageType() == LOGIN_REQUEST) {
+        } else if (messageType == LOGIN_REQUEST) {
             LOG.debug("LOGIN REQUEST");
             requestSink.accept(new LoginRequest(msg));
         } else {
@@ -16,9 +16,11 @@
 package com.dajudge.mssqlproxy.core.client;
 
 import com.dajudge.mssqlproxy.core.client.responses.GenericResponse;
+import com.dajudge.mssqlproxy.core.client.responses.LoginResponse;
 import com.dajudge.mssqlproxy.core.client.responses.ParsedResponse;
 import com.dajudge.mssqlproxy.core.client.responses.PreloginResponse;
 import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+import com.dajudge.mssqlproxy.core.protocol.transport.TDSHeaderView;
 import com.dajudge.proxybase.Sink;
 import io.netty.channel.ChannelFuture;
 import org.slf4j.Logger;
@@ -26,8 +28,11 @@ import org.slf4j.LoggerFactory;
 
 public class ResponseParser implements Sink<SqlServerMessage> {
     private static final Logger LOG = LoggerFactory.getLogger(ResponseParser.class);
+    private static final int TABULAR_RESULT = 4;
     private final Sink<ParsedResponse> replySink;
+    private final TDSHeaderView header = new TDSHeaderView();
     private boolean firstPreloginSeen = false;
+    private boolean loginResponseSeen = false;
 
     public ResponseParser(final Sink<ParsedResponse> replySink) {
         this.replySink = replySink;
@@ -40,10 +45,15 @@ public class ResponseParser implements Sink<SqlServerMessage> {
 
     @Override
     public void accept(final SqlServerMessage sqlServerMessage) {
-        if (sqlServerMessage.parsedHeader().getMessageType() == 4 && !firstPreloginSeen) { // Prelogin response
+        header.wrap(sqlServerMessage.header());
+        if (header.getMessageType() == TABULAR_RESULT && !firstPreloginSeen) { // Prelogin response
             LOG.debug("PRELOGIN RESPONSE");
             replySink.accept(new PreloginResponse(sqlServerMessage));
             firstPreloginSeen = true;
+        } else if (header.getMessageType() == TABULAR_RESULT && !loginResponseSeen) {
+            LOG.debug("LOGIN RESPONSE");
+            loginResponseSeen = header.isEndOfMessage();
+            replySink.accept(new LoginResponse(sqlServerMessage));
         } else {
             LOG.debug("GENERIC RESPONSE");
             replySink.accept(new GenericResponse(sqlServerMessage));
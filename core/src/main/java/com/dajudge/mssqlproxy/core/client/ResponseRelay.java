@@ -16,6 +16,7 @@
 package com.dajudge.mssqlproxy.core.client;
 
 import com.dajudge.mssqlproxy.core.client.responses.GenericResponse;
+import com.dajudge.mssqlproxy.core.client.responses.LoginResponse;
 import com.dajudge.mssqlproxy.core.client.responses.ParsedResponse;
 import com.dajudge.mssqlproxy.core.client.responses.PreloginResponse;
 import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
@@ -28,9 +29,12 @@ import static com.dajudge.mssqlproxy.core.protocol.transport.EncryptionLevel.NOT
 
 public class ResponseRelay implements Sink<ParsedResponse> {
     private static final byte ENCRYPTION_OPTION = (byte) 1;
+    private final HandshakeState handshake;
     private final Sink<SqlServerMessage> upstreamSink;
+    private boolean loginAcknowledged;
 
-    public ResponseRelay(final Sink<SqlServerMessage> upstreamSink) {
+    public ResponseRelay(final HandshakeState handshake, final Sink<SqlServerMessage> upstreamSink) {
+        this.handshake = handshake;
         this.upstreamSink = upstreamSink;
     }
 
@@ -47,11 +51,37 @@ public class ResponseRelay implements Sink<ParsedResponse> {
                 // Rewrite the encryption state to force the client into plaintext communication
                 final OptionContainer encryptionOption = response.getOptions().get(ENCRYPTION_OPTION);
                 final byte[] encryptionData = encryptionOption.getOptionData();
+                handshake.serverEncryption(EncryptionState.deserialize(encryptionData[0]).getLevel());
+                if (handshake.isPreloginAnswered()) {
+                    response.getMessage().release();
+                    return;
+                }
                 encryptionData[0] = new EncryptionState(NOT_SUPPORTED, false).serialize();
                 encryptionOption.setOptionData(encryptionData);
+                handshake.preloginResponse(response.getMessage());
                 upstreamSink.accept(response.getMessage());
             }
 
+            @Override
+            public void onLoginResponse(final LoginResponse response) {
+                if (response.isLoginAcknowledged()) {
+                    loginAcknowledged = true;
+                    handshake.loginAcknowledged(
+                            response.getTdsVersion(),
+                            response.getMessage().parsedHeader().getSpid()
+                    );
+                }
+                final boolean endOfMessage = response.isEndOfMessage();
+                handshake.loginResponse(response.getMessage());
+                upstreamSink.accept(response.getMessage());
+                if (endOfMessage && loginAcknowledged) {
+                    // Nothing past the login is rewritten, so both directions can skip the framing from here on
+                    handshake.complete();
+                } else if (endOfMessage) {
+                    handshake.loginRejected();
+                }
+            }
+
             @Override
             public void onGenericResponse(final GenericResponse response) {
                 upstreamSink.accept(response.getMessage());
@@ -17,7 +17,7 @@ package com.dajudge.mssqlproxy.core.client.requests;
 
 import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
 
-public class GenericRequest extends ParsedRequest {
+public class GenericRequest extends MessageRequest {
     public GenericRequest(final SqlServerMessage msg) {
         super(msg);
     }
@@ -18,12 +18,12 @@ package com.dajudge.mssqlproxy.core.client.requests;
 import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
 import com.dajudge.mssqlproxy.core.protocol.transport.Login7Message;
 
-public class LoginRequest extends ParsedRequest {
+public class LoginRequest extends MessageRequest {
     public LoginRequest(final SqlServerMessage msg) {
         super(msg);
     }
 
     public Login7Message parsed() {
-        return new Login7Message(getMessage().payload().array());
+        return new Login7Message(getMessage().payload());
     }
 }
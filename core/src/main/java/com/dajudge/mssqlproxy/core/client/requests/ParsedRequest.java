@@ -15,16 +15,5 @@
  */
 package com.dajudge.mssqlproxy.core.client.requests;
 
-import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
-
 public abstract class ParsedRequest {
-    private final SqlServerMessage msg;
-
-    protected ParsedRequest(final SqlServerMessage msg) {
-        this.msg = msg;
-    }
-
-    public SqlServerMessage getMessage() {
-        return msg;
-    }
 }
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.client.requests;
+
+import io.netty.buffer.ByteBuf;
+
+public class PassThroughRequest extends ParsedRequest {
+    private final ByteBuf data;
+
+    public PassThroughRequest(final ByteBuf data) {
+        this.data = data;
+    }
+
+    public ByteBuf getData() {
+        return data;
+    }
+}
@@ -17,17 +17,61 @@ package com.dajudge.mssqlproxy.core.client.requests;
 
 import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
 import com.dajudge.mssqlproxy.core.protocol.transport.OptionContainer;
+import com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader;
+import io.netty.buffer.ByteBuf;
 
 import java.util.Map;
 
 import static com.dajudge.mssqlproxy.core.protocol.transport.OptionContainer.parseOptions;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.STATUS_EOM;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static io.netty.buffer.Unpooled.buffer;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+
+public class PreloginRequest extends MessageRequest {
+    private static final int PRELOGIN_MESSAGE_TYPE = 0x12;
+    private static final byte MARS_OPTION = (byte) 4;
+    // VERSION, ENCRYPTION, INSTOPT, THREADID, MARS
+    private static final byte[] STANDARD_OPTIONS = {0, 1, 2, 3, MARS_OPTION};
+    private static final int[] STANDARD_OPTION_LENGTHS = {6, 1, 1, 4, 1};
 
-public class PreloginRequest extends ParsedRequest {
     public PreloginRequest(final SqlServerMessage msg) {
         super(msg);
     }
 
+    // A prelogin like a client without MARS would send, for server connections opened before any client arrives
+    public static PreloginRequest standard() {
+        final ByteBuf payload = buffer();
+        int offset = STANDARD_OPTIONS.length * 5 + 1;
+        for (int i = 0; i < STANDARD_OPTIONS.length; i++) {
+            payload.writeByte(STANDARD_OPTIONS[i]).writeShort(offset).writeShort(STANDARD_OPTION_LENGTHS[i]);
+            offset += STANDARD_OPTION_LENGTHS[i];
+        }
+        payload.writeByte(0xFF);
+        for (final int length : STANDARD_OPTION_LENGTHS) {
+            payload.writeZero(length);
+        }
+        final byte[] header = new TDSHeader(
+                PRELOGIN_MESSAGE_TYPE,
+                STATUS_EOM,
+                TDS_HEADER_SIZE + payload.readableBytes(),
+                0,
+                1,
+                0
+        ).serialize();
+        return new PreloginRequest(new SqlServerMessage(wrappedBuffer(header), payload));
+    }
+
+    public boolean isMarsRequested() {
+        final OptionContainer mars = getOptions().get(MARS_OPTION);
+        if (mars == null) {
+            return false;
+        }
+        final byte[] data = mars.getOptionData();
+        return data.length > 0 && data[0] != 0;
+    }
+
     public Map<Byte, OptionContainer> getOptions() {
-        return parseOptions(getMessage().payload().array());
+        return parseOptions(getMessage().payload());
     }
 }
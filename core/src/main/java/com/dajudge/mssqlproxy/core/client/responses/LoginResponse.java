@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.client.responses;
+
+import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TokenScanner.containsLoginAck;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TokenScanner.loginAckTdsVersion;
+
+public class LoginResponse extends ParsedResponse {
+
+    public LoginResponse(final SqlServerMessage msg) {
+        super(msg);
+    }
+
+    @Override
+    public void visit(final ResponseVisitorVisitor visitor) {
+        visitor.onLoginResponse(this);
+    }
+
+    public boolean isLoginAcknowledged() {
+        return containsLoginAck(getMessage().payload());
+    }
+
+    public int getTdsVersion() {
+        return loginAckTdsVersion(getMessage().payload());
+    }
+
+    public boolean isEndOfMessage() {
+        return getMessage().parsedHeader().isEndOfMessage();
+    }
+}
@@ -33,6 +33,8 @@ public abstract class ParsedResponse {
     public interface ResponseVisitorVisitor {
         void onPreloginResponse(PreloginResponse response);
 
+        void onLoginResponse(LoginResponse response);
+
         void onGenericResponse(GenericResponse response);
     }
 }
@@ -34,6 +34,6 @@ public class PreloginResponse extends ParsedResponse {
     }
 
     public Map<Byte, OptionContainer> getOptions() {
-        return parseOptions(getMessage().payload().array());
+        return parseOptions(getMessage().payload());
     }
 }
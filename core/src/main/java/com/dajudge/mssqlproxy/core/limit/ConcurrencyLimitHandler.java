@@ -0,0 +1,267 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.limit;
+
+import com.dajudge.mssqlproxy.core.client.HandshakeState;
+import com.dajudge.mssqlproxy.core.net.DroppedWriteException;
+import com.dajudge.mssqlproxy.core.protocol.ErrorResponse;
+import com.dajudge.mssqlproxy.core.protocol.PacketTracker;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// Sits on a server channel past the login and only lets requests through while the backend's limiter has a permit
+// for them. A request that gets none in time is answered with an error instead of being sent. The latency from a
+// request's admission to the end of its response is what the limiter adapts to. Requests of a session with an open
+// transaction, including its commit or rollback, are let through right away: the locks they hold may be what the
+// admitted requests are waiting for.
+public class ConcurrencyLimitHandler extends ChannelDuplexHandler {
+    private static final int SQL_BATCH = 1;
+    private static final int RPC = 3;
+    private static final int ATTENTION = 6;
+    private static final int TRANSACTION_MANAGER = 14;
+    private static final int TRANSACTION_DESCRIPTOR_HEADER = 2;
+    private static final int ERROR_SEVERITY = 16;
+    private static final String REJECTED = "Request was rejected by the concurrency limit";
+    private final ConcurrencyLimiter limiter;
+    private final HandshakeState handshake;
+    private final long queueTimeoutMillis;
+    private final PacketTracker requests = new PacketTracker(new PacketTracker.Listener() {
+        @Override
+        public int onPacketStatus(final int type, final int status, final boolean firstPacketOfMessage) {
+            return status;
+        }
+
+        @Override
+        public void onMessageEnd(final int type) {
+        }
+    });
+    private final PacketTracker responses = new PacketTracker(new PacketTracker.Listener() {
+        @Override
+        public int onPacketStatus(final int type, final int status, final boolean firstPacketOfMessage) {
+            return status;
+        }
+
+        @Override
+        public void onMessageEnd(final int type) {
+            onResponseEnd();
+        }
+    });
+    private final Deque<Write> queued = new ArrayDeque<>();
+    private boolean queuedComplete;
+    private boolean rejecting;
+    private ConcurrencyLimiter.Waiter waiter;
+    private ScheduledFuture<?> queueTimeout;
+    private boolean inFlight;
+    private boolean cancelled;
+    private long admittedAt;
+    private ChannelHandlerContext ctx;
+
+    public ConcurrencyLimitHandler(
+            final ConcurrencyLimiter limiter,
+            final HandshakeState handshake,
+            final long queueTimeoutMillis
+    ) {
+        this.limiter = limiter;
+        this.handshake = handshake;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+
+    @Override
+    public void handlerAdded(final ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
+        if (!(msg instanceof ByteBuf) || !handshake.isComplete() || requests.isBroken()) {
+            ctx.write(msg, promise);
+            return;
+        }
+        final ByteBuf buffer = (ByteBuf) msg;
+        final boolean requestStart = requests.isAtMessageBoundary() && buffer.isReadable();
+        final int type = requestStart ? buffer.getUnsignedByte(buffer.readerIndex()) : -1;
+        requests.track(buffer);
+        final boolean requestEnd = requests.isAtMessageBoundary();
+        if (rejecting && type != ATTENTION) {
+            buffer.release();
+            promise.setFailure(new DroppedWriteException(REJECTED));
+            if (requestEnd) {
+                reject();
+            }
+        } else if (!queued.isEmpty() && !rejecting) {
+            queued.addLast(new Write(buffer, promise));
+            queuedComplete = requestEnd;
+            if (type == ATTENTION && limiter.cancel(waiter)) {
+                // The request has to reach the server so the attention can cancel it
+                limiter.forceAcquire();
+                admit();
+                cancelled = true;
+            }
+        } else if (requestStart && isLimited(type) && !inFlight) {
+            if (type == TRANSACTION_MANAGER || isInTransaction(buffer)) {
+                limiter.forceAcquire();
+                admitted();
+                ctx.write(buffer, promise);
+            } else if (limiter.tryAcquire()) {
+                admitted();
+                ctx.write(buffer, promise);
+            } else {
+                queuedComplete = requestEnd;
+                enqueue(new Write(buffer, promise));
+            }
+        } else {
+            cancelled |= type == ATTENTION && inFlight;
+            ctx.write(msg, promise);
+        }
+    }
+
+    private static boolean isLimited(final int type) {
+        return type == SQL_BATCH || type == RPC || type == TRANSACTION_MANAGER;
+    }
+
+    // From the transaction descriptor in the request's ALL_HEADERS, as far as they are in its first buffer
+    private static boolean isInTransaction(final ByteBuf buffer) {
+        final int start = buffer.readerIndex() + TDS_HEADER_SIZE;
+        final int end = buffer.writerIndex();
+        if (start + 4 > end) {
+            return false;
+        }
+        final long headersEnd = Math.min(start + buffer.getUnsignedIntLE(start), end);
+        long index = start + 4;
+        while (index + 6 <= headersEnd) {
+            final long length = buffer.getUnsignedIntLE((int) index);
+            if (length < 6) {
+                return false;
+            }
+            if (buffer.getUnsignedShortLE((int) index + 4) == TRANSACTION_DESCRIPTOR_HEADER) {
+                return index + 14 <= end && buffer.getLongLE((int) index + 6) != 0;
+            }
+            index += length;
+        }
+        return false;
+    }
+
+    private void enqueue(final Write write) {
+        queued.addLast(write);
+        final ConcurrencyLimiter.Waiter waiter = new ConcurrencyLimiter.Waiter(ctx.executor(), () -> {
+            if (this.waiter != null) {
+                admit();
+            } else {
+                // Closed meanwhile
+                limiter.release();
+            }
+        });
+        this.waiter = waiter;
+        limiter.enqueue(waiter);
+        queueTimeout = ctx.executor().schedule(() -> {
+            if (this.waiter == waiter && limiter.cancel(waiter)) {
+                this.waiter = null;
+                rejecting = true;
+                if (queuedComplete) {
+                    reject();
+                }
+            }
+        }, queueTimeoutMillis, MILLISECONDS);
+    }
+
+    private void admit() {
+        waiter = null;
+        queueTimeout.cancel(false);
+        admitted();
+        Write write;
+        while ((write = queued.pollFirst()) != null) {
+            ctx.write(write.buffer, write.promise);
+        }
+        ctx.flush();
+    }
+
+    private void admitted() {
+        inFlight = true;
+        cancelled = false;
+        admittedAt = System.nanoTime();
+    }
+
+    private void reject() {
+        rejecting = false;
+        Write write;
+        while ((write = queued.pollFirst()) != null) {
+            write.buffer.release();
+            write.promise.setFailure(new DroppedWriteException(REJECTED));
+        }
+        ctx.fireChannelRead(ErrorResponse.create(
+                handshake.getTdsVersion(),
+                handshake.getSpid(),
+                ErrorResponse.PROXY_ERROR_NUMBER,
+                ERROR_SEVERITY,
+                "The server is overloaded, the request was rejected by the proxy"
+        ));
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+        if (msg instanceof ByteBuf && handshake.isComplete()) {
+            responses.track((ByteBuf) msg);
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private void onResponseEnd() {
+        if (inFlight) {
+            inFlight = false;
+            if (cancelled) {
+                limiter.release();
+            } else {
+                limiter.release(System.nanoTime() - admittedAt);
+            }
+        }
+    }
+
+    @Override
+    public void handlerRemoved(final ChannelHandlerContext ctx) {
+        if (inFlight) {
+            inFlight = false;
+            limiter.release();
+        }
+        if (waiter != null && limiter.cancel(waiter)) {
+            queueTimeout.cancel(false);
+        }
+        waiter = null;
+        Write write;
+        while ((write = queued.pollFirst()) != null) {
+            write.buffer.release();
+            write.promise.tryFailure(new DroppedWriteException("Request was still waiting for the concurrency limit"));
+        }
+    }
+
+    private static class Write {
+        private final ByteBuf buffer;
+        private final ChannelPromise promise;
+
+        private Write(final ByteBuf buffer, final ChannelPromise promise) {
+            this.buffer = buffer;
+            this.promise = promise;
+        }
+    }
+}
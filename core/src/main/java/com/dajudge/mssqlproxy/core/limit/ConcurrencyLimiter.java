@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.limit;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Adapts the number of requests executing on a backend at once the way TCP Vegas adapts its window. The smallest
+// latency seen stands for the backend without queueing; the more the latency of a request exceeds it, the more
+// requests queue inside the server, and the limit shrinks. It grows while there is no such queue. The smallest latency
+// is forgotten now and then, so the limit follows a backend that got slower for good.
+public class ConcurrencyLimiter {
+    private static final int INITIAL_LIMIT = 20;
+    private static final int PROBE_SAMPLES = 30;
+    private final int maxLimit;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long noLoadNanos;
+    private int samplesUntilProbe;
+
+    public ConcurrencyLimiter(final int maxLimit) {
+        this.maxLimit = maxLimit;
+        this.limit = Math.min(INITIAL_LIMIT, maxLimit);
+        this.samplesUntilProbe = nextProbe();
+    }
+
+    public static final class Waiter {
+        private final Executor executor;
+        private final Runnable onPermit;
+
+        public Waiter(final Executor executor, final Runnable onPermit) {
+            this.executor = executor;
+            this.onPermit = onPermit;
+        }
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return true;
+        }
+        return false;
+    }
+
+    // Bypasses the limit, e.g. for a request that has to reach the server so it can be cancelled
+    public synchronized void forceAcquire() {
+        inFlight++;
+    }
+
+    // The waiter is run on its executor once it holds a permit
+    public synchronized void enqueue(final Waiter waiter) {
+        waiters.addLast(waiter);
+    }
+
+    // Returns false if the waiter already got its permit
+    public synchronized boolean cancel(final Waiter waiter) {
+        return waiters.remove(waiter);
+    }
+
+    // A request that completed in the given time
+    public void release(final long latencyNanos) {
+        synchronized (this) {
+            final boolean limited = inFlight * 2 >= limit;
+            inFlight--;
+            sample(latencyNanos, limited);
+        }
+        grant();
+    }
+
+    // A request whose latency says nothing about the backend, e.g. one that was cancelled
+    public void release() {
+        synchronized (this) {
+            inFlight--;
+        }
+        grant();
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    private void sample(final long latencyNanos, final boolean limited) {
+        if (--samplesUntilProbe <= 0) {
+            noLoadNanos = 0;
+            samplesUntilProbe = nextProbe();
+        }
+        if (noLoadNanos == 0 || latencyNanos < noLoadNanos) {
+            noLoadNanos = latencyNanos;
+        }
+        final double queued = limit * (1 - (double) noLoadNanos / Math.max(1, latencyNanos));
+        final double step = step();
+        if (queued <= step && limited) {
+            // Nothing queues inside the server and the limit is actually used, so grow fast
+            limit += 6 * step;
+        } else if (queued < 3 * step && limited) {
+            limit += step;
+        } else if (queued > 6 * step) {
+            limit -= step;
+        }
+        limit = Math.max(1, Math.min(maxLimit, limit));
+    }
+
+    private double step() {
+        return Math.max(1, Math.log10(limit));
+    }
+
+    private int nextProbe() {
+        return PROBE_SAMPLES * (int) limit + ThreadLocalRandom.current().nextInt(PROBE_SAMPLES);
+    }
+
+    private void grant() {
+        while (true) {
+            final Waiter waiter;
+            synchronized (this) {
+                if (waiters.isEmpty() || inFlight >= (int) limit) {
+                    return;
+                }
+                waiter = waiters.pollFirst();
+                inFlight++;
+            }
+            waiter.executor.execute(waiter.onPermit);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.limit;
+
+import com.dajudge.mssqlproxy.core.net.ReadGate;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Accounts for the bytes waiting to be written across all channels of the process. Above the soft limit reading
+// pauses on every channel until the usage drained to three quarters of it; above the hard limit new clients are turned
+// away. Both limits are only approximately kept, as reads already in progress still complete.
+public class MemoryBudget {
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryBudget.class);
+    private final long softLimit;
+    private final long hardLimit;
+    private final long resumeAt;
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicBoolean paused = new AtomicBoolean();
+    private final Set<Channel> channels = ConcurrentHashMap.newKeySet();
+
+    public MemoryBudget(final long softLimit, final long hardLimit) {
+        this.softLimit = softLimit;
+        this.hardLimit = hardLimit;
+        this.resumeAt = softLimit / 4 * 3;
+    }
+
+    public void register(final Channel channel) {
+        channels.add(channel);
+        channel.closeFuture().addListener(future -> channels.remove(channel));
+        if (paused.get()) {
+            channel.eventLoop().execute(() -> apply(channel));
+        }
+    }
+
+    public void reserve(final long bytes) {
+        if (used.addAndGet(bytes) > softLimit && paused.compareAndSet(false, true)) {
+            LOG.warn("Over the soft memory limit of {} bytes, pausing reads", softLimit);
+            applyAll();
+        }
+    }
+
+    public void release(final long bytes) {
+        if (used.addAndGet(-bytes) <= resumeAt && paused.compareAndSet(true, false)) {
+            LOG.info("Back under the soft memory limit of {} bytes, resuming reads", softLimit);
+            applyAll();
+        }
+    }
+
+    public boolean isExhausted() {
+        return used.get() >= hardLimit;
+    }
+
+    public long used() {
+        return used.get();
+    }
+
+    private void applyAll() {
+        channels.forEach(channel -> channel.eventLoop().execute(() -> apply(channel)));
+    }
+
+    // Applies the state at the time it runs, so tasks racing each other on the way to the event loop do not matter
+    private void apply(final Channel channel) {
+        if (paused.get()) {
+            ReadGate.pause(channel, this);
+        } else {
+            ReadGate.resume(channel, this);
+        }
+    }
+}
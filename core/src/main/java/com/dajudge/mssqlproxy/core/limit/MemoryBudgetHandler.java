@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.limit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+// Charges the bytes written to a channel against the memory budget until they hit the socket
+public class MemoryBudgetHandler extends ChannelOutboundHandlerAdapter {
+    private final MemoryBudget budget;
+
+    public MemoryBudgetHandler(final MemoryBudget budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        final int bytes = ((ByteBuf) msg).readableBytes();
+        budget.reserve(bytes);
+        final ChannelPromise tracked = promise.unvoid();
+        tracked.addListener(future -> budget.release(bytes));
+        ctx.write(msg, tracked);
+    }
+}
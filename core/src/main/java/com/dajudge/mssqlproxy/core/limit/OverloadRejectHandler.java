@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.limit;
+
+import com.dajudge.mssqlproxy.core.protocol.ErrorResponse;
+import com.dajudge.mssqlproxy.core.protocol.transport.EncryptionState;
+import com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.EncryptionLevel.NOT_SUPPORTED;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.STATUS_EOM;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static io.netty.buffer.Unpooled.buffer;
+
+// Turns away a client the proxy has no memory left for. Clients only show errors that come with the login response,
+// so the prelogin is answered like the proxy always does, without encryption, and the login with an error before
+// hanging up. Packets are skipped as they arrive rather than buffered, except for the TDS version of the login.
+public class OverloadRejectHandler extends ChannelInboundHandlerAdapter {
+    private static final int PRELOGIN = 0x12;
+    private static final int LOGIN7 = 0x10;
+    private static final int TABULAR_RESULT = 4;
+    private static final int ERROR_SEVERITY = 20;
+    private static final int VERSION_OPTION = 0;
+    private static final int ENCRYPTION_OPTION = 1;
+    private static final int OPTION_TERMINATOR = 0xFF;
+    private static final int VERSION_LENGTH = 6;
+    // Offset of TDSVersion in the LOGIN7 payload
+    private static final int LOGIN_TDS_VERSION = 4;
+    private final byte[] header = new byte[TDS_HEADER_SIZE];
+    private int headerLength;
+    private int remaining;
+    private int payloadIndex;
+    private int tdsVersion;
+    private boolean preloginAnswered;
+    private boolean rejected;
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+        try {
+            if (msg instanceof ByteBuf) {
+                frame(ctx, (ByteBuf) msg);
+            }
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private void frame(final ChannelHandlerContext ctx, final ByteBuf buffer) {
+        while (buffer.isReadable() && !rejected) {
+            if (headerLength < TDS_HEADER_SIZE) {
+                final int copied = Math.min(TDS_HEADER_SIZE - headerLength, buffer.readableBytes());
+                buffer.readBytes(header, headerLength, copied);
+                headerLength += copied;
+                if (headerLength == TDS_HEADER_SIZE) {
+                    remaining = ((header[2] & 0xFF) << 8 | header[3] & 0xFF) - TDS_HEADER_SIZE;
+                    if (remaining < 0) {
+                        reject(ctx, null);
+                        return;
+                    }
+                }
+            } else {
+                final int skipped = Math.min(remaining, buffer.readableBytes());
+                if ((header[0] & 0xFF) == LOGIN7) {
+                    readTdsVersion(buffer, skipped);
+                }
+                buffer.skipBytes(skipped);
+                remaining -= skipped;
+                payloadIndex += skipped;
+            }
+            if (headerLength == TDS_HEADER_SIZE && remaining == 0) {
+                headerLength = 0;
+                if ((header[1] & STATUS_EOM) != 0) {
+                    payloadIndex = 0;
+                    onMessage(ctx, header[0] & 0xFF);
+                }
+            }
+        }
+    }
+
+    private void readTdsVersion(final ByteBuf buffer, final int length) {
+        for (int i = 0; i < length; i++) {
+            final int offset = payloadIndex + i - LOGIN_TDS_VERSION;
+            if (offset >= 0 && offset < 4) {
+                tdsVersion |= buffer.getUnsignedByte(buffer.readerIndex() + i) << (offset * 8);
+            }
+        }
+    }
+
+    private void onMessage(final ChannelHandlerContext ctx, final int type) {
+        if (type == PRELOGIN && !preloginAnswered) {
+            preloginAnswered = true;
+            ctx.writeAndFlush(preloginResponse());
+        } else if (type == LOGIN7) {
+            reject(ctx, ErrorResponse.create(
+                    tdsVersion,
+                    0,
+                    ErrorResponse.PROXY_ERROR_NUMBER,
+                    ERROR_SEVERITY,
+                    "The proxy is out of memory, the connection was rejected"
+            ));
+        } else {
+            reject(ctx, null);
+        }
+    }
+
+    // Hangs up right away if there is nothing the client would understand
+    private void reject(final ChannelHandlerContext ctx, final ByteBuf response) {
+        rejected = true;
+        if (response == null) {
+            ctx.close();
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private static ByteBuf preloginResponse() {
+        final int dataOffset = 2 * 5 + 1;
+        final ByteBuf payload = buffer()
+                .writeByte(VERSION_OPTION)
+                .writeShort(dataOffset)
+                .writeShort(VERSION_LENGTH)
+                .writeByte(ENCRYPTION_OPTION)
+                .writeShort(dataOffset + VERSION_LENGTH)
+                .writeShort(1)
+                .writeByte(OPTION_TERMINATOR)
+                .writeZero(VERSION_LENGTH)
+                .writeByte(new EncryptionState(NOT_SUPPORTED, false).serialize());
+        final byte[] header = new TDSHeader(
+                TABULAR_RESULT,
+                STATUS_EOM,
+                TDS_HEADER_SIZE + payload.readableBytes(),
+                0,
+                1,
+                0
+        ).serialize();
+        final ByteBuf response = buffer(header.length + payload.readableBytes()).writeBytes(header).writeBytes(payload);
+        payload.release();
+        return response;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// Counts latencies into fixed buckets, which is what a Prometheus histogram exports anyway. Recording is a search
+// over a handful of bounds and two striped additions, cheap enough to stay on for every request.
+public class LatencyHistogram {
+    // Upper bounds of the buckets, the last bucket has none
+    static final long[] BOUNDS_NANOS = {
+            MICROSECONDS.toNanos(100),
+            MICROSECONDS.toNanos(250),
+            MICROSECONDS.toNanos(500),
+            MILLISECONDS.toNanos(1),
+            MILLISECONDS.toNanos(2) + MICROSECONDS.toNanos(500),
+            MILLISECONDS.toNanos(5),
+            MILLISECONDS.toNanos(10),
+            MILLISECONDS.toNanos(25),
+            MILLISECONDS.toNanos(50),
+            MILLISECONDS.toNanos(100),
+            MILLISECONDS.toNanos(250),
+            MILLISECONDS.toNanos(500),
+            SECONDS.toNanos(1),
+            MILLISECONDS.toNanos(2500),
+            SECONDS.toNanos(5),
+            SECONDS.toNanos(10),
+            SECONDS.toNanos(30)
+    };
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(final long nanos) {
+        int bucket = 0;
+        while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    public int bucketCount() {
+        return buckets.length;
+    }
+
+    // Long.MAX_VALUE for the last bucket
+    public long upperBoundNanos(final int bucket) {
+        return bucket < BOUNDS_NANOS.length ? BOUNDS_NANOS[bucket] : Long.MAX_VALUE;
+    }
+
+    public long count(final int bucket) {
+        return buckets[bucket].sum();
+    }
+
+    public long sumNanos() {
+        return sumNanos.sum();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.metrics;
+
+import java.util.Collection;
+
+import static com.dajudge.mssqlproxy.core.metrics.TrafficCounters.typeName;
+
+// Renders the metrics of all listeners in the Prometheus text exposition format
+public final class PrometheusFormat {
+    private static final int TYPES = 256;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private PrometheusFormat() {
+    }
+
+    public static String format(final Collection<ProxyMetrics> listeners) {
+        final StringBuilder out = new StringBuilder();
+        family(out, "mssqlproxy_sessions_active", "gauge", "Client sessions currently open");
+        listeners.forEach(m -> sample(out, "mssqlproxy_sessions_active", m, "", m.sessionsActive()));
+        family(out, "mssqlproxy_sessions_total", "counter", "Client sessions opened");
+        listeners.forEach(m -> sample(out, "mssqlproxy_sessions_total", m, "", m.sessionsTotal()));
+        family(out, "mssqlproxy_logins_total", "counter", "Server logins by result");
+        listeners.forEach(m -> {
+            sample(out, "mssqlproxy_logins_total", m, ",result=\"success\"", m.loginSuccesses());
+            sample(out, "mssqlproxy_logins_total", m, ",result=\"failure\"", m.loginFailures());
+        });
+        family(out, "mssqlproxy_backend_connect_failures_total", "counter", "Failed server connection attempts");
+        listeners.forEach(m -> sample(out, "mssqlproxy_backend_connect_failures_total", m, "", m.connectFailures()));
+        family(out, "mssqlproxy_packets_total", "counter", "TDS packets relayed by direction and message type");
+        traffic(out, listeners, "mssqlproxy_packets_total", TrafficCounters::packets);
+        family(out, "mssqlproxy_bytes_total", "counter", "TDS bytes relayed by direction and message type");
+        traffic(out, listeners, "mssqlproxy_bytes_total", TrafficCounters::bytes);
+        family(out, "mssqlproxy_request_first_byte_seconds", "histogram", "Time to the first response packet");
+        latencies(out, listeners, "mssqlproxy_request_first_byte_seconds", ProxyMetrics::firstByte);
+        family(out, "mssqlproxy_request_duration_seconds", "histogram", "Time to the end of the response");
+        latencies(out, listeners, "mssqlproxy_request_duration_seconds", ProxyMetrics::total);
+        return out.toString();
+    }
+
+    private interface Histogram {
+        LatencyHistogram get(ProxyMetrics metrics, int type);
+    }
+
+    private static void latencies(
+            final StringBuilder out,
+            final Collection<ProxyMetrics> listeners,
+            final String name,
+            final Histogram histogram
+    ) {
+        for (final ProxyMetrics m : listeners) {
+            for (final int type : ProxyMetrics.timedTypes()) {
+                final LatencyHistogram h = histogram.get(m, type);
+                final String labels = ",type=\"" + typeName(type) + "\"";
+                long cumulative = 0;
+                for (int bucket = 0; bucket < h.bucketCount(); bucket++) {
+                    cumulative += h.count(bucket);
+                    final long bound = h.upperBoundNanos(bucket);
+                    final String le = bound == Long.MAX_VALUE ? "+Inf" : Double.toString(bound / NANOS_PER_SECOND);
+                    sample(out, name + "_bucket", m, labels + ",le=\"" + le + "\"", cumulative);
+                }
+                sample(out, name + "_sum", m, labels, Double.toString(h.sumNanos() / NANOS_PER_SECOND));
+                sample(out, name + "_count", m, labels, cumulative);
+            }
+        }
+    }
+
+    private interface Counter {
+        long get(TrafficCounters counters, int type);
+    }
+
+    private static void traffic(
+            final StringBuilder out,
+            final Collection<ProxyMetrics> listeners,
+            final String name,
+            final Counter counter
+    ) {
+        for (final ProxyMetrics m : listeners) {
+            direction(out, name, m, "request", m.requests(), counter);
+            direction(out, name, m, "response", m.responses(), counter);
+        }
+    }
+
+    private static void direction(
+            final StringBuilder out,
+            final String name,
+            final ProxyMetrics metrics,
+            final String direction,
+            final TrafficCounters counters,
+            final Counter counter
+    ) {
+        for (int type = 0; type < TYPES; type++) {
+            // Only types seen so far, there are 256 possible ones
+            if (counters.packets(type) > 0) {
+                final String labels = ",direction=\"" + direction + "\",type=\"" + typeName(type) + "\"";
+                sample(out, name, metrics, labels, counter.get(counters, type));
+            }
+        }
+    }
+
+    private static void family(final StringBuilder out, final String name, final String type, final String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(
+            final StringBuilder out,
+            final String name,
+            final ProxyMetrics metrics,
+            final String labels,
+            final long value
+    ) {
+        sample(out, name, metrics, labels, Long.toString(value));
+    }
+
+    private static void sample(
+            final StringBuilder out,
+            final String name,
+            final ProxyMetrics metrics,
+            final String labels,
+            final String value
+    ) {
+        out.append(name).append("{listener=\"").append(metrics.listener()).append('"').append(labels).append("} ")
+                .append(value).append('\n');
+    }
+}
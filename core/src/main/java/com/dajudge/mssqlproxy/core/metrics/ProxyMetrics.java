@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.metrics;
+
+import com.dajudge.mssqlproxy.core.capture.WireCapture;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// The counters of one listener. They are striped, so the event loops updating them do not contend with each other.
+public class ProxyMetrics {
+    // SQL batch, RPC, attention and bulk load requests are timed
+    private static final int[] TIMED_TYPES = {1, 3, 6, 7};
+    private final String listener;
+    private final SlowQueryLog slowQueries;
+    private final StatementStats statements;
+    private final WireCapture capture;
+    private final LongAdder sessionsActive = new LongAdder();
+    private final LongAdder sessionsTotal = new LongAdder();
+    private final LongAdder loginSuccesses = new LongAdder();
+    private final LongAdder loginFailures = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final TrafficCounters requests = new TrafficCounters();
+    private final TrafficCounters responses = new TrafficCounters();
+    private final LatencyHistogram[] firstByte = new LatencyHistogram[256];
+    private final LatencyHistogram[] total = new LatencyHistogram[256];
+
+    public ProxyMetrics(final String listener) {
+        this(listener, null, null, null);
+    }
+
+    public ProxyMetrics(
+            final String listener,
+            final SlowQueryLog slowQueries,
+            final StatementStats statements,
+            final WireCapture capture
+    ) {
+        this.listener = listener;
+        this.slowQueries = slowQueries;
+        this.statements = statements;
+        this.capture = capture;
+        for (final int type : TIMED_TYPES) {
+            firstByte[type] = new LatencyHistogram();
+            total[type] = new LatencyHistogram();
+        }
+    }
+
+    // Null unless slow requests are logged
+    public SlowQueryLog slowQueries() {
+        return slowQueries;
+    }
+
+    // Null unless statement statistics are kept
+    public StatementStats statements() {
+        return statements;
+    }
+
+    // Null unless sessions are captured
+    public WireCapture capture() {
+        return capture;
+    }
+
+    public static int[] timedTypes() {
+        return TIMED_TYPES.clone();
+    }
+
+    public static boolean isTimed(final int type) {
+        for (final int timed : TIMED_TYPES) {
+            if (timed == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String listener() {
+        return listener;
+    }
+
+    public void sessionOpened() {
+        sessionsActive.increment();
+        sessionsTotal.increment();
+    }
+
+    public void sessionClosed() {
+        sessionsActive.decrement();
+    }
+
+    public void loginSucceeded() {
+        loginSuccesses.increment();
+    }
+
+    public void loginFailed() {
+        loginFailures.increment();
+    }
+
+    public void connectFailed() {
+        connectFailures.increment();
+    }
+
+    public long sessionsActive() {
+        return sessionsActive.sum();
+    }
+
+    public long sessionsTotal() {
+        return sessionsTotal.sum();
+    }
+
+    public long loginSuccesses() {
+        return loginSuccesses.sum();
+    }
+
+    public long loginFailures() {
+        return loginFailures.sum();
+    }
+
+    public long connectFailures() {
+        return connectFailures.sum();
+    }
+
+    public TrafficCounters requests() {
+        return requests;
+    }
+
+    public TrafficCounters responses() {
+        return responses;
+    }
+
+    // From the end of a request to the first packet of its response, null for types that are not timed
+    public LatencyHistogram firstByte(final int type) {
+        return firstByte[type];
+    }
+
+    // From the end of a request to the end of its response, null for types that are not timed
+    public LatencyHistogram total(final int type) {
+        return total[type];
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.metrics;
+
+import com.dajudge.mssqlproxy.core.protocol.RequestText;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// Logs requests that took longer than the threshold along with their text. The text is only decoded for those, by a
+// thread of its own that also writes the log, so neither decoding nor a slow appender stalls an event loop. Entries
+// are dropped while that thread is behind.
+public class SlowQueryLog {
+    private static final Logger LOG = LoggerFactory.getLogger(SlowQueryLog.class);
+    // Enough for the text of most statements, requests are only captured up to this size
+    public static final int MAX_CAPTURED_BYTES = 8 * 1024;
+    private static final int MAX_QUEUED = 1024;
+    private final long thresholdNanos;
+    private final ThreadPoolExecutor writer;
+
+    public SlowQueryLog(final long thresholdNanos) {
+        this.thresholdNanos = thresholdNanos;
+        this.writer = new ThreadPoolExecutor(
+                1,
+                1,
+                0,
+                MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "slow-query-log");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (entry, executor) -> ((Entry) entry).discard()
+        );
+    }
+
+    public boolean isSlow(final long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    // The first bytes of the request, starting at its first packet header. They are retained until logged.
+    public void log(final SocketAddress server, final ByteBuf request, final long nanos) {
+        writer.execute(new Entry(server, request.retainedDuplicate(), nanos));
+    }
+
+    public void stop() {
+        writer.shutdown();
+    }
+
+    private static final class Entry implements Runnable {
+        private final SocketAddress server;
+        private final ByteBuf request;
+        private final long nanos;
+
+        private Entry(final SocketAddress server, final ByteBuf request, final long nanos) {
+            this.server = server;
+            this.request = request;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final String text = RequestText.describe(request);
+                LOG.warn("Slow request on {} took {} ms: {}", server, NANOSECONDS.toMillis(nanos), text);
+            } finally {
+                request.release();
+            }
+        }
+
+        private void discard() {
+            request.release();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.metrics;
+
+import io.netty.buffer.ByteBuf;
+
+// Reduces statement text to its shape: literals become ?, comments go, whitespace collapses and everything outside of
+// quoted identifiers is lower case. Statements that only differ in those respects share a fingerprint, a hash of the
+// shape that is computed without building it as a string.
+public final class StatementFingerprint {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int NORMAL = 0;
+    private static final int STRING = 1;
+    private static final int STRING_END = 2;
+    private static final int IDENTIFIER = 3;
+    private static final int NUMBER = 4;
+    private static final int LINE_COMMENT = 5;
+    private static final int BLOCK_COMMENT = 6;
+    private static final int BLOCK_COMMENT_END = 7;
+    private final Output output;
+    private int state = NORMAL;
+    private char closing;
+    private char held;
+    private boolean space;
+    private boolean started;
+    private boolean word;
+
+    private interface Output {
+        void append(char c);
+    }
+
+    private StatementFingerprint(final Output output) {
+        this.output = output;
+    }
+
+    // Over the UCS-2 text between the given indexes
+    public static long hash(final ByteBuf text, final int from, final int to) {
+        final long[] hash = {FNV_OFFSET};
+        feed(text, from, to, c -> {
+            hash[0] = (hash[0] ^ (c & 0xFF)) * FNV_PRIME;
+            hash[0] = (hash[0] ^ (c >>> 8)) * FNV_PRIME;
+        });
+        return hash[0];
+    }
+
+    public static String normalize(final ByteBuf text, final int from, final int to) {
+        final StringBuilder normalized = new StringBuilder((to - from) / 2);
+        feed(text, from, to, normalized::append);
+        return normalized.toString();
+    }
+
+    private static void feed(final ByteBuf text, final int from, final int to, final Output output) {
+        final StatementFingerprint fingerprint = new StatementFingerprint(output);
+        for (int index = from; index + 1 < to; index += 2) {
+            fingerprint.feed((char) text.getUnsignedShortLE(index));
+        }
+        fingerprint.finish();
+    }
+
+    private void feed(final char c) {
+        switch (state) {
+            case STRING:
+                if (c == '\'') {
+                    state = STRING_END;
+                }
+                return;
+            case STRING_END:
+                // Two quotes in a row are an escaped quote
+                if (c == '\'') {
+                    state = STRING;
+                    return;
+                }
+                state = NORMAL;
+                break;
+            case IDENTIFIER:
+                emit(c);
+                if (c == closing) {
+                    state = NORMAL;
+                }
+                return;
+            case NUMBER:
+                if (Character.isLetterOrDigit(c) || c == '.') {
+                    return;
+                }
+                state = NORMAL;
+                break;
+            case LINE_COMMENT:
+                if (c == '\n' || c == '\r') {
+                    state = NORMAL;
+                    space = true;
+                }
+                return;
+            case BLOCK_COMMENT:
+                if (c == '*') {
+                    state = BLOCK_COMMENT_END;
+                }
+                return;
+            case BLOCK_COMMENT_END:
+                if (c == '/') {
+                    state = NORMAL;
+                    space = true;
+                } else if (c != '*') {
+                    state = BLOCK_COMMENT;
+                }
+                return;
+            default:
+                break;
+        }
+        normal(c);
+    }
+
+    private void normal(final char c) {
+        if (held != 0) {
+            final char previous = held;
+            held = 0;
+            if (previous == '-' && c == '-') {
+                state = LINE_COMMENT;
+                return;
+            }
+            if (previous == '/' && c == '*') {
+                state = BLOCK_COMMENT;
+                return;
+            }
+            token(previous);
+        }
+        if (c == '-' || c == '/') {
+            // Might start a comment
+            held = c;
+        } else if (Character.isWhitespace(c)) {
+            space = true;
+        } else {
+            token(c);
+        }
+    }
+
+    private void token(final char c) {
+        if (c == '\'') {
+            emit('?');
+            state = STRING;
+        } else if (Character.isDigit(c) && (!word || space)) {
+            emit('?');
+            state = NUMBER;
+        } else if (c == '"' || c == '[') {
+            emit(c);
+            closing = c == '[' ? ']' : '"';
+            state = IDENTIFIER;
+        } else {
+            emit(Character.toLowerCase(c));
+        }
+    }
+
+    private void emit(final char c) {
+        if (space && started) {
+            output.append(' ');
+        }
+        space = false;
+        started = true;
+        output.append(c);
+        word = Character.isLetterOrDigit(c) || c == '_' || c == '@' || c == '#' || c == '$';
+    }
+
+    private void finish() {
+        if (held != 0 && state == NORMAL) {
+            token(held);
+        }
+        held = 0;
+    }
+}
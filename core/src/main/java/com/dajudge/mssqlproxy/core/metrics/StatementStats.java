@@ -0,0 +1,303 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.metrics;
+
+import com.dajudge.mssqlproxy.core.protocol.RequestText;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.Comparator.comparingLong;
+
+// Statistics of the most frequent SQL batch fingerprints in bounded memory (Space-Saving): once all slots are taken,
+// a new fingerprint replaces the least frequent one and inherits its count. The counts of the fingerprints kept are
+// then overestimated by at most the inherited count, and every fingerprint that makes up more than 1/capacity of all
+// batches is guaranteed to be kept.
+//
+// Every event loop records into a table of its own, so batches never contend with each other. The tables are only
+// merged when the statistics are read.
+public class StatementStats {
+    private final int capacity;
+    private final List<Table> tables = new CopyOnWriteArrayList<>();
+    private final FastThreadLocal<Table> table = new FastThreadLocal<Table>() {
+        @Override
+        protected Table initialValue() {
+            final Table table = new Table(capacity);
+            tables.add(table);
+            return table;
+        }
+    };
+
+    // The capacity of each event loop's table
+    public StatementStats(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    // The first packet of a SQL batch, as much of it as was captured
+    public void record(final ByteBuf packet, final long nanos, final long responseBytes) {
+        final int text = RequestText.sqlBatchTextIndex(packet);
+        if (text < 0) {
+            return;
+        }
+        final int end = RequestText.end(packet);
+        final long fingerprint = StatementFingerprint.hash(packet, text, end);
+        table.get().record(fingerprint, packet, text, end, nanos, responseBytes);
+    }
+
+    // The n most frequent fingerprints, most frequent first
+    public List<Statement> top(final int n) {
+        final List<Map<Long, Entry>> snapshots = new ArrayList<>(tables.size());
+        final List<Long> minimums = new ArrayList<>(tables.size());
+        for (final Table table : tables) {
+            synchronized (table) {
+                snapshots.add(table.snapshot());
+                minimums.add(table.size > 0 && table.size == table.capacity ? table.heap[0].calls : 0);
+            }
+        }
+        final Map<Long, Entry> merged = new HashMap<>();
+        for (final Map<Long, Entry> snapshot : snapshots) {
+            for (final Entry entry : snapshot.values()) {
+                final Entry sum = merged.get(entry.fingerprint);
+                if (sum == null) {
+                    merged.put(entry.fingerprint, entry);
+                } else {
+                    sum.calls += entry.calls;
+                    sum.overestimation += entry.overestimation;
+                    sum.totalNanos += entry.totalNanos;
+                    sum.maxNanos = Math.max(sum.maxNanos, entry.maxNanos);
+                    sum.responseBytes += entry.responseBytes;
+                }
+            }
+        }
+        // A full table may have counted a fingerprint it no longer holds up to as often as its least frequent one
+        for (int i = 0; i < snapshots.size(); i++) {
+            final long minimum = minimums.get(i);
+            if (minimum == 0) {
+                continue;
+            }
+            for (final Entry sum : merged.values()) {
+                if (!snapshots.get(i).containsKey(sum.fingerprint)) {
+                    sum.calls += minimum;
+                    sum.overestimation += minimum;
+                }
+            }
+        }
+        final List<Statement> statements = new ArrayList<>(merged.size());
+        for (final Entry entry : merged.values()) {
+            statements.add(new Statement(
+                    entry.fingerprint,
+                    entry.text,
+                    entry.calls,
+                    entry.overestimation,
+                    entry.totalNanos,
+                    entry.maxNanos,
+                    entry.responseBytes
+            ));
+        }
+        statements.sort(comparingLong(Statement::calls).reversed());
+        return statements.subList(0, Math.min(n, statements.size()));
+    }
+
+    // Only locked against readers, never by another event loop
+    private static final class Table {
+        private final int capacity;
+        private final Map<Long, Entry> entries = new HashMap<>();
+        // Min-heap on the count, so the least frequent entry is found in constant time
+        private final Entry[] heap;
+        private int size;
+
+        private Table(final int capacity) {
+            this.capacity = capacity;
+            this.heap = new Entry[capacity];
+        }
+
+        private synchronized void record(
+                final long fingerprint,
+                final ByteBuf packet,
+                final int text,
+                final int end,
+                final long nanos,
+                final long responseBytes
+        ) {
+            Entry entry = entries.get(fingerprint);
+            if (entry == null) {
+                entry = insert(fingerprint, StatementFingerprint.normalize(packet, text, end));
+            }
+            entry.calls++;
+            entry.totalNanos += nanos;
+            entry.maxNanos = Math.max(entry.maxNanos, nanos);
+            entry.responseBytes += responseBytes;
+            // Entries added at the end may need to move up, all others only ever move down
+            siftDown(siftUp(entry.heapIndex));
+        }
+
+        // Copies, so they can be merged without holding the lock
+        private Map<Long, Entry> snapshot() {
+            final Map<Long, Entry> snapshot = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                snapshot.put(heap[i].fingerprint, heap[i].copy());
+            }
+            return snapshot;
+        }
+
+        private Entry insert(final long fingerprint, final String text) {
+            final Entry entry;
+            if (size < capacity) {
+                entry = new Entry();
+                entry.heapIndex = size;
+                heap[size++] = entry;
+            } else {
+                entry = heap[0];
+                entries.remove(entry.fingerprint);
+                entry.overestimation = entry.calls;
+                entry.totalNanos = 0;
+                entry.maxNanos = 0;
+                entry.responseBytes = 0;
+            }
+            entry.fingerprint = fingerprint;
+            entry.text = text;
+            entries.put(fingerprint, entry);
+            return entry;
+        }
+
+        private int siftUp(final int index) {
+            int current = index;
+            while (current > 0) {
+                final int parent = (current - 1) / 2;
+                if (heap[parent].calls <= heap[current].calls) {
+                    break;
+                }
+                swap(parent, current);
+                current = parent;
+            }
+            return current;
+        }
+
+        private void siftDown(final int index) {
+            int current = index;
+            while (true) {
+                final int left = 2 * current + 1;
+                final int right = left + 1;
+                int smallest = current;
+                if (left < size && heap[left].calls < heap[smallest].calls) {
+                    smallest = left;
+                }
+                if (right < size && heap[right].calls < heap[smallest].calls) {
+                    smallest = right;
+                }
+                if (smallest == current) {
+                    return;
+                }
+                swap(smallest, current);
+                current = smallest;
+            }
+        }
+
+        private void swap(final int first, final int second) {
+            final Entry swapped = heap[first];
+            heap[first] = heap[second];
+            heap[second] = swapped;
+            heap[first].heapIndex = first;
+            heap[second].heapIndex = second;
+        }
+    }
+
+    private static final class Entry {
+        private long fingerprint;
+        private String text;
+        private long calls;
+        private long overestimation;
+        private long totalNanos;
+        private long maxNanos;
+        private long responseBytes;
+        private int heapIndex;
+
+        private Entry copy() {
+            final Entry copy = new Entry();
+            copy.fingerprint = fingerprint;
+            copy.text = text;
+            copy.calls = calls;
+            copy.overestimation = overestimation;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            copy.responseBytes = responseBytes;
+            return copy;
+        }
+    }
+
+    public static final class Statement {
+        private final long fingerprint;
+        private final String text;
+        private final long calls;
+        private final long overestimation;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long responseBytes;
+
+        private Statement(
+                final long fingerprint,
+                final String text,
+                final long calls,
+                final long overestimation,
+                final long totalNanos,
+                final long maxNanos,
+                final long responseBytes
+        ) {
+            this.fingerprint = fingerprint;
+            this.text = text;
+            this.calls = calls;
+            this.overestimation = overestimation;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.responseBytes = responseBytes;
+        }
+
+        public long fingerprint() {
+            return fingerprint;
+        }
+
+        public String text() {
+            return text;
+        }
+
+        public long calls() {
+            return calls;
+        }
+
+        // The calls counted for the fingerprints this one replaced, its calls are overestimated by at most this
+        public long overestimation() {
+            return overestimation;
+        }
+
+        // Only of the calls since the fingerprint was last added
+        public long totalNanos() {
+            return totalNanos;
+        }
+
+        public long maxNanos() {
+            return maxNanos;
+        }
+
+        public long responseBytes() {
+            return responseBytes;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Packets and bytes relayed in one direction by TDS message type
+public class TrafficCounters {
+    private static final int TYPES = 256;
+    private final LongAdder[] packets = new LongAdder[TYPES];
+    private final LongAdder[] bytes = new LongAdder[TYPES];
+
+    public TrafficCounters() {
+        for (int i = 0; i < TYPES; i++) {
+            packets[i] = new LongAdder();
+            bytes[i] = new LongAdder();
+        }
+    }
+
+    public void packet(final int type, final int length) {
+        packets[type].increment();
+        bytes[type].add(length);
+    }
+
+    public long packets(final int type) {
+        return packets[type].sum();
+    }
+
+    public long bytes(final int type) {
+        return bytes[type].sum();
+    }
+
+    public static String typeName(final int type) {
+        switch (type) {
+            case 1:
+                return "sql_batch";
+            case 2:
+                return "pre_tds7_login";
+            case 3:
+                return "rpc";
+            case 4:
+                return "tabular_result";
+            case 6:
+                return "attention";
+            case 7:
+                return "bulk_load";
+            case 8:
+                return "federated_auth_token";
+            case 14:
+                return "transaction_manager";
+            case 16:
+                return "login7";
+            case 17:
+                return "sspi";
+            case 18:
+                return "prelogin";
+            default:
+                return Integer.toString(type);
+        }
+    }
+}
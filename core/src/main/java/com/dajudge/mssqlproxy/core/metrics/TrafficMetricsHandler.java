@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.metrics;
+
+import com.dajudge.mssqlproxy.core.client.HandshakeState;
+import com.dajudge.mssqlproxy.core.protocol.PacketTracker;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+// Counts the packets relayed over a server connection and the outcome of its connect and login. It times requests,
+// hands slow ones to the slow query log and SQL batches to the statement statistics. It sits past the TLS handler, so
+// it sees plaintext packets no matter how the connection is encrypted.
+public class TrafficMetricsHandler extends ChannelDuplexHandler {
+    private static final int SQL_BATCH = 1;
+    private final ProxyMetrics metrics;
+    private final SlowQueryLog slowQueries;
+    private final StatementStats statements;
+    private final PacketTracker requests;
+    private final PacketTracker responses;
+    private boolean connected;
+    private int pendingType = -1;
+    private long requestEnd;
+    private boolean firstByteSeen;
+    private long responseBytes;
+    private ByteBuf request;
+    private ChannelHandlerContext ctx;
+
+    public TrafficMetricsHandler(final ProxyMetrics metrics, final HandshakeState handshake) {
+        this.metrics = metrics;
+        this.slowQueries = metrics.slowQueries();
+        this.statements = metrics.statements();
+        this.requests = new PacketTracker(new Counting(metrics.requests()) {
+            @Override
+            public void onMessageEnd(final int type) {
+                onRequestEnd(type);
+            }
+        });
+        this.responses = new PacketTracker(new Counting(metrics.responses()) {
+            @Override
+            public int onPacketStatus(final int type, final int status, final boolean firstPacketOfMessage) {
+                onResponsePacket();
+                return status;
+            }
+
+            @Override
+            public void onMessageEnd(final int type) {
+                onResponseEnd();
+            }
+
+            @Override
+            public void onPacketLength(final int type, final int length) {
+                super.onPacketLength(type, length);
+                responseBytes += length;
+            }
+        });
+        handshake.onComplete(metrics::loginSucceeded);
+        handshake.onLoginRejected(metrics::loginFailed);
+    }
+
+    @Override
+    public void handlerAdded(final ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        connected = ctx.channel().isActive();
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext ctx) throws Exception {
+        connected = true;
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(final ChannelHandlerContext ctx) {
+        if (!connected) {
+            metrics.connectFailed();
+        }
+        releaseRequest();
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            responses.track((ByteBuf) msg);
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(
+            final ChannelHandlerContext ctx,
+            final Object msg,
+            final ChannelPromise promise
+    ) throws Exception {
+        if (msg instanceof ByteBuf) {
+            final ByteBuf buffer = (ByteBuf) msg;
+            if ((slowQueries != null || statements != null) && requests.isAtMessageBoundary() && buffer.isReadable()
+                    && ProxyMetrics.isTimed(buffer.getUnsignedByte(buffer.readerIndex()))) {
+                // Kept until the response is complete, in case its text is needed
+                releaseRequest();
+                final int length = Math.min(buffer.readableBytes(), SlowQueryLog.MAX_CAPTURED_BYTES);
+                request = buffer.retainedSlice(buffer.readerIndex(), length);
+            }
+            requests.track(buffer);
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    // An attention supersedes the request it cancels, which is then no longer timed
+    private void onRequestEnd(final int type) {
+        if (ProxyMetrics.isTimed(type)) {
+            pendingType = type;
+            requestEnd = System.nanoTime();
+            firstByteSeen = false;
+            responseBytes = 0;
+        }
+    }
+
+    private void onResponsePacket() {
+        if (pendingType >= 0 && !firstByteSeen) {
+            firstByteSeen = true;
+            metrics.firstByte(pendingType).record(System.nanoTime() - requestEnd);
+        }
+    }
+
+    private void onResponseEnd() {
+        if (pendingType >= 0) {
+            final long nanos = System.nanoTime() - requestEnd;
+            metrics.total(pendingType).record(nanos);
+            pendingType = -1;
+            if (request != null && slowQueries != null && slowQueries.isSlow(nanos)) {
+                slowQueries.log(ctx.channel().remoteAddress(), request, nanos);
+            }
+            if (request != null && statements != null && request.getUnsignedByte(request.readerIndex()) == SQL_BATCH) {
+                statements.record(request, nanos, responseBytes);
+            }
+        }
+        releaseRequest();
+    }
+
+    private void releaseRequest() {
+        if (request != null) {
+            request.release();
+            request = null;
+        }
+    }
+
+    private static class Counting implements PacketTracker.Listener {
+        private final TrafficCounters counters;
+
+        private Counting(final TrafficCounters counters) {
+            this.counters = counters;
+        }
+
+        @Override
+        public int onPacketStatus(final int type, final int status, final boolean firstPacketOfMessage) {
+            return status;
+        }
+
+        @Override
+        public void onMessageEnd(final int type) {
+        }
+
+        @Override
+        public void onPacketLength(final int type, final int length) {
+            counters.packet(type, length);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+// Stops reading from the peer channel while this channel has more bytes waiting to be written than its high
+// watermark allows and resumes once they drained below the low watermark. Whatever is relayed between the two is
+// then never read faster than the slower side takes it, however fast either side sends.
+public class BackpressureHandler extends ChannelInboundHandlerAdapter {
+    private final Channel channel;
+    private Channel peer;
+    private boolean paused;
+
+    private BackpressureHandler(final Channel channel) {
+        this.channel = channel;
+    }
+
+    // Must be called on the event loop both channels live on, again whenever one of them gets a new peer
+    public static void link(final Channel first, final Channel second) {
+        handler(first).peer(second);
+        handler(second).peer(first);
+    }
+
+    private static BackpressureHandler handler(final Channel channel) {
+        BackpressureHandler handler = channel.pipeline().get(BackpressureHandler.class);
+        if (handler == null) {
+            handler = new BackpressureHandler(channel);
+            channel.pipeline().addFirst(BackpressureHandler.class.getName(), handler);
+        }
+        return handler;
+    }
+
+    private void peer(final Channel peer) {
+        if (this.peer != peer) {
+            resumePeer();
+            this.peer = peer;
+        }
+        update();
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception {
+        update();
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        resumePeer();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(final ChannelHandlerContext ctx) {
+        resumePeer();
+    }
+
+    private void update() {
+        if (!channel.isActive()) {
+            resumePeer();
+        } else if (!channel.isWritable() && !paused && peer != null) {
+            paused = true;
+            ReadGate.pause(peer, this);
+        } else if (channel.isWritable()) {
+            resumePeer();
+        }
+    }
+
+    private void resumePeer() {
+        if (paused) {
+            paused = false;
+            ReadGate.resume(peer, this);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.util.function.Supplier;
+
+// The pooled allocators share their arenas with the rest of the process instead of adding a set of their own
+public enum BufferAllocation {
+    POOLED_DIRECT(() -> PooledByteBufAllocator.DEFAULT),
+    POOLED_HEAP(() -> PooledHeap.ALLOCATOR),
+    // Unpooled allocators hold no memory of their own, but the default one prefers direct buffers
+    UNPOOLED_HEAP(() -> UnpooledHeap.ALLOCATOR);
+
+    private final Supplier<ByteBufAllocator> allocator;
+
+    BufferAllocation(final Supplier<ByteBufAllocator> allocator) {
+        this.allocator = allocator;
+    }
+
+    public ByteBufAllocator allocator() {
+        return allocator.get();
+    }
+
+    // Only created if used, with the same arena parameters as the default allocator
+    private static final class PooledHeap {
+        private static final ByteBufAllocator ALLOCATOR = new PooledByteBufAllocator(
+                false,
+                PooledByteBufAllocator.defaultNumHeapArena(),
+                PooledByteBufAllocator.defaultNumDirectArena(),
+                PooledByteBufAllocator.defaultPageSize(),
+                PooledByteBufAllocator.defaultMaxOrder(),
+                PooledByteBufAllocator.defaultTinyCacheSize(),
+                PooledByteBufAllocator.defaultSmallCacheSize(),
+                PooledByteBufAllocator.defaultNormalCacheSize(),
+                PooledByteBufAllocator.defaultUseCacheForAllThreads()
+        );
+    }
+
+    private static final class UnpooledHeap {
+        private static final ByteBufAllocator ALLOCATOR = new UnpooledByteBufAllocator(false);
+    }
+}
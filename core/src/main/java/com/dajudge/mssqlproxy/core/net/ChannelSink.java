@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import com.dajudge.proxybase.Sink;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+
+public class ChannelSink<T> implements Sink<T> {
+    private final Channel channel;
+
+    public ChannelSink(final Channel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void accept(final T msg) {
+        channel.writeAndFlush(msg).addListener(future -> {
+            // A relay write that failed leaves the session half-open, unless it was dropped on purpose
+            if (!future.isSuccess() && !(future.cause() instanceof DroppedWriteException)) {
+                channel.close();
+            }
+        });
+    }
+
+    @Override
+    public ChannelFuture close() {
+        return channel.close();
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+// Fails the promise of a write a handler deliberately did not pass on. The channel itself is still fine, so this
+// is no reason to close it. Without a stack trace, since it is expected and may be frequent.
+public class DroppedWriteException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DroppedWriteException(final String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+// Defers flushes to the end of the event loop's current batch so a burst of packets relayed from the peer channel
+// turns into a single gathering write. Flushes right away once enough bytes or writes are pending.
+public class FlushCoalescingHandler extends ChannelDuplexHandler {
+    private final int maxPendingBytes;
+    private final int maxPendingWrites;
+    private ChannelHandlerContext ctx;
+    private long pendingBytes;
+    private int pendingWrites;
+    private boolean flushScheduled;
+    private final Runnable flushTask = () -> {
+        flushScheduled = false;
+        flushNow();
+    };
+
+    public FlushCoalescingHandler(final int maxPendingBytes, final int maxPendingWrites) {
+        this.maxPendingBytes = maxPendingBytes;
+        this.maxPendingWrites = maxPendingWrites;
+    }
+
+    @Override
+    public void handlerAdded(final ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
+        if (msg instanceof ByteBuf) {
+            pendingBytes += ((ByteBuf) msg).readableBytes();
+        }
+        pendingWrites++;
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(final ChannelHandlerContext ctx) {
+        if (pendingBytes >= maxPendingBytes || pendingWrites >= maxPendingWrites) {
+            flushNow();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            ctx.executor().execute(flushTask);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception {
+        if (!ctx.channel().isWritable()) {
+            flushNow();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void disconnect(final ChannelHandlerContext ctx, final ChannelPromise promise) {
+        flushNow();
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(final ChannelHandlerContext ctx, final ChannelPromise promise) {
+        flushNow();
+        ctx.close(promise);
+    }
+
+    private void flushNow() {
+        if (pendingWrites > 0) {
+            pendingBytes = 0;
+            pendingWrites = 0;
+            ctx.flush();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import com.dajudge.proxybase.config.Endpoint;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.util.concurrent.EventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class ProxyListener {
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyListener.class);
+    private final Endpoint upstream;
+    private final Transport transport;
+    private final EventLoopGroup eventLoopGroup;
+    private final boolean splice;
+    private final Consumer<Channel> sessionStarter;
+    private final List<Channel> serverChannels = new ArrayList<>();
+
+    public ProxyListener(
+            final Endpoint upstream,
+            final Transport transport,
+            final EventLoopGroup eventLoopGroup,
+            final boolean splice,
+            final Consumer<Channel> sessionStarter
+    ) {
+        this.upstream = upstream;
+        this.transport = transport;
+        this.eventLoopGroup = eventLoopGroup;
+        this.splice = splice;
+        this.sessionStarter = sessionStarter;
+    }
+
+    public void start() {
+        if (transport.supportsReusePort()) {
+            // One acceptor per event loop, the kernel spreads incoming connections across them
+            for (final EventExecutor eventLoop : eventLoopGroup) {
+                final ServerBootstrap bootstrap = bootstrap((EventLoopGroup) eventLoop);
+                transport.enableReusePort(bootstrap);
+                // Subsequent acceptors must share the port of the first one when binding to an ephemeral port
+                bind(bootstrap, serverChannels.isEmpty() ? upstream.getPort() : getLocalPort());
+            }
+        } else {
+            bind(bootstrap(eventLoopGroup), upstream.getPort());
+        }
+        LOG.info("Listening on {} with {} acceptor(s) on {}", upstream, serverChannels.size(), transport);
+    }
+
+    public int getLocalPort() {
+        return ((InetSocketAddress) serverChannels.get(0).localAddress()).getPort();
+    }
+
+    public void stop() {
+        serverChannels.forEach(it -> it.close().syncUninterruptibly());
+        serverChannels.clear();
+    }
+
+    private ServerBootstrap bootstrap(final EventLoopGroup group) {
+        final ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(group, group)
+                .channel(transport.serverChannelClass())
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(final SocketChannel ch) {
+                        sessionStarter.accept(ch);
+                    }
+                });
+        if (splice) {
+            transport.enableSplice(bootstrap);
+        }
+        return bootstrap;
+    }
+
+    private void bind(final ServerBootstrap bootstrap, final int port) {
+        serverChannels.add(bootstrap.bind(upstream.getHost(), port).syncUninterruptibly().channel());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import com.dajudge.proxybase.ProxyContextFactory.ProxyContext;
+import com.dajudge.proxybase.Sink;
+import com.dajudge.proxybase.config.Endpoint;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Connects an accepted client channel to the server. The server connection lives on the client's event loop, so a
+// session never hands data across threads. The server connection can also be opened before the client is known and
+// the client attached later.
+public class ProxySession<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(ProxySession.class);
+    public static final String UPSTREAM_INBOUND_HANDLER = "UPSTREAM_INBOUND_HANDLER";
+    public static final String DOWNSTREAM_INBOUND_HANDLER = "DOWNSTREAM_INBOUND_HANDLER";
+    private final Endpoint downstream;
+    private final Transport transport;
+    private final boolean splice;
+    private final ProxyContext<ByteBuf, ByteBuf, ByteBuf, T> context;
+    private final SwitchableSink upstreamSink = new SwitchableSink();
+    private Channel downstreamChannel;
+
+    public ProxySession(
+            final Endpoint downstream,
+            final Transport transport,
+            final boolean splice,
+            final ProxyContext<ByteBuf, ByteBuf, ByteBuf, T> context
+    ) {
+        this.downstream = downstream;
+        this.transport = transport;
+        this.splice = splice;
+        this.context = context;
+    }
+
+    public ChannelFuture start(final Channel upstreamChannel) {
+        ReadGate.pause(upstreamChannel, this);
+        final ChannelFuture connectFuture = connect(upstreamChannel.eventLoop(), new ChannelSink<>(upstreamChannel));
+        attach(upstreamChannel);
+        connectFuture.addListener(future -> {
+            if (future.isSuccess()) {
+                ReadGate.resume(upstreamChannel, this);
+            } else {
+                upstreamChannel.close();
+            }
+        });
+        return connectFuture;
+    }
+
+    // Server data is relayed to the given sink until a client is attached
+    public ChannelFuture connect(final EventLoop eventLoop, final Sink<ByteBuf> detachedSink) {
+        upstreamSink.switchTo(detachedSink);
+        final Bootstrap bootstrap = new Bootstrap()
+                .group(eventLoop)
+                .channel(transport.socketChannelClass())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.AUTO_READ, false)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel downstreamChannel) {
+                        final Sink<ByteBuf> upstreamFilter = context.upstreamFilter(upstreamSink);
+                        downstreamChannel.pipeline().addLast(DOWNSTREAM_INBOUND_HANDLER, new RelayHandler(upstreamFilter));
+                        context.customizeDownstreamPipeline(downstreamChannel.pipeline());
+                    }
+                });
+        if (splice) {
+            transport.enableSplice(bootstrap);
+        }
+        final ChannelFuture connectFuture = bootstrap.connect(downstream.getHost(), downstream.getPort());
+        downstreamChannel = connectFuture.channel();
+        connectFuture.addListener(future -> {
+            if (future.isSuccess()) {
+                ReadGate.resume(downstreamChannel, this);
+            } else {
+                LOG.warn("Failed to connect to {}", downstream, future.cause());
+            }
+        });
+        return connectFuture;
+    }
+
+    // Must be called on the event loop the server connection was opened on
+    public void attach(final Channel upstreamChannel) {
+        upstreamSink.switchTo(new ChannelSink<>(upstreamChannel));
+        upstreamChannel.pipeline().addLast(
+                UPSTREAM_INBOUND_HANDLER,
+                new RelayHandler(context.downstreamFilter(new ChannelSink<>(downstreamChannel)))
+        );
+        context.customizeUpstreamPipeline(upstreamChannel.pipeline());
+        BackpressureHandler.link(upstreamChannel, downstreamChannel);
+    }
+
+    public Channel downstreamChannel() {
+        return downstreamChannel;
+    }
+}
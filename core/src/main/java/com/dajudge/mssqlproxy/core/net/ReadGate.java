@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// Reading from a channel can be paused for several reasons at once, e.g. while a pooled client waits for a server
+// session and while the server does not take its requests fast enough. Reading only resumes once all of them are gone.
+// Must be called on the channel's event loop.
+public final class ReadGate {
+    private static final AttributeKey<Set<Object>> PAUSES = AttributeKey.valueOf(ReadGate.class.getName());
+
+    private ReadGate() {
+    }
+
+    public static void pause(final Channel channel, final Object reason) {
+        pauses(channel).add(reason);
+        channel.config().setAutoRead(false);
+    }
+
+    public static void resume(final Channel channel, final Object reason) {
+        final Set<Object> pauses = pauses(channel);
+        pauses.remove(reason);
+        if (pauses.isEmpty()) {
+            channel.config().setAutoRead(true);
+        }
+    }
+
+    private static Set<Object> pauses(final Channel channel) {
+        final Attribute<Set<Object>> attribute = channel.attr(PAUSES);
+        Set<Object> pauses = attribute.get();
+        if (pauses == null) {
+            pauses = Collections.newSetFromMap(new IdentityHashMap<>());
+            attribute.set(pauses);
+        }
+        return pauses;
+    }
+}
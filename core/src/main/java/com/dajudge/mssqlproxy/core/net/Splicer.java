@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.epoll.AbstractEpollStreamChannel;
+import io.netty.channel.epoll.EpollRdHup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Hands the relaying of two epoll channels over to the kernel's splice(), so the bytes never reach user space.
+// Both channels must be registered on the same event loop and be created in level-triggered mode
+// (see Transport#enableSplice()).
+public final class Splicer {
+    private static final Logger LOG = LoggerFactory.getLogger(Splicer.class);
+
+    private Splicer() {
+    }
+
+    public static void splice(final Channel first, final Channel second) {
+        ReadGate.pause(first, Splicer.class);
+        ReadGate.pause(second, Splicer.class);
+        // Whatever is still queued in the pipelines must hit the sockets before the kernel takes over
+        final ChannelFuture firstDrained = first.writeAndFlush(Unpooled.EMPTY_BUFFER);
+        final ChannelFuture secondDrained = second.writeAndFlush(Unpooled.EMPTY_BUFFER);
+        firstDrained.addListener(f -> secondDrained.addListener(s -> {
+            if (firstDrained.isSuccess() && secondDrained.isSuccess()) {
+                start(first, second);
+            } else {
+                first.close();
+                second.close();
+            }
+        }));
+    }
+
+    private static void start(final Channel first, final Channel second) {
+        try {
+            start((AbstractEpollStreamChannel) first, (AbstractEpollStreamChannel) second);
+        } catch (final RuntimeException e) {
+            LOG.warn("Failed to splice {} <-> {}", first.remoteAddress(), second.remoteAddress(), e);
+            first.close();
+            second.close();
+        }
+    }
+
+    private static void start(final AbstractEpollStreamChannel first, final AbstractEpollStreamChannel second) {
+        first.pipeline().addFirst(EndOfStreamHandler.class.getName(), new EndOfStreamHandler(second));
+        second.pipeline().addFirst(EndOfStreamHandler.class.getName(), new EndOfStreamHandler(first));
+        spliceTo(first, second);
+        spliceTo(second, first);
+        ReadGate.resume(first, Splicer.class);
+        ReadGate.resume(second, Splicer.class);
+        LOG.debug("Splicing {} <-> {}", first.remoteAddress(), second.remoteAddress());
+    }
+
+    private static void spliceTo(final AbstractEpollStreamChannel from, final AbstractEpollStreamChannel to) {
+        from.spliceTo(to, Integer.MAX_VALUE).addListener(future -> {
+            if (!future.isSuccess()) {
+                LOG.debug("Splicing {} -> {} stopped", from.remoteAddress(), to.remoteAddress(), future.cause());
+                from.close();
+                to.close();
+            }
+        });
+    }
+
+    // Netty's splice loop cannot tell the end of the stream from an empty socket buffer. Once epoll has reported the
+    // peer's FIN (EPOLLRDHUP) the remaining bytes are read by hand, and the channel is closed when the stream ends.
+    // Checking the flag costs no syscall, so it can be done on every read.
+    private static class EndOfStreamHandler extends ChannelInboundHandlerAdapter {
+        private static final int READ_CHUNK_SIZE = 64 * 1024;
+        private final Channel peer;
+
+        EndOfStreamHandler(final Channel peer) {
+            this.peer = peer;
+        }
+
+        @Override
+        public void channelReadComplete(final ChannelHandlerContext ctx) throws Exception {
+            final EpollSocketChannel channel = (EpollSocketChannel) ctx.channel();
+            if (channel.isActive() && EpollRdHup.isReceived(channel)) {
+                drain(channel);
+            }
+            super.channelReadComplete(ctx);
+        }
+
+        private void drain(final EpollSocketChannel channel) throws IOException {
+            while (true) {
+                final ByteBuf buffer = channel.alloc().directBuffer(READ_CHUNK_SIZE);
+                final int read;
+                try {
+                    final ByteBuffer nioBuffer = buffer.internalNioBuffer(0, READ_CHUNK_SIZE);
+                    read = channel.fd().read(nioBuffer, nioBuffer.position(), nioBuffer.limit());
+                } catch (final IOException | RuntimeException e) {
+                    buffer.release();
+                    throw e;
+                }
+                if (read > 0) {
+                    peer.writeAndFlush(buffer.writerIndex(read));
+                } else {
+                    buffer.release();
+                    if (read < 0) {
+                        // Let the spliced data already queued for the peer go out before tearing the session down
+                        peer.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(f -> channel.close());
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+
+// Relays to a sink that can be swapped, e.g. once the client of a server connection opened ahead of time is known
+public class SwitchableSink implements Sink<ByteBuf> {
+    private Sink<ByteBuf> sink;
+
+    public void switchTo(final Sink<ByteBuf> sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void accept(final ByteBuf byteBuf) {
+        sink.accept(byteBuf);
+    }
+
+    @Override
+    public ChannelFuture close() {
+        return sink.close();
+    }
+}
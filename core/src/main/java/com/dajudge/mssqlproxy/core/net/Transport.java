@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+public enum Transport {
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup createEventLoopGroup(final int threads) {
+            return new NioEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return NioSocketChannel.class;
+        }
+    },
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        public EventLoopGroup createEventLoopGroup(final int threads) {
+            return new EpollEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public boolean supportsReusePort() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsSplice() {
+            return true;
+        }
+
+        @Override
+        public void enableReusePort(final ServerBootstrap bootstrap) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+
+        @Override
+        public void enableSplice(final ServerBootstrap bootstrap) {
+            bootstrap.childOption(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED);
+        }
+
+        @Override
+        public void enableSplice(final Bootstrap bootstrap) {
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED);
+        }
+    };
+
+    public abstract boolean isAvailable();
+
+    public abstract EventLoopGroup createEventLoopGroup(int threads);
+
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    public abstract Class<? extends SocketChannel> socketChannelClass();
+
+    public boolean supportsReusePort() {
+        return false;
+    }
+
+    public boolean supportsSplice() {
+        return false;
+    }
+
+    public void enableReusePort(final ServerBootstrap bootstrap) {
+        throw new UnsupportedOperationException("SO_REUSEPORT is not supported by the " + this + " transport");
+    }
+
+    // splice() only works on level-triggered channels, and the epoll mode cannot be changed after registration
+    public void enableSplice(final ServerBootstrap bootstrap) {
+        throw new UnsupportedOperationException("splice() is not supported by the " + this + " transport");
+    }
+
+    public void enableSplice(final Bootstrap bootstrap) {
+        throw new UnsupportedOperationException("splice() is not supported by the " + this + " transport");
+    }
+
+    public static Transport bestAvailable() {
+        return EPOLL.isAvailable() ? EPOLL : NIO;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.pool;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+
+// Logged in backend sessions waiting for their next client. Sessions are only handed out on the event loop they are
+// registered with, so each event loop has its own set and no locking is needed.
+public class BackendPool {
+    private final PoolMode mode;
+    private final int maxSessions;
+    private final Duration idleTimeout;
+    private final Map<EventLoop, Map<SessionKey, Group>> groups = new ConcurrentHashMap<>();
+    private volatile byte[] preloginResponse;
+
+    // maxSessions limits the idle sessions in SESSION mode and all sessions in TRANSACTION mode, per event loop and key
+    public BackendPool(final PoolMode mode, final int maxSessions, final Duration idleTimeout) {
+        this.mode = mode;
+        this.maxSessions = maxSessions;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public PoolMode mode() {
+        return mode;
+    }
+
+    // Clients can only be answered from the pool once a prelogin response has been seen
+    public boolean isPrimed() {
+        return preloginResponse != null;
+    }
+
+    public void prime(final byte[] preloginResponse) {
+        if (this.preloginResponse == null && preloginResponse != null) {
+            this.preloginResponse = preloginResponse;
+        }
+    }
+
+    public ByteBuf preloginResponse() {
+        return wrappedBuffer(preloginResponse);
+    }
+
+    public BackendSession acquire(final SessionKey key, final EventLoop eventLoop) {
+        final Deque<BackendSession> idle = group(eventLoop, key).idle;
+        BackendSession session;
+        while ((session = idle.pollFirst()) != null) {
+            if (session.unpark()) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    // TRANSACTION mode: a new server session may only be opened while the group is below its limit and has no idle
+    // session to share
+    public boolean reserve(final SessionKey key, final EventLoop eventLoop) {
+        final Group group = group(eventLoop, key);
+        if (!group.idle.isEmpty() || group.sessions + group.reserved >= maxSessions) {
+            return false;
+        }
+        group.reserved++;
+        return true;
+    }
+
+    public ByteBuf loginResponse(final SessionKey key, final EventLoop eventLoop) {
+        final byte[] loginResponse = group(eventLoop, key).loginResponse;
+        return loginResponse == null ? null : wrappedBuffer(loginResponse);
+    }
+
+    void cancelReservation(final SessionKey key, final EventLoop eventLoop) {
+        group(eventLoop, key).reserved--;
+    }
+
+    void register(final BackendSession session, final boolean reserved, final byte[] loginResponse) {
+        final Group group = group(session.eventLoop(), session.key());
+        if (reserved) {
+            group.reserved--;
+        }
+        group.sessions++;
+        if (group.loginResponse == null) {
+            group.loginResponse = loginResponse;
+        }
+    }
+
+    void unregister(final BackendSession session) {
+        final Group group = group(session.eventLoop(), session.key());
+        group.idle.remove(session);
+        group.sessions--;
+        if (group.sessions + group.reserved == 0) {
+            // Nothing left the waiting clients could be served by
+            MultiplexedClient client;
+            while ((client = group.waiting.pollFirst()) != null) {
+                client.close();
+            }
+        }
+    }
+
+    void connected(final MultiplexedClient client) {
+        group(client.eventLoop(), client.key()).clients++;
+    }
+
+    void disconnected(final MultiplexedClient client) {
+        final Group group = group(client.eventLoop(), client.key());
+        group.clients--;
+        group.waiting.remove(client);
+    }
+
+    // Returns false if there is no session the client could ever be served by
+    boolean await(final MultiplexedClient client) {
+        final Group group = group(client.eventLoop(), client.key());
+        if (group.sessions == 0) {
+            return false;
+        }
+        group.waiting.addLast(client);
+        return true;
+    }
+
+    void release(final BackendSession session) {
+        final Group group = group(session.eventLoop(), session.key());
+        if (mode == PoolMode.TRANSACTION) {
+            final MultiplexedClient next = group.waiting.pollFirst();
+            if (next != null) {
+                next.bind(session);
+            } else if (group.sessions > maxSessions) {
+                session.close();
+            } else {
+                park(group, session);
+            }
+        } else if (group.idle.size() >= maxSessions) {
+            session.close();
+        } else {
+            park(group, session);
+        }
+    }
+
+    // Called when the idle timer fires, returns false if the session has to stay around
+    boolean expire(final BackendSession session) {
+        final Group group = group(session.eventLoop(), session.key());
+        if (mode == PoolMode.TRANSACTION && group.clients > 0 && group.sessions == 1) {
+            return false;
+        }
+        group.idle.remove(session);
+        return true;
+    }
+
+    void remove(final BackendSession session) {
+        group(session.eventLoop(), session.key()).idle.remove(session);
+    }
+
+    Duration idleTimeout() {
+        return idleTimeout;
+    }
+
+    private void park(final Group group, final BackendSession session) {
+        // Most recently used first, its connection is the least likely to have been dropped on the way
+        group.idle.addFirst(session);
+        session.park();
+    }
+
+    private Group group(final EventLoop eventLoop, final SessionKey key) {
+        return groups.computeIfAbsent(eventLoop, it -> new HashMap<>())
+                .computeIfAbsent(key, it -> new Group());
+    }
+
+    private static class Group {
+        private final Deque<BackendSession> idle = new ArrayDeque<>();
+        private final Deque<MultiplexedClient> waiting = new ArrayDeque<>();
+        private int sessions;
+        private int reserved;
+        private int clients;
+        private byte[] loginResponse;
+    }
+}
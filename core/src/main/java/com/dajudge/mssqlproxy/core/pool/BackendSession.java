@@ -0,0 +1,263 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.pool;
+
+import com.dajudge.mssqlproxy.core.client.HandshakeState;
+import com.dajudge.mssqlproxy.core.net.BackpressureHandler;
+import com.dajudge.mssqlproxy.core.net.ChannelSink;
+import com.dajudge.mssqlproxy.core.net.RelayHandler;
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.dajudge.mssqlproxy.core.net.ProxySession.DOWNSTREAM_INBOUND_HANDLER;
+import static com.dajudge.mssqlproxy.core.net.ProxySession.UPSTREAM_INBOUND_HANDLER;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// A logged in server connection that outlives its clients. All methods are called on the channel's event loop.
+public class BackendSession {
+    private static final Logger LOG = LoggerFactory.getLogger(BackendSession.class);
+    private final BackendPool pool;
+    private final Conversation conversation;
+    private Channel channel;
+    private SessionKey key;
+    private SessionKey reservation;
+    private boolean mars;
+    private byte[] loginResponse;
+    private ScheduledFuture<?> idleTimer;
+    private MultiplexedClient client;
+    private MultiplexedClient lastClient;
+
+    public BackendSession(final BackendPool pool) {
+        this.pool = pool;
+        this.conversation = new Conversation(pool.mode() == PoolMode.TRANSACTION);
+    }
+
+    public void channel(final Channel channel) {
+        this.channel = channel;
+        channel.closeFuture().addListener(future -> cancelReservation());
+    }
+
+    public void mars(final boolean mars) {
+        this.mars = mars;
+    }
+
+    public void key(final SessionKey key) {
+        this.key = key;
+    }
+
+    // The slot taken in the pool for this session before it was opened
+    public void reservation(final SessionKey reservation) {
+        this.reservation = reservation;
+    }
+
+    SessionKey key() {
+        return key;
+    }
+
+    EventLoop eventLoop() {
+        return channel.eventLoop();
+    }
+
+    public void handshakeComplete(final HandshakeState handshake, final Channel upstreamChannel) {
+        // MARS wraps the TDS packets into SMP frames the conversation tracking cannot follow
+        if (key == null || mars) {
+            cancelReservation();
+            return;
+        }
+        pool.prime(handshake.getPreloginResponse());
+        if (pool.mode() == PoolMode.SESSION) {
+            loginResponse = handshake.getLoginResponse();
+            attach(upstreamChannel, false);
+        } else if (key.isMultiplexable()) {
+            multiplex(handshake.getLoginResponse(), upstreamChannel);
+        } else {
+            cancelReservation();
+        }
+    }
+
+    public void attach(final Channel upstreamChannel, final boolean reused) {
+        if (reused) {
+            conversation.resetOnNextRequest();
+            upstreamChannel.writeAndFlush(wrappedBuffer(loginResponse));
+        }
+        channel.pipeline().replace(
+                DOWNSTREAM_INBOUND_HANDLER,
+                DOWNSTREAM_INBOUND_HANDLER,
+                new RelayHandler(new TrackingSink(conversation.responses(), new ChannelSink<>(upstreamChannel)))
+        );
+        upstreamChannel.pipeline().replace(
+                UPSTREAM_INBOUND_HANDLER,
+                UPSTREAM_INBOUND_HANDLER,
+                new RelayHandler(new TrackingSink(conversation.requests(), new ClientSink()))
+        );
+        BackpressureHandler.link(upstreamChannel, channel);
+    }
+
+    private void multiplex(final byte[] loginResponse, final Channel upstreamChannel) {
+        pool.register(this, reservation != null, loginResponse);
+        reservation = null;
+        channel.closeFuture().addListener(future -> pool.unregister(this));
+        channel.pipeline().replace(
+                DOWNSTREAM_INBOUND_HANDLER,
+                DOWNSTREAM_INBOUND_HANDLER,
+                new RelayHandler(new MultiplexedSink())
+        );
+        new MultiplexedClient(upstreamChannel, pool, key).start();
+        pool.release(this);
+    }
+
+    void serve(final MultiplexedClient next) {
+        // The session state left behind by another client must not leak into this one's requests
+        if (lastClient != null && lastClient != next) {
+            conversation.resetOnNextRequest();
+        }
+        lastClient = next;
+        client = next;
+        BackpressureHandler.link(next.channel(), channel);
+    }
+
+    void forward(final ByteBuf byteBuf) {
+        conversation.requests().track(byteBuf);
+        channel.writeAndFlush(byteBuf);
+    }
+
+    void clientClosed() {
+        client = null;
+        if (channel.isActive() && conversation.isAtTransactionBoundary()) {
+            pool.release(this);
+        } else {
+            channel.close();
+        }
+    }
+
+    void park() {
+        if (pool.mode() == PoolMode.SESSION) {
+            channel.pipeline().replace(
+                    DOWNSTREAM_INBOUND_HANDLER,
+                    DOWNSTREAM_INBOUND_HANDLER,
+                    new RelayHandler(new ParkedSink())
+            );
+        }
+        idleTimer = channel.eventLoop().schedule(this::expire, pool.idleTimeout().toMillis(), MILLISECONDS);
+    }
+
+    boolean unpark() {
+        idleTimer.cancel(false);
+        return channel.isActive();
+    }
+
+    ChannelFuture close() {
+        return channel.close();
+    }
+
+    private void expire() {
+        if (!channel.isActive()) {
+            return;
+        }
+        if (pool.expire(this)) {
+            channel.close();
+        } else {
+            idleTimer = channel.eventLoop().schedule(this::expire, pool.idleTimeout().toMillis(), MILLISECONDS);
+        }
+    }
+
+    private void cancelReservation() {
+        if (reservation != null) {
+            pool.cancelReservation(reservation, channel.eventLoop());
+            reservation = null;
+        }
+    }
+
+    private ChannelFuture detach() {
+        if (channel.isActive() && conversation.isIdle()) {
+            LOG.debug("Returning {} to the pool", channel.remoteAddress());
+            pool.release(this);
+            return channel.newSucceededFuture();
+        }
+        return channel.close();
+    }
+
+    private class ClientSink implements Sink<ByteBuf> {
+        @Override
+        public void accept(final ByteBuf byteBuf) {
+            channel.writeAndFlush(byteBuf);
+        }
+
+        @Override
+        public ChannelFuture close() {
+            return detach();
+        }
+    }
+
+    // Nothing is expected from the server while no client is attached
+    private class ParkedSink implements Sink<ByteBuf> {
+        @Override
+        public void accept(final ByteBuf byteBuf) {
+            byteBuf.release();
+            LOG.debug("Unexpected data from parked session {}", channel.remoteAddress());
+            channel.close();
+        }
+
+        @Override
+        public ChannelFuture close() {
+            idleTimer.cancel(false);
+            pool.remove(BackendSession.this);
+            return channel.newSucceededFuture();
+        }
+    }
+
+    // Relays responses to whichever client is served at the moment and hands the session on at transaction boundaries
+    private class MultiplexedSink implements Sink<ByteBuf> {
+        @Override
+        public void accept(final ByteBuf byteBuf) {
+            final MultiplexedClient current = client;
+            if (current == null) {
+                byteBuf.release();
+                LOG.debug("Unexpected data from idle session {}", channel.remoteAddress());
+                channel.close();
+                return;
+            }
+            conversation.responses().track(byteBuf);
+            current.write(byteBuf);
+            if (conversation.isAtTransactionBoundary()) {
+                client = null;
+                current.unbind();
+                pool.release(BackendSession.this);
+            }
+        }
+
+        @Override
+        public ChannelFuture close() {
+            if (idleTimer != null) {
+                idleTimer.cancel(false);
+            }
+            final MultiplexedClient current = client;
+            client = null;
+            if (current != null) {
+                LOG.debug("Server session {} closed during a request", channel.remoteAddress());
+                current.close();
+            }
+            return channel.newSucceededFuture();
+        }
+    }
+}
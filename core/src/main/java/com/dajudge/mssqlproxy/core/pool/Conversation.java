@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.pool;
+
+import com.dajudge.mssqlproxy.core.protocol.PacketTracker;
+import io.netty.buffer.ByteBuf;
+
+// Tracks the request/response exchange on a logged in backend session to tell when it can be handed to another client.
+public class Conversation {
+    private static final int SQL_BATCH = 1;
+    private static final int RPC = 3;
+    private static final int ATTENTION = 6;
+    private static final int BULK_LOAD = 7;
+    private static final int TRANSACTION_MANAGER = 14;
+    private static final int STATUS_RESET_CONNECTION = 0x08;
+    private final PacketTracker requests = new PacketTracker(new RequestListener());
+    private final PacketTracker responses = new PacketTracker(new ResponseListener());
+    private final TransactionTracker transactions;
+    private int outstandingResponses;
+    private boolean attentionSent;
+    private boolean resetPending;
+
+    public Conversation() {
+        this(false);
+    }
+
+    public Conversation(final boolean trackTransactions) {
+        this.transactions = trackTransactions ? new TransactionTracker() : null;
+    }
+
+    public PacketTracker requests() {
+        return requests;
+    }
+
+    public PacketTracker responses() {
+        return responses;
+    }
+
+    public void resetOnNextRequest() {
+        resetPending = true;
+    }
+
+    // A cancelled request leaves the session in a state that is not worth reasoning about, so it is not reused
+    public boolean isIdle() {
+        return requests.isAtMessageBoundary()
+                && responses.isAtMessageBoundary()
+                && outstandingResponses == 0
+                && !attentionSent
+                && !resetPending;
+    }
+
+    // Whether the session can serve another client before this one disconnects
+    public boolean isAtTransactionBoundary() {
+        return transactions != null
+                && !transactions.isLost()
+                && !transactions.isInTransaction()
+                && isIdle();
+    }
+
+    private class RequestListener implements PacketTracker.Listener {
+        @Override
+        public int onPacketStatus(final int type, final int status, final boolean firstPacketOfMessage) {
+            if (resetPending && firstPacketOfMessage && isResettable(type)) {
+                resetPending = false;
+                return status | STATUS_RESET_CONNECTION;
+            }
+            return status;
+        }
+
+        @Override
+        public void onMessageEnd(final int type) {
+            if (type == ATTENTION) {
+                attentionSent = true;
+            } else {
+                outstandingResponses++;
+            }
+        }
+
+        private boolean isResettable(final int type) {
+            return type == SQL_BATCH || type == RPC || type == BULK_LOAD || type == TRANSACTION_MANAGER;
+        }
+    }
+
+    private class ResponseListener implements PacketTracker.Listener {
+        @Override
+        public int onPacketStatus(final int type, final int status, final boolean firstPacketOfMessage) {
+            return status;
+        }
+
+        @Override
+        public void onPayload(final ByteBuf buffer, final int index, final int length) {
+            if (transactions != null) {
+                transactions.onPayload(buffer, index, length);
+            }
+        }
+
+        @Override
+        public void onMessageEnd(final int type) {
+            if (transactions != null) {
+                transactions.onMessageEnd();
+            }
+            if (outstandingResponses > 0) {
+                outstandingResponses--;
+            }
+        }
+    }
+}
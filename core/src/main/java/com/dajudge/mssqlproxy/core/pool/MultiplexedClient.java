@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.pool;
+
+import com.dajudge.mssqlproxy.core.net.ReadGate;
+import com.dajudge.mssqlproxy.core.net.RelayHandler;
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static com.dajudge.mssqlproxy.core.net.ProxySession.UPSTREAM_INBOUND_HANDLER;
+
+// A client of a TRANSACTION mode pool. It is bound to a server session only while a request or transaction is in
+// flight and waits in line for one otherwise. All methods are called on the client's event loop.
+public class MultiplexedClient implements Sink<ByteBuf> {
+    private static final Logger LOG = LoggerFactory.getLogger(MultiplexedClient.class);
+    private final Channel channel;
+    private final BackendPool pool;
+    private final SessionKey key;
+    private final Deque<ByteBuf> queued = new ArrayDeque<>();
+    private BackendSession session;
+    private boolean waiting;
+    private boolean closed;
+
+    public MultiplexedClient(final Channel channel, final BackendPool pool, final SessionKey key) {
+        this.channel = channel;
+        this.pool = pool;
+        this.key = key;
+    }
+
+    public void start() {
+        pool.connected(this);
+        channel.pipeline().replace(UPSTREAM_INBOUND_HANDLER, UPSTREAM_INBOUND_HANDLER, new RelayHandler(this));
+    }
+
+    @Override
+    public void accept(final ByteBuf byteBuf) {
+        if (closed) {
+            byteBuf.release();
+        } else if (session != null) {
+            session.forward(byteBuf);
+        } else {
+            queued.addLast(byteBuf);
+            if (!waiting) {
+                acquire();
+            }
+        }
+    }
+
+    private void acquire() {
+        final BackendSession next = pool.acquire(key, channel.eventLoop());
+        if (next != null) {
+            bind(next);
+        } else if (pool.await(this)) {
+            waiting = true;
+            ReadGate.pause(channel, this);
+        } else {
+            LOG.debug("No server session left for {}", channel.remoteAddress());
+            close();
+        }
+    }
+
+    void bind(final BackendSession next) {
+        session = next;
+        waiting = false;
+        next.serve(this);
+        ByteBuf byteBuf;
+        while ((byteBuf = queued.pollFirst()) != null) {
+            next.forward(byteBuf);
+        }
+        ReadGate.resume(channel, this);
+    }
+
+    void unbind() {
+        session = null;
+    }
+
+    void write(final ByteBuf byteBuf) {
+        channel.writeAndFlush(byteBuf);
+    }
+
+    Channel channel() {
+        return channel;
+    }
+
+    SessionKey key() {
+        return key;
+    }
+
+    EventLoop eventLoop() {
+        return channel.eventLoop();
+    }
+
+    @Override
+    public ChannelFuture close() {
+        if (!closed) {
+            closed = true;
+            queued.forEach(ByteBuf::release);
+            queued.clear();
+            pool.disconnected(this);
+            final BackendSession current = session;
+            session = null;
+            if (current != null) {
+                current.clientClosed();
+            }
+        }
+        return channel.close();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.pool;
+
+import com.dajudge.mssqlproxy.core.client.RequestParser;
+import com.dajudge.mssqlproxy.core.client.requests.LoginRequest;
+import com.dajudge.mssqlproxy.core.client.requests.MessageRequest;
+import com.dajudge.mssqlproxy.core.client.requests.ParsedRequest;
+import com.dajudge.mssqlproxy.core.client.requests.PreloginRequest;
+import com.dajudge.mssqlproxy.core.net.RelayHandler;
+import com.dajudge.mssqlproxy.core.protocol.MessageSplitter;
+import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static com.dajudge.mssqlproxy.core.net.ProxySession.UPSTREAM_INBOUND_HANDLER;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+// Answers a client's prelogin and login from the pool. If no pooled session fits, the client is handed over to a new
+// server connection together with the messages received so far.
+public class PooledClientSession implements Sink<ParsedRequest> {
+    private static final Logger LOG = LoggerFactory.getLogger(PooledClientSession.class);
+    private final Channel upstreamChannel;
+    private final BackendPool pool;
+    private final HandOver handOver;
+    private SqlServerMessage prelogin;
+    private boolean done;
+
+    public interface HandOver {
+        // A reservation is a slot taken in the pool for the server session the client is handed over to
+        void start(List<SqlServerMessage> replay, boolean preloginAnswered, SessionKey reservation);
+    }
+
+    public PooledClientSession(final Channel upstreamChannel, final BackendPool pool, final HandOver handOver) {
+        this.upstreamChannel = upstreamChannel;
+        this.pool = pool;
+        this.handOver = handOver;
+    }
+
+    public void start() {
+        upstreamChannel.pipeline().addLast(
+                UPSTREAM_INBOUND_HANDLER,
+                new RelayHandler(new MessageSplitter(new RequestParser(this)))
+        );
+    }
+
+    @Override
+    public void accept(final ParsedRequest request) {
+        final SqlServerMessage message = ((MessageRequest) request).getMessage();
+        if (done) {
+            message.release();
+        } else if (request instanceof PreloginRequest && prelogin == null) {
+            onPrelogin((PreloginRequest) request);
+        } else if (request instanceof LoginRequest && prelogin != null) {
+            onLogin((LoginRequest) request);
+        } else {
+            LOG.debug("Unexpected request during handshake from {}", upstreamChannel.remoteAddress());
+            message.release();
+            upstreamChannel.close();
+        }
+    }
+
+    private void onPrelogin(final PreloginRequest request) {
+        if (request.isMarsRequested()) {
+            handOver(singletonList(request.getMessage()), false, null);
+        } else {
+            prelogin = request.getMessage();
+            upstreamChannel.writeAndFlush(pool.preloginResponse());
+        }
+    }
+
+    private void onLogin(final LoginRequest request) {
+        final SessionKey key = SessionKey.of(request.parsed());
+        if (pool.mode() == PoolMode.TRANSACTION) {
+            onMultiplexedLogin(request, key);
+            return;
+        }
+        final BackendSession session = pool.acquire(key, upstreamChannel.eventLoop());
+        if (session == null) {
+            handOver(asList(prelogin, request.getMessage()), true, null);
+        } else {
+            LOG.debug("Reusing pooled session for {}", upstreamChannel.remoteAddress());
+            done = true;
+            prelogin.release();
+            request.getMessage().release();
+            session.attach(upstreamChannel, true);
+        }
+    }
+
+    private void onMultiplexedLogin(final LoginRequest request, final SessionKey key) {
+        final EventLoop eventLoop = upstreamChannel.eventLoop();
+        if (!key.isMultiplexable()) {
+            handOver(asList(prelogin, request.getMessage()), true, null);
+        } else if (pool.reserve(key, eventLoop)) {
+            handOver(asList(prelogin, request.getMessage()), true, key);
+        } else {
+            final ByteBuf loginResponse = pool.loginResponse(key, eventLoop);
+            if (loginResponse == null) {
+                // The sessions for this login are still logging in
+                handOver(asList(prelogin, request.getMessage()), true, null);
+                return;
+            }
+            done = true;
+            prelogin.release();
+            request.getMessage().release();
+            upstreamChannel.writeAndFlush(loginResponse);
+            new MultiplexedClient(upstreamChannel, pool, key).start();
+        }
+    }
+
+    private void handOver(
+            final List<SqlServerMessage> replay,
+            final boolean preloginAnswered,
+            final SessionKey reservation
+    ) {
+        done = true;
+        upstreamChannel.pipeline().remove(UPSTREAM_INBOUND_HANDLER);
+        handOver.start(replay, preloginAnswered, reservation);
+    }
+
+    @Override
+    public ChannelFuture close() {
+        if (!done && prelogin != null) {
+            prelogin.release();
+        }
+        done = true;
+        return upstreamChannel.close();
+    }
+}
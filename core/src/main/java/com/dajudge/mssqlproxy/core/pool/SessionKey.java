@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.pool;
+
+import com.dajudge.mssqlproxy.core.protocol.transport.Login7Message;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// The parts of a Login7 request that shape the server session. Credentials are not part of it since the proxy
+// injects them, neither are informational fields like the client's host or application name.
+public final class SessionKey {
+    private static final int TDS_7_2 = 0x72090002;
+    private static final byte FEATURE_COLUMN_ENCRYPTION = 0x04;
+    private final int tdsVersion;
+    private final int packetSize;
+    private final byte optionFlags1;
+    private final byte optionFlags2;
+    private final byte typeFlags;
+    private final byte optionFlags3;
+    private final int clientLCID;
+    private final String database;
+    private final String language;
+    private final byte[][] extensions;
+
+    private SessionKey(final Login7Message login) {
+        this.tdsVersion = login.getTdsVersion();
+        this.packetSize = login.getRequestedPacketSize();
+        this.optionFlags1 = login.getOptionFlags1();
+        this.optionFlags2 = login.getOptionFlags2();
+        this.typeFlags = login.getTypeFlags();
+        this.optionFlags3 = login.getOptionFlags3();
+        this.clientLCID = login.getClientLCID();
+        this.database = login.getDatabase();
+        this.language = login.getLanguage();
+        this.extensions = login.getExtensions().stream()
+                .map(it -> {
+                    final byte[] data = it.getData();
+                    final byte[] extension = new byte[data.length + 1];
+                    extension[0] = it.getType();
+                    System.arraycopy(data, 0, extension, 1, data.length);
+                    return extension;
+                })
+                .toArray(byte[][]::new);
+    }
+
+    public static SessionKey of(final Login7Message login) {
+        return new SessionKey(login);
+    }
+
+    // Multiplexing follows the response token stream, which is only understood for TDS 7.2+ without Always Encrypted
+    public boolean isMultiplexable() {
+        return tdsVersion >= TDS_7_2 && Arrays.stream(extensions).noneMatch(it -> it[0] == FEATURE_COLUMN_ENCRYPTION);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final SessionKey that = (SessionKey) o;
+        return tdsVersion == that.tdsVersion
+                && packetSize == that.packetSize
+                && optionFlags1 == that.optionFlags1
+                && optionFlags2 == that.optionFlags2
+                && typeFlags == that.typeFlags
+                && optionFlags3 == that.optionFlags3
+                && clientLCID == that.clientLCID
+                && Objects.equals(database, that.database)
+                && Objects.equals(language, that.language)
+                && Arrays.deepEquals(extensions, that.extensions);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(tdsVersion, packetSize, typeFlags, clientLCID, database, language)
+                + Arrays.deepHashCode(extensions);
+    }
+
+    @Override
+    public String toString() {
+        return "SessionKey{" +
+                "tdsVersion=" + tdsVersion +
+                ", packetSize=" + packetSize +
+                ", database='" + database + '\'' +
+                ", language='" + language + '\'' +
+                '}';
+    }
+}
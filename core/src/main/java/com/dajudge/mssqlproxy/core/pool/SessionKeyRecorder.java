@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.pool;
+
+import com.dajudge.mssqlproxy.core.client.requests.LoginRequest;
+import com.dajudge.mssqlproxy.core.client.requests.ParsedRequest;
+import com.dajudge.mssqlproxy.core.client.requests.PreloginRequest;
+import com.dajudge.proxybase.Sink;
+import io.netty.channel.ChannelFuture;
+
+public class SessionKeyRecorder implements Sink<ParsedRequest> {
+    private final BackendSession session;
+    private final Sink<ParsedRequest> sink;
+
+    public SessionKeyRecorder(final BackendSession session, final Sink<ParsedRequest> sink) {
+        this.session = session;
+        this.sink = sink;
+    }
+
+    @Override
+    public void accept(final ParsedRequest request) {
+        if (request instanceof PreloginRequest) {
+            session.mars(((PreloginRequest) request).isMarsRequested());
+        } else if (request instanceof LoginRequest) {
+            session.key(SessionKey.of(((LoginRequest) request).parsed()));
+        }
+        sink.accept(request);
+    }
+
+    @Override
+    public ChannelFuture close() {
+        return sink.close();
+    }
+}
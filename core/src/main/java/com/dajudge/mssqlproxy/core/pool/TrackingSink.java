@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.pool;
+
+import com.dajudge.mssqlproxy.core.protocol.PacketTracker;
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+
+public class TrackingSink implements Sink<ByteBuf> {
+    private final PacketTracker tracker;
+    private final Sink<ByteBuf> sink;
+
+    public TrackingSink(final PacketTracker tracker, final Sink<ByteBuf> sink) {
+        this.tracker = tracker;
+        this.sink = sink;
+    }
+
+    @Override
+    public void accept(final ByteBuf byteBuf) {
+        tracker.track(byteBuf);
+        sink.accept(byteBuf);
+    }
+
+    @Override
+    public ChannelFuture close() {
+        return sink.close();
+    }
+}
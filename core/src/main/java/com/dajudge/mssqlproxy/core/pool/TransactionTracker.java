@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.pool;
+
+import com.dajudge.mssqlproxy.core.protocol.TokenStreamWalker;
+import io.netty.buffer.ByteBuf;
+
+// Follows the ENVCHANGE tokens that begin and end transactions. Once the token stream cannot be followed any more the
+// transaction state is unknown for good.
+public class TransactionTracker implements TokenStreamWalker.Listener {
+    private static final int ENV_BEGIN_TRANSACTION = 8;
+    private static final int ENV_COMMIT_TRANSACTION = 9;
+    private static final int ENV_ROLLBACK_TRANSACTION = 10;
+    private static final int ENV_ENLIST_DTC_TRANSACTION = 11;
+    private static final int ENV_DEFECT_TRANSACTION = 12;
+    private static final int ENV_TRANSACTION_ENDED = 17;
+    private final TokenStreamWalker walker = new TokenStreamWalker(this);
+    private boolean inTransaction;
+
+    public void onPayload(final ByteBuf buffer, final int index, final int length) {
+        walker.onPayload(buffer, index, length);
+    }
+
+    public void onMessageEnd() {
+        walker.onMessageEnd();
+    }
+
+    public boolean isInTransaction() {
+        return inTransaction;
+    }
+
+    public boolean isLost() {
+        return walker.isLost();
+    }
+
+    @Override
+    public void onEnvChange(final ByteBuf envChange) {
+        switch (envChange.getUnsignedByte(envChange.readerIndex())) {
+            case ENV_BEGIN_TRANSACTION:
+            case ENV_ENLIST_DTC_TRANSACTION:
+                inTransaction = true;
+                break;
+            case ENV_COMMIT_TRANSACTION:
+            case ENV_ROLLBACK_TRANSACTION:
+            case ENV_DEFECT_TRANSACTION:
+            case ENV_TRANSACTION_ENDED:
+                inTransaction = false;
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.protocol;
+
+import com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader;
+import io.netty.buffer.ByteBuf;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.STATUS_EOM;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static io.netty.buffer.Unpooled.buffer;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+
+// A response the proxy answers a request with in place of the server: an ERROR token followed by a DONE token
+// flagging the error.
+public final class ErrorResponse {
+    // Outside of the 50000 that RAISERROR uses for messages without a number of their own
+    public static final int PROXY_ERROR_NUMBER = 51433;
+    // ERROR tokens have a 4 byte line number and DONE tokens an 8 byte row count from here on, 2 and 4 bytes before
+    public static final int TDS_7_2 = 0x72090002;
+    private static final int TABULAR_RESULT = 4;
+    private static final int ERROR = 0xAA;
+    private static final int DONE = 0xFD;
+    private static final int DONE_ERROR = 0x02;
+    private static final String SERVER_NAME = "mssqlproxy";
+
+    private ErrorResponse() {
+    }
+
+    // A TDS version of 0 stands for an unknown one, which is taken to be 7.2 or later
+    public static ByteBuf create(
+            final int tdsVersion,
+            final int spid,
+            final int number,
+            final int severity,
+            final String text
+    ) {
+        final boolean current = tdsVersion == 0 || tdsVersion >= TDS_7_2;
+        final byte[] message = text.getBytes(UTF_16LE);
+        final byte[] server = SERVER_NAME.getBytes(UTF_16LE);
+        final ByteBuf payload = buffer();
+        payload.writeByte(ERROR)
+                .writeShortLE(4 + 1 + 1 + 2 + message.length + 1 + server.length + 1 + (current ? 4 : 2))
+                .writeIntLE(number)
+                .writeByte(1)
+                .writeByte(severity)
+                .writeShortLE(text.length())
+                .writeBytes(message)
+                .writeByte(SERVER_NAME.length())
+                .writeBytes(server)
+                .writeByte(0);
+        if (current) {
+            payload.writeIntLE(0);
+        } else {
+            payload.writeShortLE(0);
+        }
+        payload.writeByte(DONE).writeShortLE(DONE_ERROR).writeShortLE(0);
+        if (current) {
+            payload.writeLongLE(0);
+        } else {
+            payload.writeIntLE(0);
+        }
+        // The first and only packet of its message
+        final byte[] header = new TDSHeader(
+                TABULAR_RESULT,
+                STATUS_EOM,
+                TDS_HEADER_SIZE + payload.readableBytes(),
+                spid,
+                1,
+                0
+        ).serialize();
+        return buffer(header.length + payload.readableBytes()).writeBytes(header).writeBytes(payload);
+    }
+}
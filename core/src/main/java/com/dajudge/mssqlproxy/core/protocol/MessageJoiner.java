@@ -19,6 +19,8 @@ import com.dajudge.proxybase.Sink;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelFuture;
 
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+
 public class MessageJoiner implements Sink<SqlServerMessage> {
     private final Sink<ByteBuf> sink;
 
@@ -33,7 +35,6 @@ public class MessageJoiner implements Sink<SqlServerMessage> {
 
     @Override
     public void accept(final SqlServerMessage sqlServerMessage) {
-        sink.accept(sqlServerMessage.header());
-        sink.accept(sqlServerMessage.payload());
+        sink.accept(wrappedBuffer(sqlServerMessage.header(), sqlServerMessage.payload()));
     }
 }
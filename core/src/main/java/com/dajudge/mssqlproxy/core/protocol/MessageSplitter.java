@@ -16,27 +16,103 @@
 package com.dajudge.mssqlproxy.core.protocol;
 
 import com.dajudge.proxybase.Sink;
-import com.dajudge.proxybase.message.AbstractFixedSizeHeaderMessageSplitter;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelFuture;
 
-public class MessageSplitter extends AbstractFixedSizeHeaderMessageSplitter<SqlServerMessage> {
+import java.util.ArrayDeque;
+import java.util.Deque;
 
-    public MessageSplitter(final Sink<SqlServerMessage> requestSink) {
-        super(requestSink);
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static java.lang.Math.min;
+import static java.lang.String.format;
+
+// Cuts packets out of the received buffers as retained slices instead of copying them. A packet that spans several
+// reads becomes a composite of slices of those reads.
+public class MessageSplitter implements Sink<ByteBuf> {
+    private static final int LENGTH_OFFSET = 2;
+    private final Sink<SqlServerMessage> messageSink;
+    private final Deque<ByteBuf> pending = new ArrayDeque<>();
+    private int pendingBytes;
+
+    public MessageSplitter(final Sink<SqlServerMessage> messageSink) {
+        this.messageSink = messageSink;
     }
 
     @Override
-    protected SqlServerMessage createEmptyRequest() {
-        return new SqlServerMessage();
+    public ChannelFuture close() {
+        releasePending();
+        return messageSink.close();
     }
 
     @Override
-    protected boolean isComplete(final SqlServerMessage sqlServerMessage) {
-        return sqlServerMessage.isComplete();
+    public void accept(final ByteBuf byteBuf) {
+        if (!byteBuf.isReadable()) {
+            byteBuf.release();
+            return;
+        }
+        pending.add(byteBuf);
+        pendingBytes += byteBuf.readableBytes();
+        while (pendingBytes >= TDS_HEADER_SIZE) {
+            final int packetLength = packetLength();
+            if (packetLength < TDS_HEADER_SIZE) {
+                releasePending();
+                throw new IllegalStateException(format("Invalid TDS packet length: %d", packetLength));
+            }
+            if (pendingBytes < packetLength) {
+                break;
+            }
+            final ByteBuf header = take(TDS_HEADER_SIZE);
+            final ByteBuf payload = take(packetLength - TDS_HEADER_SIZE);
+            messageSink.accept(new SqlServerMessage(header, payload));
+        }
     }
 
-    @Override
-    protected void append(final SqlServerMessage sqlServerMessage, final ByteBuf byteBuf) {
-        sqlServerMessage.append(byteBuf);
+    private int packetLength() {
+        return (pendingByte(LENGTH_OFFSET) << 8) | pendingByte(LENGTH_OFFSET + 1);
+    }
+
+    private int pendingByte(final int offset) {
+        int remaining = offset;
+        for (final ByteBuf buffer : pending) {
+            if (remaining < buffer.readableBytes()) {
+                return buffer.getUnsignedByte(buffer.readerIndex() + remaining);
+            }
+            remaining -= buffer.readableBytes();
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    private ByteBuf take(final int length) {
+        pendingBytes -= length;
+        final ByteBuf first = pending.getFirst();
+        if (first.readableBytes() >= length) {
+            final ByteBuf slice = first.readRetainedSlice(length);
+            releaseIfDrained(first);
+            return slice;
+        }
+        final CompositeByteBuf composite = first.alloc().compositeBuffer();
+        int remaining = length;
+        while (remaining > 0) {
+            final ByteBuf buffer = pending.getFirst();
+            final int chunk = min(remaining, buffer.readableBytes());
+            composite.addComponent(true, buffer.readRetainedSlice(chunk));
+            releaseIfDrained(buffer);
+            remaining -= chunk;
+        }
+        return composite;
+    }
+
+    private void releaseIfDrained(final ByteBuf buffer) {
+        if (!buffer.isReadable()) {
+            pending.removeFirst().release();
+        }
+    }
+
+    private void releasePending() {
+        while (!pending.isEmpty()) {
+            pending.removeFirst().release();
+        }
+        pendingBytes = 0;
     }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.STATUS_EOM;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+
+// Follows the packet framing of a relayed TDS stream without buffering it. Only the header bytes are looked at, the
+// payload is only passed on to listeners that ask for it.
+public class PacketTracker {
+    private final Listener listener;
+    private int headerIndex;
+    private int type;
+    private int status;
+    private int length;
+    private int remaining;
+    private boolean inMessage;
+    private boolean broken;
+
+    public interface Listener {
+        // Returns the status to relay, which allows flags to be set on the fly
+        int onPacketStatus(int type, int status, boolean firstPacketOfMessage);
+
+        void onMessageEnd(int type);
+
+        default void onPayload(final ByteBuf buffer, final int index, final int length) {
+        }
+
+        // The length includes the header
+        default void onPacketLength(final int type, final int length) {
+        }
+    }
+
+    public PacketTracker(final Listener listener) {
+        this.listener = listener;
+    }
+
+    public void track(final ByteBuf buffer) {
+        int index = buffer.readerIndex();
+        final int end = buffer.writerIndex();
+        while (index < end && !broken) {
+            if (headerIndex < TDS_HEADER_SIZE) {
+                onHeaderByte(buffer, index++);
+            } else {
+                final int skipped = Math.min(remaining, end - index);
+                if (skipped > 0) {
+                    listener.onPayload(buffer, index, skipped);
+                }
+                index += skipped;
+                remaining -= skipped;
+            }
+            if (headerIndex == TDS_HEADER_SIZE && remaining == 0) {
+                onPacketEnd();
+            }
+        }
+    }
+
+    public boolean isAtMessageBoundary() {
+        return !broken && headerIndex == 0 && !inMessage;
+    }
+
+    public boolean isBroken() {
+        return broken;
+    }
+
+    private void onHeaderByte(final ByteBuf buffer, final int index) {
+        final int value = buffer.getUnsignedByte(index);
+        switch (headerIndex++) {
+            case 0:
+                type = value;
+                break;
+            case 1:
+                status = listener.onPacketStatus(type, value, !inMessage);
+                if (status != value) {
+                    buffer.setByte(index, status);
+                }
+                inMessage = true;
+                break;
+            case 2:
+                length = value << 8;
+                break;
+            case 3:
+                length |= value;
+                broken = length < TDS_HEADER_SIZE;
+                remaining = length - TDS_HEADER_SIZE;
+                if (!broken) {
+                    listener.onPacketLength(type, length);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onPacketEnd() {
+        headerIndex = 0;
+        if ((status & STATUS_EOM) != 0) {
+            inMessage = false;
+            listener.onMessageEnd(type);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.STATUS_EOM;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static com.dajudge.mssqlproxy.core.util.EncodingUtil.fromUCS16;
+
+// Describes a request from its first packet, assuming TDS 7.2 or later (ALL_HEADERS): the statement text of a SQL
+// batch, the procedure of an RPC. Text that goes on past the given bytes is cut off with an ellipsis.
+public final class RequestText {
+    private static final int SQL_BATCH = 1;
+    private static final int RPC = 3;
+    private static final int ATTENTION = 6;
+    private static final int BULK_LOAD = 7;
+    private static final int PROC_ID = 0xFFFF;
+    private static final String[] PROCEDURES = {
+            null,
+            "sp_cursor",
+            "sp_cursoropen",
+            "sp_cursorprepare",
+            "sp_cursorexecute",
+            "sp_cursorprepexec",
+            "sp_cursorunprepare",
+            "sp_cursorfetch",
+            "sp_cursoroption",
+            "sp_cursorclose",
+            "sp_executesql",
+            "sp_prepare",
+            "sp_execute",
+            "sp_prepexec",
+            "sp_prepexecrpc",
+            "sp_unprepare"
+    };
+
+    private RequestText() {
+    }
+
+    public static String describe(final ByteBuf packet) {
+        if (packet.readableBytes() < TDS_HEADER_SIZE) {
+            return "?";
+        }
+        final int start = packet.readerIndex();
+        final int type = packet.getUnsignedByte(start);
+        switch (type) {
+            case SQL_BATCH:
+                return sqlBatch(packet, start);
+            case RPC:
+                return rpc(packet, start);
+            case ATTENTION:
+                return "(attention)";
+            case BULK_LOAD:
+                return "(bulk load)";
+            default:
+                return "(type " + type + ")";
+        }
+    }
+
+    // The index of the statement text in the first packet of a SQL batch, -1 if the headers are not all there
+    public static int sqlBatchTextIndex(final ByteBuf packet) {
+        final int start = packet.readerIndex();
+        return skipHeaders(packet, start, end(packet, start));
+    }
+
+    // The end of the packet's bytes at hand
+    public static int end(final ByteBuf packet) {
+        return end(packet, packet.readerIndex());
+    }
+
+    private static String sqlBatch(final ByteBuf packet, final int start) {
+        final int end = end(packet, start);
+        final int text = skipHeaders(packet, start, end);
+        if (text < 0) {
+            return "?";
+        }
+        final boolean complete = end == packetEnd(packet, start) && isEndOfMessage(packet, start);
+        return fromUCS16(packet, text, end - text) + (complete ? "" : "...");
+    }
+
+    private static String rpc(final ByteBuf packet, final int start) {
+        final int end = end(packet, start);
+        final int name = skipHeaders(packet, start, end);
+        if (name < 0 || name + 2 > end) {
+            return "?";
+        }
+        final int length = packet.getUnsignedShortLE(name);
+        if (length == PROC_ID) {
+            if (name + 4 > end) {
+                return "?";
+            }
+            final int id = packet.getUnsignedShortLE(name + 2);
+            return id < PROCEDURES.length && PROCEDURES[id] != null ? PROCEDURES[id] : "(procedure " + id + ")";
+        }
+        final int available = Math.min(length * 2, end - name - 2);
+        return fromUCS16(packet, name + 2, available) + (available < length * 2 ? "..." : "");
+    }
+
+    // Returns the index past ALL_HEADERS, -1 if they do not fit
+    private static int skipHeaders(final ByteBuf packet, final int start, final int end) {
+        final int headers = start + TDS_HEADER_SIZE;
+        if (headers + 4 > end) {
+            return -1;
+        }
+        final long length = packet.getUnsignedIntLE(headers);
+        return length < 4 || headers + length > end ? -1 : headers + (int) length;
+    }
+
+    private static int end(final ByteBuf packet, final int start) {
+        return Math.min(packet.writerIndex(), packetEnd(packet, start));
+    }
+
+    private static int packetEnd(final ByteBuf packet, final int start) {
+        return start + packet.getUnsignedShort(start + 2);
+    }
+
+    private static boolean isEndOfMessage(final ByteBuf packet, final int start) {
+        return (packet.getUnsignedByte(start + 1) & STATUS_EOM) != 0;
+    }
+}
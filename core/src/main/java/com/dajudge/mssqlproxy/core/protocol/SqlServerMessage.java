@@ -16,24 +16,20 @@
 package com.dajudge.mssqlproxy.core.protocol;
 
 import com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader;
-import com.dajudge.proxybase.message.AbstractFixedSizeHeaderMessage;
 import io.netty.buffer.ByteBuf;
 
 import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
-import static io.netty.buffer.Unpooled.copiedBuffer;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
 
-public class SqlServerMessage extends AbstractFixedSizeHeaderMessage {
+// A message owns exactly one reference to its header and to its payload. Whoever consumes it either hands both
+// buffers on (e.g. by writing them to a channel) or calls release(), never both.
+public class SqlServerMessage {
+    private final ByteBuf header;
+    private final ByteBuf payload;
 
-    protected SqlServerMessage() {
-        super(TDS_HEADER_SIZE);
-    }
-
-    private SqlServerMessage(final TDSHeader oldHeader, final byte[] payload) {
-        super(header(oldHeader, payload.length), payload(payload));
-    }
-
-    private static ByteBuf payload(final byte[] payload) {
-        return copiedBuffer(payload);
+    public SqlServerMessage(final ByteBuf header, final ByteBuf payload) {
+        this.header = header;
+        this.payload = payload;
     }
 
     private static ByteBuf header(
@@ -47,20 +43,27 @@ public class SqlServerMessage extends AbstractFixedSizeHeaderMessage {
                 oldHeader.getSpid(),
                 oldHeader.getSequenceNum(),
                 oldHeader.getWindow());
-        return copiedBuffer(header.serialize());
+        return wrappedBuffer(header.serialize());
     }
 
     public SqlServerMessage withNewPayload(final byte[] newPayload) {
-        return new SqlServerMessage(parsedHeader(), newPayload);
+        return new SqlServerMessage(header(parsedHeader(), newPayload.length), wrappedBuffer(newPayload));
     }
 
     public TDSHeader parsedHeader() {
-        return new TDSHeader(header().array());
+        return new TDSHeader(header);
     }
 
-    @Override
-    protected int getPayloadLength(final ByteBuf byteBuf) {
-        return new TDSHeader(byteBuf.array()).getLength() - TDS_HEADER_SIZE;
+    public ByteBuf header() {
+        return header;
     }
 
+    public ByteBuf payload() {
+        return payload;
+    }
+
+    public void release() {
+        header.release();
+        payload.release();
+    }
 }
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+import static io.netty.buffer.Unpooled.buffer;
+
+// Walks the token stream of server responses without buffering more than the token at hand. Rows are skipped using
+// the preceding column metadata. A token it does not know leaves the walker lost, since nothing after it can be
+// trusted. Assumes TDS 7.2 or later (12 byte DONE tokens).
+public class TokenStreamWalker {
+    private static final int RETURNSTATUS = 0x79;
+    private static final int COLMETADATA = 0x81;
+    private static final int TABNAME = 0xA4;
+    private static final int COLINFO = 0xA5;
+    private static final int ORDER = 0xA9;
+    private static final int ERROR = 0xAA;
+    private static final int INFO = 0xAB;
+    private static final int RETURNVALUE = 0xAC;
+    private static final int LOGINACK = 0xAD;
+    private static final int FEATUREEXTACK = 0xAE;
+    private static final int ROW = 0xD1;
+    private static final int NBCROW = 0xD2;
+    private static final int ENVCHANGE = 0xE3;
+    private static final int SESSIONSTATE = 0xE4;
+    private static final int SSPI = 0xED;
+    private static final int FEDAUTHINFO = 0xEE;
+    private static final int DONE = 0xFD;
+    private static final int DONEPROC = 0xFE;
+    private static final int DONEINPROC = 0xFF;
+    private static final int FEATURE_TERMINATOR = 0xFF;
+    private static final int DONE_LENGTH = 12;
+
+    private static final int COLUMN_ENCRYPTED = 0x0800;
+
+    // Value formats of a column, non-negative values are fixed lengths
+    private static final int BYTE_LENGTH = -1;
+    private static final int SHORT_LENGTH = -2;
+    private static final int LONG_LENGTH = -3;
+    private static final int TEXT = -4;
+    private static final int PLP = -5;
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+    private static final long PLP_NULL = -1L;
+    private static final int SHORT_NULL = 0xFFFF;
+
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final Listener listener;
+    private ByteBuf pending = buffer();
+    private int[] columns = new int[0];
+    private int columnCount;
+    private boolean lost;
+
+    public interface Listener {
+        // Called once the token was read completely
+        default void onToken(final int token) {
+        }
+
+        // The token's content after its length
+        default void onEnvChange(final ByteBuf envChange) {
+        }
+
+        // The token's content after its length
+        default void onLoginAck(final ByteBuf loginAck) {
+        }
+    }
+
+    public TokenStreamWalker(final Listener listener) {
+        this.listener = listener;
+    }
+
+    public void onPayload(final ByteBuf buffer, final int index, final int length) {
+        if (lost) {
+            return;
+        }
+        pending.writeBytes(buffer, index, length);
+        walk();
+        if (!pending.isReadable() && pending.capacity() > MAX_RETAINED_CAPACITY) {
+            pending = buffer();
+        } else {
+            pending.discardSomeReadBytes();
+        }
+    }
+
+    public void onMessageEnd() {
+        if (pending.isReadable()) {
+            lost = true;
+            pending.clear();
+        }
+        columnCount = 0;
+    }
+
+    public boolean isLost() {
+        return lost;
+    }
+
+    public void reset() {
+        lost = false;
+        columnCount = 0;
+        pending.clear();
+    }
+
+    private void walk() {
+        while (pending.isReadable()) {
+            final int start = pending.readerIndex();
+            try {
+                if (!readToken()) {
+                    lost = true;
+                    pending.clear();
+                    return;
+                }
+                listener.onToken(pending.getUnsignedByte(start));
+            } catch (final IndexOutOfBoundsException e) {
+                // Token continues in the next packet
+                pending.readerIndex(start);
+                return;
+            } catch (final IllegalArgumentException e) {
+                // Negative length, the stream is not what it was taken for
+                lost = true;
+                pending.clear();
+                return;
+            }
+        }
+    }
+
+    private boolean readToken() {
+        final int token = pending.readUnsignedByte();
+        switch (token) {
+            case COLMETADATA:
+                return readColumnMetadata();
+            case ROW:
+                skipRow(false);
+                return true;
+            case NBCROW:
+                skipRow(true);
+                return true;
+            case ENVCHANGE:
+                listener.onEnvChange(pending.readSlice(pending.readUnsignedShortLE()));
+                return true;
+            case DONE:
+            case DONEPROC:
+            case DONEINPROC:
+                pending.skipBytes(DONE_LENGTH);
+                return true;
+            case RETURNSTATUS:
+                pending.skipBytes(4);
+                return true;
+            case RETURNVALUE:
+                return skipReturnValue();
+            case TABNAME:
+            case COLINFO:
+            case ORDER:
+            case LOGINACK:
+                listener.onLoginAck(pending.readSlice(pending.readUnsignedShortLE()));
+                return true;
+            case ERROR:
+            case INFO:
+            case SSPI:
+                pending.skipBytes(pending.readUnsignedShortLE());
+                return true;
+            case SESSIONSTATE:
+            case FEDAUTHINFO:
+                pending.skipBytes(pending.readIntLE());
+                return true;
+            case FEATUREEXTACK:
+                skipFeatureExtAck();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean readColumnMetadata() {
+        final int count = pending.readUnsignedShortLE();
+        if (count == SHORT_NULL) {
+            columnCount = 0;
+            return true;
+        }
+        final int[] formats = columns.length >= count ? columns : new int[count];
+        for (int i = 0; i < count; i++) {
+            pending.skipBytes(4); // user type
+            if ((pending.readUnsignedShortLE() & COLUMN_ENCRYPTED) != 0) {
+                return false;
+            }
+            formats[i] = readTypeInfo(true);
+            if (formats[i] == UNKNOWN) {
+                return false;
+            }
+            skipByteString();
+        }
+        columns = formats;
+        columnCount = count;
+        return true;
+    }
+
+    private boolean skipReturnValue() {
+        pending.skipBytes(2); // ordinal
+        skipByteString();
+        pending.skipBytes(1 + 4); // status, user type
+        if ((pending.readUnsignedShortLE() & COLUMN_ENCRYPTED) != 0) {
+            return false;
+        }
+        final int format = readTypeInfo(false);
+        if (format == UNKNOWN) {
+            return false;
+        }
+        skipValue(format);
+        return true;
+    }
+
+    private void skipRow(final boolean nullBitmap) {
+        final int bitmapStart = pending.readerIndex();
+        if (nullBitmap) {
+            pending.skipBytes((columnCount + 7) / 8);
+        }
+        for (int i = 0; i < columnCount; i++) {
+            if (nullBitmap && (pending.getUnsignedByte(bitmapStart + i / 8) & (1 << (i % 8))) != 0) {
+                continue;
+            }
+            skipValue(columns[i]);
+        }
+    }
+
+    private int readTypeInfo(final boolean withTableName) {
+        final int type = pending.readUnsignedByte();
+        switch (type) {
+            case 0x1F: // NULL
+                return 0;
+            case 0x30: // INT1
+            case 0x32: // BIT
+                return 1;
+            case 0x34: // INT2
+                return 2;
+            case 0x38: // INT4
+            case 0x3A: // DATETIM4
+            case 0x3B: // FLT4
+            case 0x7A: // MONEY4
+                return 4;
+            case 0x3C: // MONEY
+            case 0x3D: // DATETIME
+            case 0x3E: // FLT8
+            case 0x7F: // INT8
+                return 8;
+            case 0x28: // DATEN
+                return BYTE_LENGTH;
+            case 0x24: // GUID
+            case 0x26: // INTN
+            case 0x68: // BITN
+            case 0x6D: // FLTN
+            case 0x6E: // MONEYN
+            case 0x6F: // DATETIMN
+            case 0x29: // TIMEN (scale)
+            case 0x2A: // DATETIME2N (scale)
+            case 0x2B: // DATETIMEOFFSETN (scale)
+            case 0x2F: // CHAR
+            case 0x27: // VARCHAR
+            case 0x2D: // BINARY
+            case 0x25: // VARBINARY
+                pending.skipBytes(1);
+                return BYTE_LENGTH;
+            case 0x37: // DECIMAL
+            case 0x3F: // NUMERIC
+            case 0x6A: // DECIMALN
+            case 0x6C: // NUMERICN
+                pending.skipBytes(3); // length, precision, scale
+                return BYTE_LENGTH;
+            case 0xA5: // BIGVARBINARY
+            case 0xAD: // BIGBINARY
+                return pending.readUnsignedShortLE() == SHORT_NULL ? PLP : SHORT_LENGTH;
+            case 0xA7: // BIGVARCHAR
+            case 0xAF: // BIGCHAR
+            case 0xE7: // NVARCHAR
+            case 0xEF: // NCHAR
+                final int maxLength = pending.readUnsignedShortLE();
+                pending.skipBytes(5); // collation
+                return maxLength == SHORT_NULL ? PLP : SHORT_LENGTH;
+            case 0xF1: // XML
+                if (pending.readUnsignedByte() != 0) {
+                    skipByteString();
+                    skipByteString();
+                    skipShortString();
+                }
+                return PLP;
+            case 0xF0: // UDT
+                pending.skipBytes(2);
+                skipByteString();
+                skipByteString();
+                skipByteString();
+                skipShortString();
+                return PLP;
+            case 0x23: // TEXT
+            case 0x63: // NTEXT
+                pending.skipBytes(4 + 5); // length, collation
+                skipTableName(withTableName);
+                return TEXT;
+            case 0x22: // IMAGE
+                pending.skipBytes(4);
+                skipTableName(withTableName);
+                return TEXT;
+            case 0x62: // SSVARIANT
+                pending.skipBytes(4);
+                return LONG_LENGTH;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    private void skipValue(final int format) {
+        switch (format) {
+            case BYTE_LENGTH:
+                pending.skipBytes(pending.readUnsignedByte());
+                break;
+            case SHORT_LENGTH:
+                final int length = pending.readUnsignedShortLE();
+                if (length != SHORT_NULL) {
+                    pending.skipBytes(length);
+                }
+                break;
+            case LONG_LENGTH:
+                pending.skipBytes(pending.readIntLE());
+                break;
+            case TEXT:
+                final int textPointerLength = pending.readUnsignedByte();
+                if (textPointerLength != 0) {
+                    pending.skipBytes(textPointerLength + 8); // text pointer, timestamp
+                    pending.skipBytes(pending.readIntLE());
+                }
+                break;
+            case PLP:
+                if (pending.readLongLE() != PLP_NULL) {
+                    int chunk;
+                    while ((chunk = pending.readIntLE()) != 0) {
+                        pending.skipBytes(chunk);
+                    }
+                }
+                break;
+            default:
+                pending.skipBytes(format);
+                break;
+        }
+    }
+
+    private void skipTableName(final boolean withTableName) {
+        if (withTableName) {
+            final int parts = pending.readUnsignedByte();
+            for (int i = 0; i < parts; i++) {
+                skipShortString();
+            }
+        }
+    }
+
+    private void skipByteString() {
+        pending.skipBytes(pending.readUnsignedByte() * 2);
+    }
+
+    private void skipShortString() {
+        pending.skipBytes(pending.readUnsignedShortLE() * 2);
+    }
+
+    private void skipFeatureExtAck() {
+        while (pending.readUnsignedByte() != FEATURE_TERMINATOR) {
+            pending.skipBytes(pending.readIntLE());
+        }
+    }
+}
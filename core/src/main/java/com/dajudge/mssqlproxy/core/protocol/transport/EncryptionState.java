@@ -24,6 +24,14 @@ public class EncryptionState {
         this.clientCert = clientCert;
     }
 
+    public static EncryptionState deserialize(final byte data) {
+        return new EncryptionState(EncryptionLevel.values()[data & 0x03], (data & 0x80) != 0);
+    }
+
+    public EncryptionLevel getLevel() {
+        return level;
+    }
+
     public byte serialize() {
         final byte cert = (byte) (clientCert ? 0x80 : 0);
         switch (level) {
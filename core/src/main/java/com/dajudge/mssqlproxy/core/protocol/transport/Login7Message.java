@@ -17,6 +17,7 @@ package com.dajudge.mssqlproxy.core.protocol.transport;
 
 import com.dajudge.mssqlproxy.core.util.EncodingUtil;
 import com.dajudge.mssqlproxy.core.util.PasswordUtil;
+import io.netty.buffer.ByteBuf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,6 +27,7 @@ import java.util.List;
 import java.util.function.Function;
 
 import static com.dajudge.mssqlproxy.core.util.BinaryUtils.*;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
 import static java.lang.System.arraycopy;
 import static java.util.function.Function.identity;
 
@@ -33,6 +35,7 @@ public class Login7Message {
     private static final Logger LOG = LoggerFactory.getLogger(Login7Message.class);
 
     protected static final int YUKON = 0x72090002;
+    private static final int TYPE_FLAG_READ_ONLY_INTENT = 0x20;
     private int tdsVersion;
     private int requestedPacketSize;
     private byte[] interfaceLibVersion = new byte[4];
@@ -60,18 +63,23 @@ public class Login7Message {
     private List<Extension> extensions = new ArrayList<>();
 
     public Login7Message(final byte[] payload) {
+        this(wrappedBuffer(payload));
+    }
+
+    public Login7Message(final ByteBuf buffer) {
+        final ByteBuf payload = buffer.slice();
         // SQLServerConnectioStringn.java L4981
-        tdsVersion = readInt(payload, 4);
-        requestedPacketSize = readInt(payload, 8);
-        arraycopy(payload, 12, interfaceLibVersion, 0, interfaceLibVersion.length);
-        clientProcessId = readInt(payload, 16);
-        primaryServerConnectionId = readInt(payload, 20);
-        optionFlags1 = payload[24];
-        optionFlags2 = payload[25];
-        typeFlags = payload[26];
-        optionFlags3 = payload[27];
-        clientTimeZone = readInt(payload, 28);
-        clientLCID = readInt(payload, 32);
+        tdsVersion = payload.getIntLE(4);
+        requestedPacketSize = payload.getIntLE(8);
+        payload.getBytes(12, interfaceLibVersion);
+        clientProcessId = payload.getIntLE(16);
+        primaryServerConnectionId = payload.getIntLE(20);
+        optionFlags1 = payload.getByte(24);
+        optionFlags2 = payload.getByte(25);
+        typeFlags = payload.getByte(26);
+        optionFlags3 = payload.getByte(27);
+        clientTimeZone = payload.getIntLE(28);
+        clientLCID = payload.getIntLE(32);
         hostname = readString(payload, 36, EncodingUtil::fromUCS16);
         username = readString(payload, 40, EncodingUtil::fromUCS16);
         password = readString(payload, 44, PasswordUtil::decryptPassword);
@@ -81,10 +89,10 @@ public class Login7Message {
         libraryName = readString(payload, 60, EncodingUtil::fromUCS16);
         language = readString(payload, 64, EncodingUtil::fromUCS16);
         database = readString(payload, 68, EncodingUtil::fromUCS16);
-        arraycopy(payload, 72, clientId, 0, clientId.length);
+        payload.getBytes(72, clientId);
         secBlobLengthOverride = tdsVersion < YUKON
                 ? 0
-                : readInt(payload, 90);
+                : payload.getIntLE(90);
         secBlob = readBlob(payload, 78, secBlobLengthOverride, 1, identity());
         atchDbFile = readString(payload, 82, EncodingUtil::fromUCS16);
         passwordChange = tdsVersion < YUKON
@@ -96,14 +104,14 @@ public class Login7Message {
             LOG.info("AE offset: {}", aeOffset);
             if (hasExtensions(optionFlags3)) {
                 int currentOffset = aeOffset;
-                while (payload[currentOffset] != -1) {
+                while (payload.getByte(currentOffset) != -1) {
                     // https://github.com/microsoft/mssql-jdbc/blob/bfa3826038f675a75107f0723248130d25ca64c6/src/main/java/com/microsoft/sqlserver/jdbc/SQLServerConnection.java#L5103
-                    final byte extType = payload[currentOffset];
-                    final int extLen = readInt(payload, currentOffset + 1);
+                    final byte extType = payload.getByte(currentOffset);
+                    final int extLen = payload.getIntLE(currentOffset + 1);
                     final byte[] data = new byte[extLen];
                     LOG.info("Ext feature: {}, {}", extType, extLen);
                     if (extLen > 0) {
-                        arraycopy(payload, currentOffset + 5, data, 0, extLen);
+                        payload.getBytes(currentOffset + 5, data);
                     }
                     extensions.add(new Extension(extType, data));
                     currentOffset += extLen + 5;
@@ -256,6 +264,11 @@ public class Login7Message {
         this.typeFlags = typeFlags;
     }
 
+    // ApplicationIntent=ReadOnly
+    public boolean isReadOnlyIntent() {
+        return (typeFlags & TYPE_FLAG_READ_ONLY_INTENT) != 0;
+    }
+
     public byte getOptionFlags3() {
         return optionFlags3;
     }
@@ -467,29 +480,29 @@ public class Login7Message {
     }
 
     private static String readString(
-            final byte[] payload,
+            final ByteBuf payload,
             final int locatorOffset,
             final Function<byte[], String> decoder
     ) {
         return readBlob(payload, locatorOffset, null, 2, decoder);
     }
 
-    private static <T> T readBlob(final byte[] payload, final int locatorOffset, final Function<byte[], T> decoder) {
+    private static <T> T readBlob(final ByteBuf payload, final int locatorOffset, final Function<byte[], T> decoder) {
         return readBlob(payload, locatorOffset, null, 1, decoder);
     }
 
     private static <T> T readBlob(
-            final byte[] payload,
+            final ByteBuf payload,
             final int locatorOffset,
             final Integer lenOverride,
             final int stride,
             final Function<byte[], T> decoder
     ) {
-        final short offset = readShort(payload, locatorOffset);
-        final int len = (lenOverride != null && lenOverride != 0) ? lenOverride : readShort(payload, locatorOffset + 2);
+        final short offset = payload.getShortLE(locatorOffset);
+        final int len = (lenOverride != null && lenOverride != 0) ? lenOverride : payload.getShortLE(locatorOffset + 2);
         if (len != 0) {
             final byte[] bytes = new byte[len * stride];
-            arraycopy(payload, offset, bytes, 0, len * stride);
+            payload.getBytes(offset, bytes);
             return decoder.apply(bytes);
         } else {
             return decoder.apply(new byte[0]);
@@ -505,6 +518,14 @@ public class Login7Message {
             this.data = data;
         }
 
+        public byte getType() {
+            return type;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
         public int length() {
             return data.length + 5;
         }
@@ -15,22 +15,24 @@
  */
 package com.dajudge.mssqlproxy.core.protocol.transport;
 
+import io.netty.buffer.ByteBuf;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import static com.dajudge.mssqlproxy.core.util.BinaryUtils.readUnsignedShortBigEndian;
+import static io.netty.buffer.ByteBufUtil.getBytes;
 import static java.util.stream.Collectors.toMap;
 
 public class OptionContainer {
     private final byte optionToken;
-    private final byte[] message;
+    private final ByteBuf message;
     private final int optionOffset;
     private final int optionLength;
 
     public OptionContainer(
             final byte optionToken,
-            final byte[] message,
+            final ByteBuf message,
             final int optionOffset,
             final int optionLength
     ) {
@@ -40,14 +42,14 @@ public class OptionContainer {
         this.optionLength = optionLength;
     }
 
-    public static Map<Byte, OptionContainer> parseOptions(final byte[] payload) {
+    public static Map<Byte, OptionContainer> parseOptions(final ByteBuf payload) {
         final List<OptionContainer> options = new ArrayList<>();
-        int index = 0;
+        int index = payload.readerIndex();
         // SQLServerConnection.java L2745
-        while (payload[index] != -1) { // SQLServerConnection.java L2806
-            final byte optionToken = payload[index];
-            final int optionOffset = readUnsignedShortBigEndian(payload, index + 1);
-            final int optionLength = readUnsignedShortBigEndian(payload, index + 3);
+        while (payload.getByte(index) != -1) { // SQLServerConnection.java L2806
+            final byte optionToken = payload.getByte(index);
+            final int optionOffset = payload.readerIndex() + payload.getUnsignedShort(index + 1);
+            final int optionLength = payload.getUnsignedShort(index + 3);
             final OptionContainer option = new OptionContainer(optionToken, payload, optionOffset, optionLength);
             options.add(option);
             index += 5;
@@ -60,13 +62,11 @@ public class OptionContainer {
     }
 
     public byte[] getOptionData() {
-        final byte[] ret = new byte[optionLength];
-        System.arraycopy(message, optionOffset, ret, 0, optionLength);
-        return ret;
+        return getBytes(message, optionOffset, optionLength);
     }
 
     public void setOptionData(final byte[] data) {
-        System.arraycopy(data, 0, message, optionOffset, optionLength);
+        message.setBytes(optionOffset, data, 0, optionLength);
     }
 
     @Override
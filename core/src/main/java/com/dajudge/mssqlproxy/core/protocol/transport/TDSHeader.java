@@ -15,10 +15,13 @@
  */
 package com.dajudge.mssqlproxy.core.protocol.transport;
 
+import io.netty.buffer.ByteBuf;
+
 import static com.dajudge.mssqlproxy.core.util.BinaryUtils.*;
 
 public class TDSHeader {
     public static final int TDS_HEADER_SIZE = 8;
+    public static final int STATUS_EOM = 0x01;
     private final int messageType;
     private final int status;
     private final int length;
@@ -52,6 +55,15 @@ public class TDSHeader {
                 readUnsignedByte(headerBytes, 7));
     }
 
+    public TDSHeader(final ByteBuf header) {
+        this(header.getUnsignedByte(header.readerIndex()),
+                header.getUnsignedByte(header.readerIndex() + 1),
+                header.getUnsignedShort(header.readerIndex() + 2),
+                header.getUnsignedShort(header.readerIndex() + 4),
+                header.getUnsignedByte(header.readerIndex() + 6),
+                header.getUnsignedByte(header.readerIndex() + 7));
+    }
+
     public int getMessageType() {
         return messageType;
     }
@@ -60,6 +72,10 @@ public class TDSHeader {
         return status;
     }
 
+    public boolean isEndOfMessage() {
+        return (status & STATUS_EOM) != 0;
+    }
+
     public int getLength() {
         return length;
     }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.protocol.transport;
+
+import io.netty.buffer.ByteBuf;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.STATUS_EOM;
+
+// Reusable view on a header that reads its fields straight from the buffer, so classifying a packet allocates nothing.
+public final class TDSHeaderView {
+    private ByteBuf buffer;
+    private int offset;
+
+    public TDSHeaderView wrap(final ByteBuf header) {
+        this.buffer = header;
+        this.offset = header.readerIndex();
+        return this;
+    }
+
+    public int getMessageType() {
+        return buffer.getUnsignedByte(offset);
+    }
+
+    public int getStatus() {
+        return buffer.getUnsignedByte(offset + 1);
+    }
+
+    public boolean isEndOfMessage() {
+        return (getStatus() & STATUS_EOM) != 0;
+    }
+
+    public int getLength() {
+        return buffer.getUnsignedShort(offset + 2);
+    }
+
+    public int getSpid() {
+        return buffer.getUnsignedShort(offset + 4);
+    }
+
+    public int getSequenceNum() {
+        return buffer.getUnsignedByte(offset + 6);
+    }
+
+    public int getWindow() {
+        return buffer.getUnsignedByte(offset + 7);
+    }
+}
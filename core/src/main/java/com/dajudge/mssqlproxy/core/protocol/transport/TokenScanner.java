@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.protocol.transport;
+
+import io.netty.buffer.ByteBuf;
+
+public final class TokenScanner {
+    private static final int LOGINACK = 0xAD;
+    private static final int ERROR = 0xAA;
+    private static final int INFO = 0xAB;
+    private static final int FEATUREEXTACK = 0xAE;
+    private static final int ENVCHANGE = 0xE3;
+    private static final int SESSIONSTATE = 0xE4;
+    private static final int SSPI = 0xED;
+    private static final int FEDAUTHINFO = 0xEE;
+    private static final int FEATURE_TERMINATOR = 0xFF;
+
+    private TokenScanner() {
+    }
+
+    // Gives up at the first token it cannot skip (e.g. DONE), so false only means "not seen in this packet"
+    public static boolean containsLoginAck(final ByteBuf payload) {
+        return findLoginAck(payload) >= 0;
+    }
+
+    // The TDS version the server acknowledged the login with, 0 if there is no LOGINACK in this packet
+    public static int loginAckTdsVersion(final ByteBuf payload) {
+        final int index = findLoginAck(payload);
+        // After the token, its length and the interface byte
+        return index < 0 || index + 8 > payload.writerIndex() ? 0 : payload.getInt(index + 4);
+    }
+
+    private static int findLoginAck(final ByteBuf payload) {
+        int index = payload.readerIndex();
+        final int end = payload.writerIndex();
+        while (index < end) {
+            final int token = payload.getUnsignedByte(index);
+            if (token == LOGINACK) {
+                return index;
+            }
+            final int next = skipToken(payload, token, index + 1, end);
+            if (next < 0 || next > end) {
+                return -1;
+            }
+            index = next;
+        }
+        return -1;
+    }
+
+    private static int skipToken(final ByteBuf payload, final int token, final int index, final int end) {
+        switch (token) {
+            case ERROR:
+            case INFO:
+            case ENVCHANGE:
+            case SSPI:
+                return index + 2 > end ? -1 : index + 2 + payload.getUnsignedShortLE(index);
+            case SESSIONSTATE:
+            case FEDAUTHINFO:
+                return index + 4 > end ? -1 : index + 4 + payload.getIntLE(index);
+            case FEATUREEXTACK:
+                return skipFeatureExtAck(payload, index, end);
+            default:
+                return -1;
+        }
+    }
+
+    private static int skipFeatureExtAck(final ByteBuf payload, final int start, final int end) {
+        int index = start;
+        while (index < end && payload.getUnsignedByte(index) != FEATURE_TERMINATOR) {
+            if (index + 5 > end) {
+                return -1;
+            }
+            index += 5 + payload.getIntLE(index + 1);
+        }
+        return index + 1;
+    }
+}
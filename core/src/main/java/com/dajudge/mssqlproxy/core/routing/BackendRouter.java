@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.routing;
+
+import com.dajudge.mssqlproxy.core.balancing.Backend;
+import com.dajudge.mssqlproxy.core.balancing.BackendGroup;
+import com.dajudge.mssqlproxy.core.protocol.transport.Login7Message;
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+
+// Picks the backend for a client. Clients that intend to only read go to the replicas if there are any. When that or
+// the balancing depends on the login, the client's prelogin is answered with a prelogin response seen earlier, since
+// it comes before the login; until there is one the backend is picked without the login.
+public class BackendRouter {
+    private final BackendGroup servers;
+    private final BackendGroup replicas;
+    private volatile byte[] preloginResponse;
+
+    public BackendRouter(final BackendGroup servers, final BackendGroup replicas) {
+        this.servers = servers;
+        this.replicas = replicas;
+    }
+
+    public List<Backend> backends() {
+        final List<Backend> backends = new ArrayList<>(servers.backends());
+        backends.addAll(replicas.backends());
+        return backends;
+    }
+
+    public boolean needsLogin() {
+        return !replicas.isEmpty() || servers.balancing().needsLogin();
+    }
+
+    public boolean isPrimed() {
+        return preloginResponse != null;
+    }
+
+    public void prime(final byte[] preloginResponse) {
+        if (this.preloginResponse == null && preloginResponse != null) {
+            this.preloginResponse = preloginResponse;
+        }
+    }
+
+    public ByteBuf preloginResponse() {
+        return wrappedBuffer(preloginResponse);
+    }
+
+    // The login is null if the backend has to be picked before the client logs in
+    public Backend route(final Login7Message login) {
+        if (login == null || !login.isReadOnlyIntent() || replicas.isEmpty()) {
+            return servers.select(login);
+        }
+        return replicas.select(login);
+    }
+}
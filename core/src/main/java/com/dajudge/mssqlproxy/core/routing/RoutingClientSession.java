@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.routing;
+
+import com.dajudge.mssqlproxy.core.balancing.Backend;
+import com.dajudge.mssqlproxy.core.client.RequestParser;
+import com.dajudge.mssqlproxy.core.client.requests.LoginRequest;
+import com.dajudge.mssqlproxy.core.client.requests.MessageRequest;
+import com.dajudge.mssqlproxy.core.client.requests.ParsedRequest;
+import com.dajudge.mssqlproxy.core.client.requests.PreloginRequest;
+import com.dajudge.mssqlproxy.core.net.RelayHandler;
+import com.dajudge.mssqlproxy.core.protocol.MessageSplitter;
+import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+import com.dajudge.proxybase.Sink;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static com.dajudge.mssqlproxy.core.net.ProxySession.UPSTREAM_INBOUND_HANDLER;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+// Holds a client back until its login and then hands it over to the backend the router picks. The prelogin response
+// for MARS clients has to come from the server, so their backend is picked without the login.
+public class RoutingClientSession implements Sink<ParsedRequest> {
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingClientSession.class);
+    private final Channel upstreamChannel;
+    private final BackendRouter router;
+    private final HandOver handOver;
+    private SqlServerMessage prelogin;
+    private boolean done;
+
+    public interface HandOver {
+        void start(List<SqlServerMessage> replay, boolean preloginAnswered, Backend backend);
+    }
+
+    public RoutingClientSession(final Channel upstreamChannel, final BackendRouter router, final HandOver handOver) {
+        this.upstreamChannel = upstreamChannel;
+        this.router = router;
+        this.handOver = handOver;
+    }
+
+    public void start() {
+        upstreamChannel.pipeline().addLast(
+                UPSTREAM_INBOUND_HANDLER,
+                new RelayHandler(new MessageSplitter(new RequestParser(this)))
+        );
+    }
+
+    @Override
+    public void accept(final ParsedRequest request) {
+        final SqlServerMessage message = ((MessageRequest) request).getMessage();
+        if (done) {
+            message.release();
+        } else if (request instanceof PreloginRequest && prelogin == null) {
+            onPrelogin((PreloginRequest) request);
+        } else if (request instanceof LoginRequest && prelogin != null) {
+            final Backend backend = router.route(((LoginRequest) request).parsed());
+            LOG.debug("Routing {} to {}", upstreamChannel.remoteAddress(), backend);
+            handOver(asList(prelogin, message), true, backend);
+        } else {
+            LOG.debug("Unexpected request during handshake from {}", upstreamChannel.remoteAddress());
+            message.release();
+            upstreamChannel.close();
+        }
+    }
+
+    private void onPrelogin(final PreloginRequest request) {
+        if (request.isMarsRequested() || !router.isPrimed()) {
+            handOver(singletonList(request.getMessage()), false, router.route(null));
+        } else {
+            prelogin = request.getMessage();
+            upstreamChannel.writeAndFlush(router.preloginResponse());
+        }
+    }
+
+    private void handOver(
+            final List<SqlServerMessage> replay,
+            final boolean preloginAnswered,
+            final Backend backend
+    ) {
+        done = true;
+        upstreamChannel.pipeline().remove(UPSTREAM_INBOUND_HANDLER);
+        handOver.start(replay, preloginAnswered, backend);
+    }
+
+    @Override
+    public ChannelFuture close() {
+        if (!done && prelogin != null) {
+            prelogin.release();
+        }
+        done = true;
+        return upstreamChannel.close();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.spare;
+
+import com.dajudge.mssqlproxy.core.client.HandshakeState;
+import com.dajudge.mssqlproxy.core.client.requests.PreloginRequest;
+import com.dajudge.mssqlproxy.core.net.ProxySession;
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.dajudge.mssqlproxy.core.client.DownstreamOutboundParsedRequestHandler.startTls;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+
+// A server connection opened ahead of its client and parked right before the login: the prelogin is answered and TLS
+// is established, so only the Login7 round trip is left once a client arrives.
+public class Spare {
+    private static final Logger LOG = LoggerFactory.getLogger(Spare.class);
+    private final ProxySession<?> session;
+    private final HandshakeState handshake;
+    private Channel channel;
+    private long openedAt;
+    private long readyAt;
+    private boolean tlsStarted;
+
+    public Spare(final ProxySession<?> session, final HandshakeState handshake) {
+        this.session = session;
+        this.handshake = handshake;
+    }
+
+    void open(final EventLoop eventLoop, final Runnable onReady, final Runnable onClosed) {
+        openedAt = System.nanoTime();
+        final ChannelFuture connectFuture = session.connect(eventLoop, new DetachedSink());
+        channel = connectFuture.channel();
+        channel.closeFuture().addListener(future -> onClosed.run());
+        handshake.onTlsEstablished(() -> {
+            readyAt = System.nanoTime();
+            onReady.run();
+        });
+        connectFuture.addListener(future -> {
+            if (future.isSuccess()) {
+                channel.writeAndFlush(PreloginRequest.standard());
+            }
+        });
+    }
+
+    public void attach(final Channel upstreamChannel) {
+        upstreamChannel.writeAndFlush(wrappedBuffer(handshake.getPreloginResponse()));
+        session.attach(upstreamChannel);
+    }
+
+    public void close() {
+        channel.close();
+    }
+
+    boolean isReady() {
+        return readyAt != 0;
+    }
+
+    boolean isActive() {
+        return channel.isActive();
+    }
+
+    long openedAt() {
+        return openedAt;
+    }
+
+    long openingNanos() {
+        return readyAt - openedAt;
+    }
+
+    // Until a client is attached the server only answers the prelogin, everything after is TLS handshake traffic
+    // consumed further down the pipeline
+    private class DetachedSink implements Sink<ByteBuf> {
+        @Override
+        public void accept(final ByteBuf byteBuf) {
+            byteBuf.release();
+            if (tlsStarted || handshake.getPreloginResponse() == null) {
+                LOG.debug("Unexpected data from spare connection {}", channel.remoteAddress());
+                channel.close();
+                return;
+            }
+            tlsStarted = true;
+            startTls(channel.pipeline(), handshake);
+        }
+
+        @Override
+        public ChannelFuture close() {
+            return channel.newSucceededFuture();
+        }
+    }
+}
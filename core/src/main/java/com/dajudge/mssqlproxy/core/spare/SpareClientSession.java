@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.spare;
+
+import com.dajudge.mssqlproxy.core.client.RequestParser;
+import com.dajudge.mssqlproxy.core.client.requests.MessageRequest;
+import com.dajudge.mssqlproxy.core.client.requests.ParsedRequest;
+import com.dajudge.mssqlproxy.core.client.requests.PreloginRequest;
+import com.dajudge.mssqlproxy.core.net.RelayHandler;
+import com.dajudge.mssqlproxy.core.protocol.MessageSplitter;
+import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+import com.dajudge.proxybase.Sink;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+
+import java.util.List;
+
+import static com.dajudge.mssqlproxy.core.net.ProxySession.UPSTREAM_INBOUND_HANDLER;
+import static java.util.Collections.singletonList;
+
+// Answers a client's prelogin for a spare and attaches the client to it. A spare is prepared without MARS, so clients
+// asking for it get a server connection of their own.
+public class SpareClientSession implements Sink<ParsedRequest> {
+    private final Channel upstreamChannel;
+    private final Spare spare;
+    private final HandOver handOver;
+    private boolean done;
+
+    public interface HandOver {
+        void start(List<SqlServerMessage> replay);
+    }
+
+    public SpareClientSession(final Channel upstreamChannel, final Spare spare, final HandOver handOver) {
+        this.upstreamChannel = upstreamChannel;
+        this.spare = spare;
+        this.handOver = handOver;
+    }
+
+    public void start() {
+        upstreamChannel.pipeline().addLast(
+                UPSTREAM_INBOUND_HANDLER,
+                new RelayHandler(new MessageSplitter(new RequestParser(this)))
+        );
+    }
+
+    @Override
+    public void accept(final ParsedRequest request) {
+        final SqlServerMessage message = ((MessageRequest) request).getMessage();
+        if (done) {
+            message.release();
+            return;
+        }
+        done = true;
+        upstreamChannel.pipeline().remove(UPSTREAM_INBOUND_HANDLER);
+        if (request instanceof PreloginRequest && !((PreloginRequest) request).isMarsRequested()) {
+            message.release();
+            spare.attach(upstreamChannel);
+        } else {
+            spare.close();
+            handOver.start(singletonList(message));
+        }
+    }
+
+    @Override
+    public ChannelFuture close() {
+        if (!done) {
+            done = true;
+            spare.close();
+        }
+        return upstreamChannel.close();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.spare;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// Keeps spare server connections on every event loop. The number of spares follows Little's law: clients arriving per
+// second times the seconds it takes to open a spare is what gets used up while a replacement is on its way.
+public class SparePool {
+    private static final long TICK_MILLIS = 1000;
+    // Spares are recycled before the server or anything in between gives up on the idle connection
+    private static final long MAX_AGE_NANOS = SECONDS.toNanos(60);
+    private static final double SMOOTHING = 0.3;
+    private final int minSpares;
+    private final int maxSpares;
+    private final Supplier<Spare> factory;
+    private final Map<EventLoop, Spares> spares = new ConcurrentHashMap<>();
+    private final List<ScheduledFuture<?>> ticks = new ArrayList<>();
+
+    public SparePool(final int minSpares, final int maxSpares, final Supplier<Spare> factory) {
+        this.minSpares = minSpares;
+        this.maxSpares = maxSpares;
+        this.factory = factory;
+    }
+
+    public void start(final EventLoopGroup eventLoopGroup) {
+        for (final EventExecutor executor : eventLoopGroup) {
+            final Spares loopSpares = new Spares((EventLoop) executor);
+            spares.put(loopSpares.eventLoop, loopSpares);
+            ticks.add(executor.scheduleAtFixedRate(loopSpares::tick, 0, TICK_MILLIS, MILLISECONDS));
+        }
+    }
+
+    public void stop() {
+        ticks.forEach(it -> it.cancel(false));
+        spares.values().forEach(it -> it.eventLoop.execute(it::closeAll));
+    }
+
+    // Must be called on the given event loop, counts as a client arrival
+    public Spare take(final EventLoop eventLoop) {
+        final Spares loopSpares = spares.get(eventLoop);
+        return loopSpares == null ? null : loopSpares.take();
+    }
+
+    private class Spares {
+        private final EventLoop eventLoop;
+        private final Deque<Spare> ready = new ArrayDeque<>();
+        private int opening;
+        private int arrivals;
+        private double arrivalsPerSecond;
+        private double openingSeconds;
+
+        private Spares(final EventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+
+        private Spare take() {
+            arrivals++;
+            Spare spare;
+            while ((spare = ready.pollFirst()) != null && !spare.isActive()) {
+                spare.close();
+            }
+            replenish();
+            return spare;
+        }
+
+        private void tick() {
+            arrivalsPerSecond = smooth(arrivalsPerSecond, arrivals * 1000.0 / TICK_MILLIS);
+            arrivals = 0;
+            final long now = System.nanoTime();
+            // Oldest first, which is also the order they are handed out in
+            while (!ready.isEmpty() && now - ready.peekFirst().openedAt() > MAX_AGE_NANOS) {
+                ready.pollFirst().close();
+            }
+            while (!ready.isEmpty() && ready.size() + opening > target()) {
+                ready.pollLast().close();
+            }
+            replenish();
+        }
+
+        private int target() {
+            final int expected = (int) Math.ceil(arrivalsPerSecond * openingSeconds);
+            return Math.max(minSpares, Math.min(maxSpares, expected));
+        }
+
+        private void replenish() {
+            // Counted up front, a connection that fails right away must not be retried in a tight loop
+            final int missing = target() - ready.size() - opening;
+            for (int i = 0; i < missing; i++) {
+                open();
+            }
+        }
+
+        private void open() {
+            final Spare spare = factory.get();
+            opening++;
+            spare.open(eventLoop, () -> {
+                opening--;
+                openingSeconds = smooth(openingSeconds, spare.openingNanos() / 1e9);
+                ready.addLast(spare);
+            }, () -> {
+                if (spare.isReady()) {
+                    ready.remove(spare);
+                } else {
+                    opening--;
+                }
+            });
+        }
+
+        private void closeAll() {
+            ready.forEach(Spare::close);
+            ready.clear();
+        }
+
+        private double smooth(final double current, final double sample) {
+            return current == 0 ? sample : SMOOTHING * sample + (1 - SMOOTHING) * current;
+        }
+    }
+}
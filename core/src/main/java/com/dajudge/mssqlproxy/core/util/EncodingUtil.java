@@ -15,6 +15,8 @@
  */
 package com.dajudge.mssqlproxy.core.util;
 
+import io.netty.buffer.ByteBuf;
+
 public final class EncodingUtil {
     private EncodingUtil() {
     }
@@ -39,4 +41,13 @@ public final class EncodingUtil {
         }
         return new String(string);
     }
+
+    // Decodes straight from the buffer without copying the bytes first, a trailing odd byte is ignored
+    public static String fromUCS16(final ByteBuf buffer, final int index, final int length) {
+        final char[] string = new char[length / 2];
+        for (int i = 0; i < string.length; i++) {
+            string[i] = (char) buffer.getUnsignedShortLE(index + i * 2);
+        }
+        return new String(string);
+    }
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.netty.channel.epoll;
+
+// Lives in Netty's package to read what Netty keeps to itself: whether epoll reported that the peer shut down its
+// side of the connection (EPOLLRDHUP). The splice() loop cannot tell the end of the stream apart otherwise.
+public final class EpollRdHup {
+    private EpollRdHup() {
+    }
+
+    // Stays set once received, without asking the kernel
+    public static boolean isReceived(final AbstractEpollChannel channel) {
+        return ((AbstractEpollChannel.AbstractEpollUnsafe) channel.unsafe()).recvBufAllocHandle().isReceivedRdHup();
+    }
+}
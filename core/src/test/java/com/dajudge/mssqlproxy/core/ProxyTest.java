@@ -16,7 +16,6 @@
 package com.dajudge.mssqlproxy.core;
 
 import com.dajudge.mssqlproxy.core.MssqlProxyApplication.ProxyConfig;
-import com.dajudge.proxybase.ProxyApplication;
 import com.dajudge.proxybase.config.Endpoint;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
@@ -71,7 +70,7 @@ public class ProxyTest {
 
     private void withProxy(final BiConsumer<String, Integer> proxyConsumer) {
         withServer((host, port) -> {
-            final ProxyApplication<?, ?, ?, ?> proxyApp = new MssqlProxyApplication(asList(new ProxyConfig(
+            final MssqlProxyApplication proxyApp = new MssqlProxyApplication(asList(new ProxyConfig(
                     new Endpoint("127.0.0.1", 51433),
                     new Endpoint(host, port),
                     SA_USERNAME,
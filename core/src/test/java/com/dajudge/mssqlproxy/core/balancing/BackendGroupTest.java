@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.balancing;
+
+import com.dajudge.proxybase.config.Endpoint;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BackendGroupTest {
+    private final Endpoint a = new Endpoint("a", 1433);
+    private final Endpoint b = new Endpoint("b", 1433);
+    private final Endpoint c = new Endpoint("c", 1433);
+
+    @Test
+    public void round_robin_visits_all_backends() {
+        final BackendGroup group = new BackendGroup(asList(a, b, c), Balancing.ROUND_ROBIN);
+        final Set<Endpoint> seen = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            seen.add(group.select(null).endpoint());
+        }
+        assertEquals(new HashSet<>(asList(a, b, c)), seen);
+    }
+
+    @Test
+    public void picks_backend_with_least_sessions() {
+        final BackendGroup group = new BackendGroup(asList(a, b, c), Balancing.LEAST_SESSIONS);
+        group.backends().get(0).sessionOpened();
+        group.backends().get(2).sessionOpened();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(b, group.select(null).endpoint());
+        }
+    }
+
+    @Test
+    public void prefers_backend_with_faster_logins() {
+        final BackendGroup group = new BackendGroup(asList(a, b), Balancing.LOGIN_LATENCY);
+        group.backends().get(0).loginCompleted(50_000_000);
+        group.backends().get(1).loginCompleted(5_000_000);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(b, group.select(null).endpoint());
+        }
+        // Until its load outweighs the faster logins
+        for (int i = 0; i < 10; i++) {
+            group.backends().get(1).sessionOpened();
+        }
+        assertEquals(a, group.select(null).endpoint());
+    }
+
+    @Test
+    public void skips_unhealthy_backends() {
+        final BackendGroup group = new BackendGroup(asList(a, b, c), Balancing.LEAST_SESSIONS);
+        group.backends().get(1).checkFailed(1, new IllegalStateException());
+        for (int i = 0; i < 6; i++) {
+            assertNotEquals(b, group.select(null).endpoint());
+        }
+    }
+
+    @Test
+    public void tries_all_backends_if_none_is_healthy() {
+        final BackendGroup group = new BackendGroup(asList(a, b), Balancing.ROUND_ROBIN);
+        group.backends().forEach(it -> it.checkFailed(1, new IllegalStateException()));
+        final Set<Endpoint> seen = new HashSet<>();
+        for (int i = 0; i < 2; i++) {
+            seen.add(group.select(null).endpoint());
+        }
+        assertEquals(new HashSet<>(asList(a, b)), seen);
+    }
+
+    @Test
+    public void slowly_starts_recovered_backend() {
+        final BackendGroup group = new BackendGroup(asList(a, b), Balancing.ROUND_ROBIN);
+        final Backend recovered = group.backends().get(1);
+        recovered.checkFailed(1, new IllegalStateException());
+        recovered.checkSucceeded(SECONDS.toNanos(60));
+        int sessions = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (group.select(null) == recovered) {
+                sessions++;
+            }
+        }
+        // About a tenth of its round-robin share right after recovering
+        assertTrue("" + sessions, sessions > 10 && sessions < 150);
+    }
+
+    @Test
+    public void hashing_walks_past_unhealthy_backend() {
+        final BackendGroup group = new BackendGroup(asList(a, b, c), Balancing.HASH_HOSTNAME);
+        final Backend backend = group.hashed("reporting");
+        backend.checkFailed(1, new IllegalStateException());
+        assertNotEquals(backend, group.hashed("reporting"));
+    }
+
+    @Test
+    public void hashing_is_stable() {
+        final BackendGroup group = new BackendGroup(asList(a, b, c), Balancing.HASH_APP_NAME);
+        final Backend backend = group.hashed("reporting");
+        for (int i = 0; i < 10; i++) {
+            assertSame(backend, group.hashed("reporting"));
+        }
+    }
+
+    @Test
+    public void hashing_spreads_values() {
+        final BackendGroup group = new BackendGroup(asList(a, b, c), Balancing.HASH_APP_NAME);
+        final Set<Backend> seen = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            seen.add(group.hashed("app" + i));
+        }
+        assertEquals(3, seen.size());
+    }
+
+    @Test
+    public void removing_backend_only_moves_its_values() {
+        final BackendGroup before = new BackendGroup(asList(a, b, c), Balancing.HASH_HOSTNAME);
+        final BackendGroup after = new BackendGroup(asList(a, b), Balancing.HASH_HOSTNAME);
+        for (int i = 0; i < 100; i++) {
+            final Endpoint previous = before.hashed("host" + i).endpoint();
+            if (!previous.equals(c)) {
+                assertEquals(previous, after.hashed("host" + i).endpoint());
+            } else {
+                assertNotEquals(c, after.hashed("host" + i).endpoint());
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.balancing;
+
+import com.dajudge.mssqlproxy.core.net.Transport;
+import com.dajudge.proxybase.config.Endpoint;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertTrue;
+
+public class HealthCheckerTest {
+    private final EventLoopGroup group = Transport.NIO.createEventLoopGroup(1);
+
+    @After
+    public void shutdown() {
+        group.shutdownGracefully().syncUninterruptibly();
+    }
+
+    @Test
+    public void follows_backend_health() throws Exception {
+        // Answers the prelogin with itself, which is a complete message as well
+        final Channel echoServer = echoServer();
+        final int echoPort = ((InetSocketAddress) echoServer.localAddress()).getPort();
+        final Backend up = new Backend(new Endpoint("127.0.0.1", echoPort));
+        final Backend down = new Backend(new Endpoint("127.0.0.1", unusedPort()));
+        up.checkFailed(1, new IllegalStateException());
+        final HealthChecker checker = new HealthChecker(
+                asList(up, down),
+                Transport.NIO,
+                Duration.ofMillis(100),
+                1,
+                Duration.ZERO
+        );
+        checker.start(group);
+        try {
+            await(() -> up.isHealthy() && !down.isHealthy());
+        } finally {
+            checker.stop();
+            echoServer.close().syncUninterruptibly();
+        }
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static int unusedPort() throws Exception {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private Channel echoServer() {
+        return new ServerBootstrap()
+                .group(group)
+                .channel(Transport.NIO.serverChannelClass())
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel ch) {
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+                                ctx.writeAndFlush(msg);
+                            }
+                        });
+                    }
+                })
+                .bind("127.0.0.1", 0)
+                .syncUninterruptibly()
+                .channel();
+    }
+}
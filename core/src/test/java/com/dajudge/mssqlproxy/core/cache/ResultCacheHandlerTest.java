@@ -0,0 +1,260 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.cache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.regex.Pattern;
+
+import static io.netty.buffer.Unpooled.buffer;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResultCacheHandlerTest {
+    private static final int TDS_7_4 = 0x74000004;
+    private static final int TDS_7_1 = 0x71000001;
+    private final ResultCache cache = new ResultCache(64 * 1024, Duration.ofMinutes(1));
+    private final SingleFlight flights = new SingleFlight();
+    private final EmbeddedChannel channel = channel();
+
+    @Test
+    public void answers_repeated_batch_from_cache() {
+        login("master");
+        channel.writeInbound(batch("select 1", 0));
+        assertEquals(1, releaseAll(channel.inboundMessages().size(), true));
+        final ByteBuf response = rows();
+        channel.writeOutbound(response.retain());
+        releaseAll(1, false);
+
+        channel.writeInbound(batch("  select\n 1 ", 0));
+        channel.writeInbound(batch("select 1", 0));
+        assertNull(channel.readInbound());
+        for (int i = 0; i < 2; i++) {
+            final ByteBuf hit = channel.readOutbound();
+            assertEquals(response.resetReaderIndex(), hit);
+            hit.release();
+        }
+        response.release();
+    }
+
+    @Test
+    public void keys_by_database() {
+        login("master");
+        channel.writeInbound(batch("select 1", 0));
+        releaseAll(1, true);
+        channel.writeOutbound(rows());
+        releaseAll(1, false);
+
+        channel.writeInbound(batch("use other", 0));
+        releaseAll(1, true);
+        channel.writeOutbound(packet(4, envChange("other")));
+        releaseAll(1, false);
+
+        channel.writeInbound(batch("select 1", 0));
+        assertEquals(1, releaseAll(channel.inboundMessages().size(), true));
+    }
+
+    @Test
+    public void keys_by_login_shape() {
+        final EmbeddedChannel older = channel();
+        login("master");
+        login(older, "master", TDS_7_1, 4096);
+        channel.writeInbound(batch("select 1", 0));
+        releaseAll(1, true);
+        channel.writeOutbound(rows());
+        releaseAll(1, false);
+
+        older.writeInbound(batch("select 1", 0));
+        final ByteBuf forwarded = older.readInbound();
+        forwarded.release();
+        assertNull(older.readOutbound());
+    }
+
+    @Test
+    public void does_not_cache_for_sessions_with_own_options() {
+        login("master");
+        channel.writeInbound(batch("set dateformat dmy", 0));
+        releaseAll(1, true);
+        channel.writeOutbound(packet(4, buffer().writeByte(0xFD).writeZero(12)));
+        releaseAll(1, false);
+
+        channel.writeInbound(batch("select 1", 0));
+        releaseAll(1, true);
+        channel.writeOutbound(rows());
+        releaseAll(1, false);
+
+        channel.writeInbound(batch("select 1", 0));
+        assertEquals(1, releaseAll(channel.inboundMessages().size(), true));
+    }
+
+    @Test
+    public void does_not_cache_inside_transaction() {
+        login("master");
+        channel.writeInbound(batch("select 1", 1));
+        releaseAll(1, true);
+        channel.writeOutbound(rows());
+        releaseAll(1, false);
+
+        channel.writeInbound(batch("select 1", 1));
+        assertEquals(1, releaseAll(channel.inboundMessages().size(), true));
+    }
+
+    @Test
+    public void coalesces_concurrent_misses() {
+        final EmbeddedChannel follower = channel();
+        login("master");
+        login(follower, "master");
+        channel.writeInbound(batch("select 1", 0));
+        releaseAll(1, true);
+        follower.writeInbound(batch("select 1", 0));
+        assertNull(follower.readInbound());
+
+        final ByteBuf response = rows();
+        channel.writeOutbound(response.retain());
+        releaseAll(1, false);
+        follower.runPendingTasks();
+        final ByteBuf shared = follower.readOutbound();
+        assertEquals(response.resetReaderIndex(), shared);
+        shared.release();
+        response.release();
+    }
+
+    @Test
+    public void does_not_coalesce_across_login_shapes() {
+        final EmbeddedChannel follower = channel();
+        login("master");
+        login(follower, "master", TDS_7_4, 8000);
+        channel.writeInbound(batch("select 1", 0));
+        releaseAll(1, true);
+        follower.writeInbound(batch("select 1", 0));
+        final ByteBuf forwarded = follower.readInbound();
+        forwarded.release();
+
+        channel.writeOutbound(rows());
+        releaseAll(1, false);
+        follower.runPendingTasks();
+        assertNull(follower.readOutbound());
+    }
+
+    @Test
+    public void follower_asks_server_when_leader_fails() {
+        final EmbeddedChannel follower = channel();
+        login("master");
+        login(follower, "master");
+        channel.writeInbound(batch("select 1", 0));
+        releaseAll(1, true);
+        follower.writeInbound(batch("select 1", 0));
+
+        channel.writeOutbound(packet(4, buffer().writeByte(0xAA).writeShortLE(0).writeByte(0xFD).writeZero(12)));
+        releaseAll(1, false);
+        follower.runPendingTasks();
+        assertNull(follower.readOutbound());
+        final ByteBuf forwarded = follower.readInbound();
+        forwarded.release();
+    }
+
+    private EmbeddedChannel channel() {
+        return new EmbeddedChannel(new ResultCacheHandler(cache, flights, Pattern.compile("(?i)select [^;]*"), false));
+    }
+
+    private void login(final String database) {
+        login(channel, database);
+    }
+
+    private static void login(final EmbeddedChannel channel, final String database) {
+        login(channel, database, TDS_7_4, 4096);
+    }
+
+    private static void login(
+            final EmbeddedChannel channel,
+            final String database,
+            final int tdsVersion,
+            final int packetSize
+    ) {
+        channel.writeInbound(packet(16, buffer().writeIntLE(94).writeIntLE(tdsVersion).writeIntLE(packetSize)
+                .writeZero(94 - 12)));
+        ((ByteBuf) channel.readInbound()).release();
+        final ByteBuf envChange = envChange(database);
+        final ByteBuf response = buffer()
+                .writeByte(0xAD)
+                .writeShortLE(10)
+                .writeByte(1)
+                .writeInt(tdsVersion)
+                .writeByte(0)
+                .writeInt(0)
+                .writeBytes(envChange)
+                .writeByte(0xFD)
+                .writeZero(12);
+        envChange.release();
+        channel.writeOutbound(packet(4, response));
+        ((ByteBuf) channel.readOutbound()).release();
+    }
+
+    private int releaseAll(final int count, final boolean inbound) {
+        for (int i = 0; i < count; i++) {
+            final ByteBuf message = inbound ? channel.readInbound() : channel.readOutbound();
+            message.release();
+        }
+        return count;
+    }
+
+    private static ByteBuf batch(final String text, final long transactionDescriptor) {
+        final ByteBuf payload = buffer()
+                .writeIntLE(22)
+                .writeIntLE(18)
+                .writeShortLE(2)
+                .writeLongLE(transactionDescriptor)
+                .writeIntLE(1)
+                .writeBytes(text.getBytes(UTF_16LE));
+        return packet(1, payload);
+    }
+
+    private static ByteBuf rows() {
+        final ByteBuf tokens = buffer();
+        // INT4 "a", one row
+        tokens.writeByte(0x81).writeShortLE(1);
+        tokens.writeIntLE(0).writeShortLE(0).writeByte(0x38).writeByte(1).writeShortLE('a');
+        tokens.writeByte(0xD1).writeIntLE(1);
+        tokens.writeByte(0xFD).writeZero(12);
+        return packet(4, tokens);
+    }
+
+    private static ByteBuf envChange(final String database) {
+        final byte[] name = database.getBytes(UTF_16LE);
+        return buffer()
+                .writeByte(0xE3)
+                .writeShortLE(3 + name.length)
+                .writeByte(1)
+                .writeByte(database.length())
+                .writeBytes(name)
+                .writeByte(0);
+    }
+
+    private static ByteBuf packet(final int type, final ByteBuf payload) {
+        final ByteBuf packet = buffer()
+                .writeByte(type)
+                .writeByte(0x01)
+                .writeShort(8 + payload.readableBytes())
+                .writeZero(4)
+                .writeBytes(payload);
+        payload.release();
+        return packet;
+    }
+}
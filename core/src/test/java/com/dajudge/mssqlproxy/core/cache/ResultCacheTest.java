@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.cache;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static io.netty.buffer.Unpooled.buffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ResultCacheTest {
+    @Test
+    public void returns_cached_response() {
+        final ResultCache cache = new ResultCache(1024, Duration.ofMinutes(1));
+        cache.put("a", response(16));
+        final ByteBuf hit = cache.get("a");
+        assertNotNull(hit);
+        assertEquals(16, hit.readableBytes());
+        hit.release();
+    }
+
+    @Test
+    public void expires_after_ttl() {
+        final ResultCache cache = new ResultCache(1024, Duration.ZERO);
+        cache.put("a", response(16));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void rejects_oversized_response() {
+        final ResultCache cache = new ResultCache(1024, Duration.ofMinutes(1));
+        final ByteBuf response = response(129);
+        cache.put("a", response);
+        assertNull(cache.get("a"));
+        assertEquals(0, response.refCnt());
+    }
+
+    @Test
+    public void rarely_requested_response_does_not_displace_popular_ones() {
+        final ResultCache cache = new ResultCache(256, Duration.ofMinutes(1));
+        for (int i = 0; i < 8; i++) {
+            cache.get("popular" + i);
+            cache.get("popular" + i);
+            cache.put("popular" + i, response(32));
+        }
+        cache.get("rare");
+        cache.put("rare", response(32));
+        assertNull(cache.get("rare"));
+        for (int i = 0; i < 8; i++) {
+            final ByteBuf hit = cache.get("popular" + i);
+            assertNotNull(hit);
+            hit.release();
+        }
+    }
+
+    @Test
+    public void frequently_requested_response_displaces_least_recently_used() {
+        final ResultCache cache = new ResultCache(256, Duration.ofMinutes(1));
+        for (int i = 0; i < 8; i++) {
+            cache.put("old" + i, response(32));
+        }
+        for (int i = 0; i < 3; i++) {
+            cache.get("new");
+        }
+        cache.put("new", response(32));
+        final ByteBuf hit = cache.get("new");
+        assertNotNull(hit);
+        hit.release();
+        assertNull(cache.get("old0"));
+    }
+
+    private static ByteBuf response(final int size) {
+        return buffer(size).writeZero(size);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.capture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureRingTest {
+    @Test
+    public void pads_records_that_do_not_fit_at_the_end() {
+        final CaptureRing ring = new CaptureRing(64);
+        final List<Integer> offsets = new ArrayList<>();
+        write(ring, 40, (byte) 1);
+        ring.poll((data, offset, length) -> offsets.add(offset));
+
+        write(ring, 32, (byte) 2);
+        // The padding up to the end of the ring is skipped first
+        assertTrue(ring.poll((data, offset, length) -> offsets.add(-1)));
+        ring.poll((data, offset, length) -> {
+            offsets.add(offset);
+            assertEquals(32, length);
+            assertEquals(2, data[offset]);
+        });
+        assertEquals(0, (int) offsets.get(0));
+        assertEquals(0, (int) offsets.get(1));
+        assertEquals(2, offsets.size());
+        assertEquals(0, ring.dropped());
+    }
+
+    @Test
+    public void drops_when_full() {
+        final CaptureRing ring = new CaptureRing(64);
+        write(ring, 32, (byte) 1);
+        write(ring, 32, (byte) 2);
+        assertEquals(-1, ring.claim(8));
+        assertEquals(1, ring.dropped());
+
+        final List<Byte> polled = new ArrayList<>();
+        while (ring.poll((data, offset, length) -> polled.add(data[offset]))) {
+        }
+        assertEquals(2, polled.size());
+        assertFalse(ring.poll((data, offset, length) -> polled.add(data[offset])));
+    }
+
+    @Test
+    public void does_not_hand_out_unpublished_records() {
+        final CaptureRing ring = new CaptureRing(64);
+        final int offset = ring.claim(8);
+        assertFalse(ring.poll((data, o, length) -> {
+        }));
+        ring.publish(offset, 8);
+        assertTrue(ring.poll((data, o, length) -> {
+        }));
+    }
+
+    private static void write(final CaptureRing ring, final int length, final byte marker) {
+        final int offset = ring.claim(length);
+        ring.data()[offset] = marker;
+        ring.publish(offset, length);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class WireCaptureTest {
+    private static final int SEGMENT_BYTES = 256 * 1024;
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("wire-capture");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            for (final Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void captures_fragmented_packets_in_both_directions() throws IOException {
+        final WireCapture capture = new WireCapture(directory, "test", SEGMENT_BYTES, 2, 1);
+        capture.start();
+        final long session = capture.openSession();
+        final EmbeddedChannel channel = new EmbeddedChannel(new CaptureHandler(capture, session));
+        final byte[] request = packet(0x01, 0x01, 100);
+        final byte[] response = packet(0x04, 0x01, 30);
+        channel.writeOutbound(wrappedBuffer(request, 0, 5));
+        channel.writeOutbound(wrappedBuffer(request, 5, 95));
+        channel.writeInbound(wrappedBuffer(response));
+        channel.finishAndReleaseAll();
+        capture.stop();
+
+        final List<CapturedPacket> packets = WireCapture.readSegment(segment());
+        assertEquals(2, packets.size());
+        assertArrayEquals(request, packets.get(0).getPacket());
+        assertEquals(WireCapture.REQUEST, packets.get(0).getDirection());
+        assertEquals(session, packets.get(0).getSession());
+        assertArrayEquals(response, packets.get(1).getPacket());
+        assertEquals(WireCapture.RESPONSE, packets.get(1).getDirection());
+    }
+
+    @Test
+    public void blanks_login_passwords() throws IOException {
+        final WireCapture capture = new WireCapture(directory, "test", SEGMENT_BYTES, 2, 1);
+        capture.start();
+        final EmbeddedChannel channel = new EmbeddedChannel(new CaptureHandler(capture, capture.openSession()));
+        final byte[] login = packet(0x10, 0x01, 8 + 94 + 6);
+        // The password is three characters right after the fixed part, all other fields are empty
+        Arrays.fill(login, 8, 8 + 94, (byte) 0);
+        login[8 + 44] = 94;
+        login[8 + 46] = 3;
+        Arrays.fill(login, 8 + 94, 8 + 100, (byte) 0x55);
+        channel.writeOutbound(wrappedBuffer(login));
+        channel.finishAndReleaseAll();
+        capture.stop();
+
+        final byte[] captured = WireCapture.readSegment(segment()).get(0).getPacket();
+        assertArrayEquals(new byte[6], Arrays.copyOfRange(captured, 8 + 94, 8 + 100));
+        assertArrayEquals(Arrays.copyOf(login, 8 + 94), Arrays.copyOf(captured, 8 + 94));
+    }
+
+    @Test
+    public void samples_sessions() {
+        final WireCapture capture = new WireCapture(directory, "test", SEGMENT_BYTES, 2, 3);
+        assertEquals(-1, capture.openSession());
+        assertEquals(-1, capture.openSession());
+        assertEquals(3, capture.openSession());
+    }
+
+    @Test
+    public void keeps_the_newest_segments() throws IOException {
+        // The ring holds all packets, so none are dropped
+        final WireCapture capture = new WireCapture(directory, "test", SEGMENT_BYTES, 2, 1, 2 * 1024 * 1024);
+        capture.start();
+        final ByteBuf packet = wrappedBuffer(packet(0x04, 0x01, 32 * 1024));
+        for (int i = 0; i < 40; i++) {
+            capture.record(1, WireCapture.RESPONSE, packet, 0, packet.readableBytes(), false);
+        }
+        capture.stop();
+
+        assertEquals(0, capture.dropped());
+        try (final Stream<Path> files = Files.list(directory)) {
+            assertEquals(asList("test-000005.tdscap", "test-000006.tdscap"), files
+                    .map(it -> it.getFileName().toString())
+                    .sorted()
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    private Path segment() throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files.findFirst().orElseThrow(() -> new IOException("No segment"));
+        }
+    }
+
+    private static byte[] packet(final int type, final int status, final int length) {
+        final byte[] packet = new byte[length];
+        for (int i = 8; i < length; i++) {
+            packet[i] = (byte) i;
+        }
+        packet[0] = (byte) type;
+        packet[1] = (byte) status;
+        packet[2] = (byte) (length >> 8);
+        packet[3] = (byte) length;
+        return packet;
+    }
+}
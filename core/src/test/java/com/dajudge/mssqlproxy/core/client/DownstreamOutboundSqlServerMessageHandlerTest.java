@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.client;
+
+import com.dajudge.mssqlproxy.core.client.requests.GenericRequest;
+import com.dajudge.mssqlproxy.core.client.requests.ParsedRequest;
+import com.dajudge.mssqlproxy.core.protocol.MessageSplitter;
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.EncryptionLevel.REQUIRED;
+import static io.netty.buffer.ByteBufUtil.getBytes;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DownstreamOutboundSqlServerMessageHandlerTest {
+    private static final byte[] SQL_BATCH = {1, 1, 0, 12, 0, 0, 1, 0, 'S', 0, 'E', 0};
+
+    @Test
+    public void forwards_generic_request_without_copying() {
+        final EmbeddedChannel channel = new EmbeddedChannel(
+                new DownstreamOutboundSqlServerMessageHandler(),
+                new DownstreamOutboundParsedRequestHandler(REQUIRED, new HandshakeState())
+        );
+        final List<ParsedRequest> requests = new ArrayList<>();
+        final ByteBuf input = wrappedBuffer(SQL_BATCH);
+
+        new MessageSplitter(new RequestParser(collect(requests))).accept(input);
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0) instanceof GenericRequest);
+        channel.writeOutbound(requests.get(0));
+
+        final CompositeByteBuf forwarded = channel.readOutbound();
+        assertArrayEquals(SQL_BATCH, getBytes(forwarded));
+        for (int i = 0; i < forwarded.numComponents(); i++) {
+            assertSame(input.array(), forwarded.component(i).array());
+        }
+        forwarded.release();
+        assertEquals(0, input.refCnt());
+    }
+
+    private static Sink<ParsedRequest> collect(final List<ParsedRequest> requests) {
+        return new Sink<ParsedRequest>() {
+            @Override
+            public void accept(final ParsedRequest request) {
+                requests.add(request);
+            }
+
+            @Override
+            public ChannelFuture close() {
+                return null;
+            }
+        };
+    }
+}
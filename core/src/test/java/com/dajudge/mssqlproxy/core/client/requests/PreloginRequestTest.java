@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.client.requests;
+
+import com.dajudge.mssqlproxy.core.protocol.transport.OptionContainer;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PreloginRequestTest {
+    @Test
+    public void standard_prelogin_is_well_formed() {
+        final PreloginRequest request = PreloginRequest.standard();
+        try {
+            final Map<Byte, OptionContainer> options = request.getOptions();
+            assertEquals(5, options.size());
+            assertEquals(1, options.get((byte) 1).getOptionData().length);
+            assertFalse(request.isMarsRequested());
+            assertEquals(0x12, request.getMessage().parsedHeader().getMessageType());
+            assertEquals(
+                    request.getMessage().header().readableBytes() + request.getMessage().payload().readableBytes(),
+                    request.getMessage().parsedHeader().getLength()
+            );
+        } finally {
+            request.getMessage().release();
+        }
+    }
+}
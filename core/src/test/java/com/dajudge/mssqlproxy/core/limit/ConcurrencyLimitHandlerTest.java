@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.limit;
+
+import com.dajudge.mssqlproxy.core.client.HandshakeState;
+import com.dajudge.mssqlproxy.core.net.DroppedWriteException;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.buffer;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimitHandlerTest {
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+
+    @Test
+    public void queued_request_is_sent_when_permit_is_released() {
+        final EmbeddedChannel first = channel(60_000);
+        final EmbeddedChannel second = channel(60_000);
+        first.writeAndFlush(packet(1));
+        assertNotNull(first.readOutbound());
+        second.writeAndFlush(packet(1));
+        assertNull(second.readOutbound());
+
+        first.writeInbound(packet(4));
+        second.runPendingTasks();
+        final ByteBuf sent = second.readOutbound();
+        assertEquals(1, sent.getUnsignedByte(0));
+        assertEquals(1, limiter.inFlight());
+    }
+
+    @Test
+    public void queued_request_times_out_with_error() throws InterruptedException {
+        final EmbeddedChannel first = channel(60_000);
+        final EmbeddedChannel second = channel(10);
+        first.writeAndFlush(packet(1));
+        final ChannelFuture rejected = second.writeAndFlush(packet(1));
+        Thread.sleep(50);
+        second.runPendingTasks();
+
+        assertNull(second.readOutbound());
+        assertTrue(rejected.cause() instanceof DroppedWriteException);
+        final ByteBuf error = second.readInbound();
+        assertEquals(4, error.getUnsignedByte(0));
+        assertEquals(0xAA, error.getUnsignedByte(8));
+        assertEquals(1, limiter.inFlight());
+    }
+
+    @Test
+    public void requests_in_transaction_bypass_the_queue() {
+        final EmbeddedChannel first = channel(60_000);
+        final EmbeddedChannel inTransaction = channel(60_000);
+        final EmbeddedChannel transactionManager = channel(60_000);
+        first.writeAndFlush(packet(1));
+        assertNotNull(first.readOutbound());
+
+        inTransaction.writeAndFlush(request(1, 1));
+        assertNotNull(inTransaction.readOutbound());
+        transactionManager.writeAndFlush(request(14, 0));
+        assertNotNull(transactionManager.readOutbound());
+        assertEquals(3, limiter.inFlight());
+
+        final EmbeddedChannel outsideTransaction = channel(60_000);
+        outsideTransaction.writeAndFlush(request(1, 0));
+        assertNull(outsideTransaction.readOutbound());
+    }
+
+    @Test
+    public void closing_fails_queued_writes() {
+        final EmbeddedChannel first = channel(60_000);
+        final EmbeddedChannel second = channel(60_000);
+        first.writeAndFlush(packet(1));
+        final ChannelFuture queued = second.writeAndFlush(packet(1));
+        second.close();
+        assertTrue(queued.cause() instanceof DroppedWriteException);
+    }
+
+    @Test
+    public void closing_releases_permit() {
+        final EmbeddedChannel first = channel(60_000);
+        first.writeAndFlush(packet(1));
+        first.close();
+        assertEquals(0, limiter.inFlight());
+    }
+
+    private EmbeddedChannel channel(final long queueTimeoutMillis) {
+        final HandshakeState handshake = new HandshakeState();
+        handshake.complete();
+        return new EmbeddedChannel(new ConcurrencyLimitHandler(limiter, handshake, queueTimeoutMillis));
+    }
+
+    // With ALL_HEADERS holding the transaction descriptor
+    private static ByteBuf request(final int type, final long transactionDescriptor) {
+        return buffer()
+                .writeByte(type)
+                .writeByte(0x01)
+                .writeShort(8 + 22 + 2)
+                .writeZero(4)
+                .writeIntLE(22)
+                .writeIntLE(18)
+                .writeShortLE(2)
+                .writeLongLE(transactionDescriptor)
+                .writeIntLE(1)
+                .writeShortLE('1');
+    }
+
+    private static ByteBuf packet(final int type) {
+        return wrappedBuffer(new byte[]{(byte) type, 0x01, 0x00, 0x09, 0x00, 0x00, 0x01, 0x00, 0x00});
+    }
+}
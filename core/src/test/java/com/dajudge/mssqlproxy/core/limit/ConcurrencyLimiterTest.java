@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.limit;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimiterTest {
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    public void limit_grows_while_latency_stays_low() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+        final int initial = limiter.limit();
+        saturate(limiter, MILLIS, 10);
+        assertTrue(limiter.limit() > initial);
+    }
+
+    @Test
+    public void limit_never_exceeds_max() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(30);
+        saturate(limiter, MILLIS, 50);
+        assertEquals(30, limiter.limit());
+    }
+
+    @Test
+    public void limit_shrinks_when_latency_rises() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+        saturate(limiter, MILLIS, 1);
+        final int before = limiter.limit();
+        saturate(limiter, 10 * MILLIS, 1);
+        assertTrue(limiter.limit() < before);
+    }
+
+    @Test
+    public void waiter_gets_released_permit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        final AtomicBoolean granted = new AtomicBoolean();
+        limiter.enqueue(new ConcurrencyLimiter.Waiter(Runnable::run, () -> granted.set(true)));
+        limiter.release(MILLIS);
+        assertTrue(granted.get());
+        assertEquals(1, limiter.inFlight());
+    }
+
+    @Test
+    public void cancelled_waiter_gets_no_permit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        assertTrue(limiter.tryAcquire());
+        final AtomicBoolean granted = new AtomicBoolean();
+        final ConcurrencyLimiter.Waiter waiter = new ConcurrencyLimiter.Waiter(Runnable::run, () -> granted.set(true));
+        limiter.enqueue(waiter);
+        assertTrue(limiter.cancel(waiter));
+        limiter.release(MILLIS);
+        assertFalse(granted.get());
+        assertEquals(0, limiter.inFlight());
+    }
+
+    private static void saturate(final ConcurrencyLimiter limiter, final long latencyNanos, final int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            int acquired = 0;
+            while (limiter.tryAcquire()) {
+                acquired++;
+            }
+            for (int i = 0; i < acquired; i++) {
+                limiter.release(latencyNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.limit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryBudgetTest {
+    private final MemoryBudget budget = new MemoryBudget(16, 64);
+
+    @Test
+    public void pauses_reads_over_soft_limit() {
+        final EmbeddedChannel writer = channel();
+        final EmbeddedChannel reader = channel();
+        writer.write(wrappedBuffer(new byte[32]));
+        reader.runPendingTasks();
+        assertFalse(reader.config().isAutoRead());
+        assertFalse(budget.isExhausted());
+
+        writer.flush();
+        reader.runPendingTasks();
+        assertTrue(reader.config().isAutoRead());
+        assertEquals(0, budget.used());
+        writer.finishAndReleaseAll();
+    }
+
+    @Test
+    public void exhausted_over_hard_limit() {
+        final EmbeddedChannel writer = channel();
+        writer.write(wrappedBuffer(new byte[64]));
+        assertTrue(budget.isExhausted());
+
+        writer.flush();
+        assertFalse(budget.isExhausted());
+        writer.finishAndReleaseAll();
+    }
+
+    @Test
+    public void rejects_client_at_login_with_error() {
+        final EmbeddedChannel client = new EmbeddedChannel(new OverloadRejectHandler());
+        client.writeInbound(wrappedBuffer(new byte[]{0x12, 0x01, 0x00, 0x0E, 0x00, 0x00, 0x00, 0x00}),
+                wrappedBuffer(new byte[]{0x01, 0x00, 0x06, 0x00, 0x00, (byte) 0xFF}));
+        final ByteBuf prelogin = client.readOutbound();
+        assertEquals(4, prelogin.getUnsignedByte(0));
+        // The encryption option's data
+        assertEquals(2, prelogin.getUnsignedByte(8 + prelogin.getUnsignedShort(8 + 5 + 1)));
+        prelogin.release();
+        assertTrue(client.isOpen());
+
+        final byte[] login = login7(0x71000001);
+        // Split within the TDS version
+        client.writeInbound(wrappedBuffer(login, 0, 14), wrappedBuffer(login, 14, login.length - 14));
+        final ByteBuf error = client.readOutbound();
+        assertEquals(4, error.getUnsignedByte(0));
+        assertEquals(0xAA, error.getUnsignedByte(8));
+        assertEquals(51433, error.getIntLE(8 + 3));
+        // DONE right after the ERROR token, with a 4 byte row count for TDS 7.1
+        assertEquals(0xFD, error.getUnsignedByte(error.readableBytes() - 9));
+        assertEquals(0xFD, error.getUnsignedByte(8 + 3 + error.getUnsignedShortLE(8 + 1)));
+        error.release();
+        assertFalse(client.isOpen());
+    }
+
+    @Test
+    public void rejects_client_without_prelogin_by_hanging_up() {
+        final EmbeddedChannel client = new EmbeddedChannel(new OverloadRejectHandler());
+        client.writeInbound(wrappedBuffer(new byte[]{0x01, 0x01, 0x00, 0x08, 0x00, 0x00, 0x00, 0x00}));
+        assertNull(client.readOutbound());
+        assertFalse(client.isOpen());
+    }
+
+    // A LOGIN7 packet of 94 bytes with nothing but its fixed part
+    private static byte[] login7(final int tdsVersion) {
+        final byte[] packet = new byte[8 + 86];
+        packet[0] = 0x10;
+        packet[1] = 0x01;
+        packet[3] = (byte) packet.length;
+        for (int i = 0; i < 4; i++) {
+            packet[8 + 4 + i] = (byte) (tdsVersion >>> (i * 8));
+        }
+        return packet;
+    }
+
+    private EmbeddedChannel channel() {
+        final EmbeddedChannel channel = new EmbeddedChannel(new MemoryBudgetHandler(budget));
+        budget.register(channel);
+        return channel;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.metrics;
+
+import com.dajudge.mssqlproxy.core.client.HandshakeState;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusFormatTest {
+    private static final String REQUESTS = "{listener=\"0.0.0.0:51433\",direction=\"request\"";
+    private static final String RESPONSES = "{listener=\"0.0.0.0:51433\",direction=\"response\"";
+    private static final String LISTENER = "{listener=\"0.0.0.0:51433\"";
+    private static final String RPC = LISTENER + ",type=\"rpc\"";
+    private final ProxyMetrics metrics = new ProxyMetrics("0.0.0.0:51433");
+    private final HandshakeState handshake = new HandshakeState();
+
+    @Test
+    public void counts_packets_by_type_and_direction() {
+        final EmbeddedChannel channel = new EmbeddedChannel(new TrafficMetricsHandler(metrics, handshake));
+        channel.writeOutbound(packet(1, 12));
+        channel.writeOutbound(packet(1, 20));
+        channel.writeInbound(packet(4, 30));
+
+        final String text = PrometheusFormat.format(singletonList(metrics));
+        assertContains(text, "mssqlproxy_packets_total" + REQUESTS + ",type=\"sql_batch\"} 2");
+        assertContains(text, "mssqlproxy_bytes_total" + REQUESTS + ",type=\"sql_batch\"} 32");
+        assertContains(text, "mssqlproxy_bytes_total" + RESPONSES + ",type=\"tabular_result\"} 30");
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void counts_sessions_and_logins() {
+        new EmbeddedChannel(new TrafficMetricsHandler(metrics, handshake));
+        metrics.sessionOpened();
+        handshake.complete();
+
+        final String text = PrometheusFormat.format(singletonList(metrics));
+        assertContains(text, "# TYPE mssqlproxy_sessions_active gauge");
+        assertContains(text, "mssqlproxy_sessions_active{listener=\"0.0.0.0:51433\"} 1");
+        assertContains(text, "mssqlproxy_logins_total{listener=\"0.0.0.0:51433\",result=\"success\"} 1");
+        assertContains(text, "mssqlproxy_backend_connect_failures_total{listener=\"0.0.0.0:51433\"} 0");
+    }
+
+    @Test
+    public void times_requests_until_first_and_last_response_packet() {
+        final EmbeddedChannel channel = new EmbeddedChannel(new TrafficMetricsHandler(metrics, handshake));
+        channel.writeOutbound(packet(3, 12));
+        channel.writeInbound(packet(4, 30, false));
+        channel.writeInbound(packet(4, 30));
+
+        final String text = PrometheusFormat.format(singletonList(metrics));
+        assertContains(text, "# TYPE mssqlproxy_request_duration_seconds histogram");
+        assertContains(text, "mssqlproxy_request_first_byte_seconds_count" + RPC + "} 1");
+        assertContains(text, "mssqlproxy_request_duration_seconds_bucket" + RPC + ",le=\"+Inf\"} 1");
+        assertContains(text, "mssqlproxy_request_duration_seconds_count" + RPC + "} 1");
+        assertContains(text, "mssqlproxy_request_duration_seconds_count" + LISTENER + ",type=\"sql_batch\"} 0");
+        channel.finishAndReleaseAll();
+    }
+
+    private static void assertContains(final String text, final String line) {
+        assertTrue(text, text.contains(line + "\n"));
+    }
+
+    private static ByteBuf packet(final int type, final int length) {
+        return packet(type, length, true);
+    }
+
+    private static ByteBuf packet(final int type, final int length, final boolean endOfMessage) {
+        final byte[] bytes = new byte[length];
+        bytes[0] = (byte) type;
+        bytes[1] = (byte) (endOfMessage ? 0x01 : 0x00);
+        bytes[2] = (byte) (length >> 8);
+        bytes[3] = (byte) length;
+        return wrappedBuffer(bytes);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.metrics;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static org.junit.Assert.assertEquals;
+
+public class SlowQueryLogTest {
+    private final SlowQueryLog log = new SlowQueryLog(1);
+
+    @Test
+    public void releases_request_once_logged() throws InterruptedException {
+        final ByteBuf request = attention();
+        log.log(InetSocketAddress.createUnresolved("server", 1433), request, 2);
+        request.release();
+        log.stop();
+        for (int i = 0; i < 100 && request.refCnt() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, request.refCnt());
+    }
+
+    @Test
+    public void releases_discarded_request() {
+        log.stop();
+        final ByteBuf request = attention();
+        log.log(InetSocketAddress.createUnresolved("server", 1433), request, 2);
+        request.release();
+        assertEquals(0, request.refCnt());
+    }
+
+    private static ByteBuf attention() {
+        return wrappedBuffer(new byte[]{0x06, 0x01, 0x00, 0x08, 0x00, 0x00, 0x01, 0x00});
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.metrics;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import java.util.List;
+
+import static io.netty.buffer.Unpooled.buffer;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatementStatsTest {
+    @Test
+    public void normalizes_literals_comments_and_whitespace() {
+        assertEquals(
+                "select * from [Orders] where id = ? and name = ? and t1.x > -?",
+                normalize("SELECT *\n  FROM [Orders] -- all\nWHERE id = 42 and name = 'it''s' /* x */ and t1.x > -1.5e3")
+        );
+    }
+
+    @Test
+    public void same_shape_same_fingerprint() {
+        assertEquals(hash("select * from t where id = 1"), hash("SELECT * FROM t WHERE id = 2"));
+        assertNotEquals(hash("select * from t where id = 1"), hash("select * from u where id = 1"));
+    }
+
+    @Test
+    public void keeps_frequent_statements_in_bounded_memory() {
+        final StatementStats stats = new StatementStats(3);
+        for (int i = 0; i < 10; i++) {
+            stats.record(batch("select " + i + " from hot"), 1_000, 10);
+            stats.record(batch("select * from cold" + i), 3_000, 20);
+        }
+        final List<StatementStats.Statement> top = stats.top(2);
+        // The cold statements share the other slots, replacing each other
+        assertEquals("select ? from hot", top.get(0).text());
+        assertEquals(10, top.get(0).calls());
+        assertEquals(10_000, top.get(0).totalNanos());
+        assertEquals(1_000, top.get(0).maxNanos());
+        assertEquals(100, top.get(0).responseBytes());
+        assertEquals(2, top.size());
+        assertTrue(top.get(1).overestimation() > 0);
+    }
+
+    @Test
+    public void merges_statistics_of_all_threads() throws InterruptedException {
+        final StatementStats stats = new StatementStats(2);
+        final Thread other = new Thread(() -> {
+            for (int i = 0; i < 5; i++) {
+                stats.record(batch("select " + i + " from hot"), 4_000, 10);
+            }
+            stats.record(batch("select * from cold"), 1_000, 20);
+            stats.record(batch("select * from colder"), 1_000, 20);
+        });
+        other.start();
+        other.join();
+        for (int i = 0; i < 3; i++) {
+            stats.record(batch("select " + i + " from hot"), 2_000, 10);
+        }
+        stats.record(batch("select * from cold"), 1_000, 20);
+
+        final List<StatementStats.Statement> top = stats.top(3);
+        assertEquals("select ? from hot", top.get(0).text());
+        assertEquals(8, top.get(0).calls());
+        assertEquals(0, top.get(0).overestimation());
+        assertEquals(26_000, top.get(0).totalNanos());
+        assertEquals(4_000, top.get(0).maxNanos());
+        assertEquals(80, top.get(0).responseBytes());
+        // Each table may have counted the cold statement it no longer holds as often as its least frequent one
+        final StatementStats.Statement cold = top.get(1).text().equals("select * from cold") ? top.get(1) : top.get(2);
+        assertEquals(3, cold.calls());
+        assertEquals(2, cold.overestimation());
+        assertEquals(3, top.size());
+    }
+
+    private static String normalize(final String text) {
+        final ByteBuf buffer = buffer().writeBytes(text.getBytes(UTF_16LE));
+        return StatementFingerprint.normalize(buffer, 0, buffer.writerIndex());
+    }
+
+    private static long hash(final String text) {
+        final ByteBuf buffer = buffer().writeBytes(text.getBytes(UTF_16LE));
+        return StatementFingerprint.hash(buffer, 0, buffer.writerIndex());
+    }
+
+    private static ByteBuf batch(final String text) {
+        final byte[] body = text.getBytes(UTF_16LE);
+        final ByteBuf packet = buffer();
+        packet.writeByte(1).writeByte(1).writeShort(8 + 22 + body.length).writeInt(0);
+        packet.writeIntLE(22).writeIntLE(18).writeShortLE(2).writeLongLE(0).writeIntLE(1);
+        return packet.writeBytes(body);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BackpressureHandlerTest {
+    private final EmbeddedChannel client = new EmbeddedChannel();
+    private final EmbeddedChannel server = new EmbeddedChannel();
+
+    @Test
+    public void pauses_peer_while_writes_pile_up() {
+        client.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+        BackpressureHandler.link(client, server);
+        client.write(wrappedBuffer(new byte[32]));
+        assertFalse(server.config().isAutoRead());
+
+        client.flush();
+        assertTrue(server.config().isAutoRead());
+        client.finishAndReleaseAll();
+    }
+
+    @Test
+    public void stays_paused_while_another_reason_remains() {
+        client.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+        BackpressureHandler.link(client, server);
+        ReadGate.pause(server, this);
+        client.write(wrappedBuffer(new byte[32]));
+        client.flush();
+        assertFalse(server.config().isAutoRead());
+
+        ReadGate.resume(server, this);
+        assertTrue(server.config().isAutoRead());
+        client.finishAndReleaseAll();
+    }
+
+    @Test
+    public void resumes_peer_when_channel_closes() {
+        client.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+        BackpressureHandler.link(client, server);
+        client.write(wrappedBuffer(new byte[32]));
+        client.close();
+        assertTrue(server.config().isAutoRead());
+    }
+}
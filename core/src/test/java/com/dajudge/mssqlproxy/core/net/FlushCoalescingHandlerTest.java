@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static org.junit.Assert.assertEquals;
+
+public class FlushCoalescingHandlerTest {
+    @Test
+    public void flushes_once_per_batch() {
+        final EmbeddedChannel channel = new EmbeddedChannel(new FlushCoalescingHandler(1024, 16));
+        channel.pipeline().write(packet(10));
+        channel.pipeline().write(packet(10));
+        channel.pipeline().flush();
+        channel.pipeline().flush();
+        assertEquals(0, channel.outboundMessages().size());
+
+        channel.runPendingTasks();
+        assertEquals(2, channel.outboundMessages().size());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void flushes_when_threshold_is_reached() {
+        final EmbeddedChannel channel = new EmbeddedChannel(new FlushCoalescingHandler(16, 16));
+        channel.pipeline().write(packet(10));
+        channel.pipeline().flush();
+        assertEquals(0, channel.outboundMessages().size());
+
+        channel.pipeline().write(packet(10));
+        channel.pipeline().flush();
+        assertEquals(2, channel.outboundMessages().size());
+        channel.finishAndReleaseAll();
+    }
+
+    private static ByteBuf packet(final int size) {
+        return wrappedBuffer(new byte[size]);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import com.dajudge.proxybase.ProxyContextFactory.ProxyContext;
+import com.dajudge.proxybase.Sink;
+import com.dajudge.proxybase.config.Endpoint;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+public class ProxyListenerTest {
+    @Test
+    public void relays_with_nio() throws IOException {
+        assertRelays(Transport.NIO);
+    }
+
+    @Test
+    public void relays_with_epoll() throws IOException {
+        assumeTrue(Transport.EPOLL.isAvailable());
+        assertRelays(Transport.EPOLL);
+    }
+
+    private static void assertRelays(final Transport transport) throws IOException {
+        final EventLoopGroup group = transport.createEventLoopGroup(2);
+        try {
+            final Channel echoServer = echoServer(transport, group);
+            final int echoPort = ((InetSocketAddress) echoServer.localAddress()).getPort();
+            final Endpoint echoEndpoint = new Endpoint("127.0.0.1", echoPort);
+            final ProxyListener listener = new ProxyListener(
+                    new Endpoint("127.0.0.1", 0),
+                    transport,
+                    group,
+                    false,
+                    ch -> new ProxySession<>(echoEndpoint, transport, false, passThrough()).start(ch)
+            );
+            listener.start();
+            try (final Socket socket = new Socket("127.0.0.1", listener.getLocalPort())) {
+                final byte[] request = "hello".getBytes(UTF_8);
+                socket.getOutputStream().write(request);
+                final byte[] response = new byte[request.length];
+                new DataInputStream(socket.getInputStream()).readFully(response);
+                assertEquals("hello", new String(response, UTF_8));
+            } finally {
+                listener.stop();
+                echoServer.close().syncUninterruptibly();
+            }
+        } finally {
+            group.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+
+    private static Channel echoServer(final Transport transport, final EventLoopGroup group) {
+        return new ServerBootstrap()
+                .group(group)
+                .channel(transport.serverChannelClass())
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel ch) {
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+                                ctx.writeAndFlush(msg);
+                            }
+                        });
+                    }
+                })
+                .bind("127.0.0.1", 0)
+                .syncUninterruptibly()
+                .channel();
+    }
+
+    private static ProxyContext<ByteBuf, ByteBuf, ByteBuf, ByteBuf> passThrough() {
+        return new ProxyContext<ByteBuf, ByteBuf, ByteBuf, ByteBuf>() {
+            @Override
+            public void customizeDownstreamPipeline(final ChannelPipeline channelPipeline) {
+            }
+
+            @Override
+            public void customizeUpstreamPipeline(final ChannelPipeline channelPipeline) {
+            }
+
+            @Override
+            public Sink<ByteBuf> downstreamFilter(final Sink<ByteBuf> sink) {
+                return sink;
+            }
+
+            @Override
+            public Sink<ByteBuf> upstreamFilter(final Sink<ByteBuf> sink) {
+                return sink;
+            }
+        };
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.net;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class SplicerTest {
+    @Test
+    public void splices_both_directions_and_propagates_close()
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        assumeTrue(Transport.EPOLL.isAvailable());
+        final EventLoopGroup group = Transport.EPOLL.createEventLoopGroup(1);
+        final CompletableFuture<Channel> backendChannel = new CompletableFuture<>();
+        try {
+            final Channel echoServer = echoServer(group);
+            final ServerBootstrap proxyBootstrap = new ServerBootstrap()
+                    .group(group)
+                    .channel(Transport.EPOLL.serverChannelClass())
+                    .childOption(ChannelOption.AUTO_READ, false)
+                    .childHandler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(final Channel client) {
+                            final Bootstrap bootstrap = new Bootstrap()
+                                    .group(client.eventLoop())
+                                    .channel(Transport.EPOLL.socketChannelClass())
+                                    .option(ChannelOption.AUTO_READ, false)
+                                    .handler(new ChannelInboundHandlerAdapter());
+                            Transport.EPOLL.enableSplice(bootstrap);
+                            final ChannelFuture connectFuture = bootstrap.connect(echoServer.localAddress());
+                            final Channel backend = connectFuture.channel();
+                            client.pipeline().addLast(new RelayHandler(new ChannelSink<>(backend)));
+                            connectFuture.addListener(f -> {
+                                backendChannel.complete(backend);
+                                Splicer.splice(client, backend);
+                            });
+                        }
+                    });
+            Transport.EPOLL.enableSplice(proxyBootstrap);
+            final Channel proxyServer = proxyBootstrap.bind("127.0.0.1", 0).syncUninterruptibly().channel();
+            try (final Socket socket = new Socket("127.0.0.1", port(proxyServer))) {
+                final byte[] request = "hello".getBytes(UTF_8);
+                socket.getOutputStream().write(request);
+                final byte[] response = new byte[request.length];
+                new DataInputStream(socket.getInputStream()).readFully(response);
+                assertEquals("hello", new String(response, UTF_8));
+            }
+            assertTrue(backendChannel.get(5, SECONDS).closeFuture().await(5, SECONDS));
+            proxyServer.close().syncUninterruptibly();
+            echoServer.close().syncUninterruptibly();
+        } finally {
+            group.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+
+    private static int port(final Channel channel) {
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    private static Channel echoServer(final EventLoopGroup group) {
+        return new ServerBootstrap()
+                .group(group)
+                .channel(Transport.EPOLL.serverChannelClass())
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel ch) {
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+                                ctx.writeAndFlush(msg);
+                            }
+
+                            @Override
+                            public void channelReadComplete(final ChannelHandlerContext ctx) {
+                                ctx.flush();
+                            }
+                        });
+                    }
+                })
+                .bind("127.0.0.1", 0)
+                .syncUninterruptibly()
+                .channel();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.pool;
+
+import com.dajudge.mssqlproxy.core.protocol.PacketTracker;
+import io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static java.util.Arrays.copyOfRange;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConversationTest {
+    private static final byte[] BATCH_1 = {1, 0, 0, 10, 0, 0, 1, 0, 'a', 'b'};
+    private static final byte[] BATCH_2 = {1, 1, 0, 9, 0, 0, 2, 0, 'c'};
+    private static final byte[] RESPONSE = {4, 1, 0, 10, 0, 0, 1, 0, 'x', 'y'};
+    private static final byte[] ATTENTION = {6, 1, 0, 8, 0, 0, 1, 0};
+
+    private final Conversation conversation = new Conversation();
+
+    @Test
+    public void is_idle_after_response() {
+        feed(conversation.requests(), BATCH_1);
+        assertFalse(conversation.isIdle());
+        feed(conversation.requests(), BATCH_2);
+        assertFalse(conversation.isIdle());
+        feed(conversation.responses(), RESPONSE);
+        assertTrue(conversation.isIdle());
+    }
+
+    @Test
+    public void follows_fragmented_packets() {
+        final byte[] request = concat(BATCH_1, BATCH_2);
+        for (int i = 0; i < request.length; i += 3) {
+            feed(conversation.requests(), copyOfRange(request, i, Math.min(request.length, i + 3)));
+        }
+        for (final byte b : RESPONSE) {
+            assertFalse(conversation.isIdle());
+            feed(conversation.responses(), new byte[]{b});
+        }
+        assertTrue(conversation.isIdle());
+    }
+
+    @Test
+    public void resets_first_packet_of_next_request() {
+        conversation.resetOnNextRequest();
+        final ByteBuf request = wrappedBuffer(concat(BATCH_1, BATCH_2));
+        conversation.requests().track(request);
+        assertEquals(0x08, request.getByte(1));
+        assertEquals(0x01, request.getByte(BATCH_1.length + 1));
+        feed(conversation.responses(), RESPONSE);
+        assertTrue(conversation.isIdle());
+    }
+
+    @Test
+    public void is_not_idle_after_attention() {
+        feed(conversation.requests(), BATCH_1);
+        feed(conversation.requests(), BATCH_2);
+        feed(conversation.requests(), ATTENTION);
+        feed(conversation.responses(), RESPONSE);
+        assertFalse(conversation.isIdle());
+    }
+
+    @Test
+    public void is_not_idle_after_broken_packet() {
+        feed(conversation.requests(), new byte[]{1, 1, 0, 4});
+        assertTrue(conversation.requests().isBroken());
+        assertFalse(conversation.isIdle());
+    }
+
+    private static void feed(final PacketTracker tracker, final byte[] bytes) {
+        tracker.track(wrappedBuffer(bytes));
+    }
+
+    private static byte[] concat(final byte[] a, final byte[] b) {
+        final byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
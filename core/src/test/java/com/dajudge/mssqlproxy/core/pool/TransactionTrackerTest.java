@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.pool;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.buffer;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionTrackerTest {
+    private final TransactionTracker tracker = new TransactionTracker();
+
+    @Test
+    public void follows_transaction_across_result_sets() {
+        final ByteBuf response = buffer();
+        envChange(response, 8);
+        columnMetadata(response);
+        response.writeByte(0xD1).writeIntLE(42).writeShortLE(4).writeBytes(new byte[]{'h', 0, 'i', 0});
+        response.writeByte(0xD2).writeByte(0x02).writeIntLE(43);
+        done(response);
+        feedBytewise(response);
+        tracker.onMessageEnd();
+        assertTrue(tracker.isInTransaction());
+        assertFalse(tracker.isLost());
+
+        final ByteBuf commit = buffer();
+        envChange(commit, 9);
+        done(commit);
+        feedBytewise(commit);
+        tracker.onMessageEnd();
+        assertFalse(tracker.isInTransaction());
+        assertFalse(tracker.isLost());
+    }
+
+    @Test
+    public void is_lost_on_unknown_token() {
+        final ByteBuf response = buffer();
+        response.writeByte(0x88).writeShortLE(0);
+        tracker.onPayload(response, response.readerIndex(), response.readableBytes());
+        assertTrue(tracker.isLost());
+    }
+
+    @Test
+    public void is_lost_on_truncated_message() {
+        final ByteBuf response = buffer();
+        response.writeByte(0xFD).writeShortLE(0);
+        tracker.onPayload(response, response.readerIndex(), response.readableBytes());
+        assertFalse(tracker.isLost());
+        tracker.onMessageEnd();
+        assertTrue(tracker.isLost());
+    }
+
+    private void feedBytewise(final ByteBuf response) {
+        for (int i = response.readerIndex(); i < response.writerIndex(); i++) {
+            tracker.onPayload(response, i, 1);
+        }
+    }
+
+    private static void envChange(final ByteBuf buffer, final int type) {
+        buffer.writeByte(0xE3).writeShortLE(11).writeByte(type);
+        if (type == 8) {
+            buffer.writeByte(8).writeLongLE(1).writeByte(0);
+        } else {
+            buffer.writeByte(0).writeByte(8).writeLongLE(1);
+        }
+    }
+
+    private static void columnMetadata(final ByteBuf buffer) {
+        buffer.writeByte(0x81).writeShortLE(2);
+        // INT4 "a"
+        buffer.writeIntLE(0).writeShortLE(0).writeByte(0x38).writeByte(1).writeShortLE('a');
+        // NVARCHAR(10) "b"
+        buffer.writeIntLE(0).writeShortLE(0).writeByte(0xE7).writeShortLE(20).writeZero(5).writeByte(1).writeShortLE('b');
+    }
+
+    private static void done(final ByteBuf buffer) {
+        buffer.writeByte(0xFD).writeZero(12);
+    }
+}
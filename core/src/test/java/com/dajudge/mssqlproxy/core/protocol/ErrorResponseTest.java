@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.buffer;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static org.junit.Assert.assertEquals;
+
+public class ErrorResponseTest {
+    private static final int TDS_7_1 = 0x71000001;
+    private static final int TDS_7_4 = 0x74000004;
+
+    @Test
+    public void line_number_and_done_row_count_follow_tds_version() {
+        final ByteBuf current = ErrorResponse.create(TDS_7_4, 55, ErrorResponse.PROXY_ERROR_NUMBER, 16, "error");
+        final ByteBuf older = ErrorResponse.create(TDS_7_1, 55, ErrorResponse.PROXY_ERROR_NUMBER, 16, "error");
+        assertEquals(current.readableBytes() - 6, older.readableBytes());
+        assertEquals(older.readableBytes(), older.getUnsignedShort(2));
+        assertEquals(0xFD, older.getUnsignedByte(older.readableBytes() - 9));
+        assertEquals(0xFD, current.getUnsignedByte(current.readableBytes() - 13));
+        current.release();
+        older.release();
+    }
+
+    @Test
+    public void frames_error_for_tds_7_1() {
+        final ByteBuf response = ErrorResponse.create(TDS_7_1, 55, ErrorResponse.PROXY_ERROR_NUMBER, 16, "no");
+        final ByteBuf expected = buffer()
+                .writeByte(4).writeByte(1).writeShort(8 + 3 + 36 + 9).writeShort(55).writeByte(1).writeByte(0)
+                .writeByte(0xAA).writeShortLE(36).writeIntLE(ErrorResponse.PROXY_ERROR_NUMBER).writeByte(1)
+                .writeByte(16).writeShortLE(2).writeBytes("no".getBytes(UTF_16LE))
+                .writeByte(10).writeBytes("mssqlproxy".getBytes(UTF_16LE)).writeByte(0).writeShortLE(0)
+                .writeByte(0xFD).writeShortLE(2).writeShortLE(0).writeIntLE(0);
+        assertEquals(ByteBufUtil.hexDump(expected), ByteBufUtil.hexDump(response));
+        expected.release();
+        response.release();
+    }
+
+    @Test
+    public void carries_spid_and_proxy_error_number() {
+        final ByteBuf response = ErrorResponse.create(TDS_7_4, 55, ErrorResponse.PROXY_ERROR_NUMBER, 16, "error");
+        assertEquals(55, response.getUnsignedShort(4));
+        assertEquals(ErrorResponse.PROXY_ERROR_NUMBER, response.getIntLE(8 + 3));
+        response.release();
+    }
+}
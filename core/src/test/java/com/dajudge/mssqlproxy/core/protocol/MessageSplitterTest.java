@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.protocol;
+
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.netty.buffer.ByteBufUtil.getBytes;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static java.util.Arrays.copyOfRange;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MessageSplitterTest {
+    private static final byte[] PACKET_1 = {1, 1, 0, 11, 0, 0, 1, 0, 'a', 'b', 'c'};
+    private static final byte[] PACKET_2 = {1, 1, 0, 9, 0, 0, 2, 0, 'd'};
+
+    private final List<SqlServerMessage> messages = new ArrayList<>();
+    private final MessageSplitter splitter = new MessageSplitter(new Sink<SqlServerMessage>() {
+        @Override
+        public void accept(final SqlServerMessage message) {
+            messages.add(message);
+        }
+
+        @Override
+        public ChannelFuture close() {
+            return null;
+        }
+    });
+
+    @Test
+    public void splits_coalesced_packets() {
+        final ByteBuf input = wrappedBuffer(PACKET_1, PACKET_2);
+        splitter.accept(input);
+        assertPackets();
+        assertEquals(0, input.refCnt());
+    }
+
+    @Test
+    public void joins_fragmented_packets() {
+        final byte[] both = getBytes(wrappedBuffer(PACKET_1, PACKET_2));
+        for (int i = 0; i < both.length; i += 3) {
+            splitter.accept(wrappedBuffer(copyOfRange(both, i, Math.min(both.length, i + 3))));
+        }
+        assertPackets();
+    }
+
+    private void assertPackets() {
+        assertEquals(2, messages.size());
+        assertArrayEquals(copyOfRange(PACKET_1, 8, 11), getBytes(messages.get(0).payload()));
+        assertArrayEquals(copyOfRange(PACKET_2, 8, 9), getBytes(messages.get(1).payload()));
+        assertEquals(2, messages.get(1).parsedHeader().getSequenceNum());
+        messages.forEach(SqlServerMessage::release);
+    }
+}
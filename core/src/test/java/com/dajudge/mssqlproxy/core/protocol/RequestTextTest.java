@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.protocol;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.buffer;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static org.junit.Assert.assertEquals;
+
+public class RequestTextTest {
+    @Test
+    public void sql_batch_text() {
+        final ByteBuf packet = packet(1, true, "select 1".getBytes(UTF_16LE));
+        assertEquals("select 1", RequestText.describe(packet));
+    }
+
+    @Test
+    public void sql_batch_continued_in_next_packet() {
+        final ByteBuf packet = packet(1, false, "select 1".getBytes(UTF_16LE));
+        assertEquals("select 1...", RequestText.describe(packet));
+    }
+
+    @Test
+    public void sql_batch_cut_off_at_captured_bytes() {
+        final ByteBuf packet = packet(1, true, "select 1".getBytes(UTF_16LE));
+        assertEquals("sel...", RequestText.describe(packet.slice(0, packet.readableBytes() - 10)));
+    }
+
+    @Test
+    public void rpc_by_name() {
+        final byte[] name = "dbo.Slow".getBytes(UTF_16LE);
+        final ByteBuf payload = buffer().writeShortLE(name.length / 2).writeBytes(name).writeShortLE(0);
+        assertEquals("dbo.Slow", RequestText.describe(packet(3, true, bytes(payload))));
+    }
+
+    @Test
+    public void rpc_by_procedure_id() {
+        final ByteBuf payload = buffer().writeShortLE(0xFFFF).writeShortLE(10).writeShortLE(0);
+        assertEquals("sp_executesql", RequestText.describe(packet(3, true, bytes(payload))));
+    }
+
+    private static ByteBuf packet(final int type, final boolean endOfMessage, final byte[] body) {
+        final ByteBuf packet = buffer();
+        packet.writeByte(type).writeByte(endOfMessage ? 1 : 0).writeShort(8 + 22 + body.length).writeInt(0);
+        // ALL_HEADERS with a transaction descriptor header
+        packet.writeIntLE(22).writeIntLE(18).writeShortLE(2).writeLongLE(0).writeIntLE(1);
+        return packet.writeBytes(body);
+    }
+
+    private static byte[] bytes(final ByteBuf buffer) {
+        final byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.readBytes(bytes);
+        return bytes;
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.dajudge.mssqlproxy.core.protocol.transport;
 
+import io.netty.buffer.ByteBuf;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
@@ -26,8 +27,10 @@ import java.util.Base64;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import static io.netty.buffer.Unpooled.directBuffer;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 public class Login7MessageTest {
     @Test
@@ -54,6 +57,16 @@ public class Login7MessageTest {
         assertArrayEquals(payloads().get(0), rewritten);
     }
 
+    @Test
+    public void parses_from_direct_buffer() {
+        payloads().forEach(payload -> {
+            final ByteBuf buffer = directBuffer().writeByte(0).writeBytes(payload);
+            buffer.readByte();
+            assertEquals(new Login7Message(payload).toString(), new Login7Message(buffer).toString());
+            buffer.release();
+        });
+    }
+
     private void assertReencodesProperly(final byte[] expected) {
         final byte[] result = new Login7Message(expected).serialize();
         assertArrayEquals(expected, result);
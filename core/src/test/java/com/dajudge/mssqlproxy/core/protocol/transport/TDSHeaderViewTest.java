@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.protocol.transport;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.directBuffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TDSHeaderViewTest {
+    @Test
+    public void reads_header_from_direct_buffer() {
+        final TDSHeader header = new TDSHeader(1, 1, 4096, 53, 7, 0);
+        final ByteBuf buffer = directBuffer().writeByte(0xFF).writeBytes(header.serialize());
+        buffer.readByte();
+
+        final TDSHeaderView view = new TDSHeaderView().wrap(buffer);
+        assertEquals(1, view.getMessageType());
+        assertTrue(view.isEndOfMessage());
+        assertEquals(4096, view.getLength());
+        assertEquals(53, view.getSpid());
+        assertEquals(7, view.getSequenceNum());
+        assertEquals(0, view.getWindow());
+        buffer.release();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.protocol.transport;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TokenScanner.containsLoginAck;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TokenScanner.loginAckTdsVersion;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenScannerTest {
+    private static final byte[] ENVCHANGE_DATABASE = {(byte) 0xE3, 5, 0, 1, 1, 'a', 0, 0};
+    private static final byte[] LOGINACK = {(byte) 0xAD, 1, 0, 1};
+    private static final byte[] ERROR = {(byte) 0xAA, 2, 0, 1, 2};
+    private static final byte[] DONE = {(byte) 0xFD, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    @Test
+    public void finds_loginack_after_envchange() {
+        assertTrue(containsLoginAck(tokens(ENVCHANGE_DATABASE, LOGINACK, DONE)));
+    }
+
+    @Test
+    public void reads_acknowledged_tds_version() {
+        final byte[] loginAck = {(byte) 0xAD, 10, 0, 1, 0x71, 0, 0, 1, 0, 0, 0, 0, 0};
+        assertEquals(0x71000001, loginAckTdsVersion(tokens(ENVCHANGE_DATABASE, loginAck, DONE)));
+        assertEquals(0, loginAckTdsVersion(tokens(ERROR, DONE)));
+    }
+
+    @Test
+    public void rejects_failed_login() {
+        assertFalse(containsLoginAck(tokens(ERROR, DONE)));
+    }
+
+    @Test
+    public void rejects_truncated_token() {
+        assertFalse(containsLoginAck(tokens(new byte[]{(byte) 0xE3, 100, 0, 1})));
+    }
+
+    private static ByteBuf tokens(final byte[]... tokens) {
+        return wrappedBuffer(tokens);
+    }
+}
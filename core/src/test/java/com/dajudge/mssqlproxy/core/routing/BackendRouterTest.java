@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.core.routing;
+
+import com.dajudge.mssqlproxy.core.balancing.Backend;
+import com.dajudge.mssqlproxy.core.balancing.BackendGroup;
+import com.dajudge.mssqlproxy.core.balancing.Balancing;
+import com.dajudge.proxybase.config.Endpoint;
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BackendRouterTest {
+    private final Endpoint primary = new Endpoint("primary", 1433);
+    private final Endpoint replica = new Endpoint("replica", 1433);
+
+    @Test
+    public void routes_to_servers_without_login() {
+        final BackendRouter router = router(singletonList(replica), Balancing.ROUND_ROBIN);
+        assertEquals(primary, router.route(null).endpoint());
+    }
+
+    @Test
+    public void needs_login_for_replicas() {
+        assertTrue(router(singletonList(replica), Balancing.ROUND_ROBIN).needsLogin());
+    }
+
+    @Test
+    public void needs_login_for_hash_balancing() {
+        assertTrue(router(emptyList(), Balancing.HASH_APP_NAME).needsLogin());
+        assertFalse(router(emptyList(), Balancing.LEAST_SESSIONS).needsLogin());
+    }
+
+    @Test
+    public void hash_balancing_falls_back_without_login() {
+        final Backend backend = router(emptyList(), Balancing.HASH_HOSTNAME).route(null);
+        assertEquals(primary, backend.endpoint());
+    }
+
+    private BackendRouter router(final List<Endpoint> replicas, final Balancing balancing) {
+        return new BackendRouter(
+                new BackendGroup(singletonList(primary), balancing),
+                new BackendGroup(replicas, balancing)
+        );
+    }
+}
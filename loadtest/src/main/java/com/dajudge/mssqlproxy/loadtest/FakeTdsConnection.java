@@ -0,0 +1,254 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.loadtest;
+
+import com.dajudge.mssqlproxy.core.protocol.MessageSplitter;
+import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+import com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader;
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static com.dajudge.mssqlproxy.loadtest.Tds.DEFAULT_PACKET_SIZE;
+import static com.dajudge.mssqlproxy.loadtest.Tds.ENCRYPT_NOT_SUPPORTED;
+import static com.dajudge.mssqlproxy.loadtest.Tds.ENCRYPT_OFF;
+import static com.dajudge.mssqlproxy.loadtest.Tds.ENCRYPT_ON;
+import static com.dajudge.mssqlproxy.loadtest.Tds.LOGIN7;
+import static com.dajudge.mssqlproxy.loadtest.Tds.PRELOGIN;
+import static com.dajudge.mssqlproxy.loadtest.Tds.RPC;
+import static com.dajudge.mssqlproxy.loadtest.Tds.SQL_BATCH;
+import static com.dajudge.mssqlproxy.loadtest.Tds.TABULAR_RESULT;
+import static com.dajudge.mssqlproxy.loadtest.Tds.message;
+import static com.dajudge.mssqlproxy.loadtest.Tds.preloginEncryption;
+import static com.dajudge.mssqlproxy.loadtest.Tds.preloginPayload;
+import static io.netty.buffer.Unpooled.buffer;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+
+// The server side of one connection. During the handshake TLS records travel inside prelogin packets, afterwards
+// they are sent as they are. The TLS engine runs in an embedded channel, so it is fed and drained synchronously.
+class FakeTdsConnection extends ChannelInboundHandlerAdapter {
+    private static final Logger LOG = LoggerFactory.getLogger(FakeTdsConnection.class);
+    private static final int TLS_RECORD_HEADER_SIZE = 5;
+
+    private enum State {
+        PRELOGIN,
+        HANDSHAKE,
+        // Only the login packet is encrypted
+        LOGIN,
+        ENCRYPTED,
+        PLAIN
+    }
+
+    private final SslContext sslContext;
+    private final byte[] result;
+    private final byte[] loginAck;
+    private final byte[] done;
+    private final long responseDelayNanos;
+    private final MessageSplitter requests = new MessageSplitter(new Sink<SqlServerMessage>() {
+        @Override
+        public void accept(final SqlServerMessage message) {
+            onPacket(message);
+        }
+
+        @Override
+        public ChannelFuture close() {
+            return null;
+        }
+    });
+    private final ByteBuf tlsInbound = buffer();
+    private ChannelHandlerContext ctx;
+    private EmbeddedChannel tls;
+    private SslHandler sslHandler;
+    private State state = State.PRELOGIN;
+    private boolean loginOnly;
+
+    FakeTdsConnection(
+            final SslContext sslContext,
+            final byte[] result,
+            final byte[] loginAck,
+            final byte[] done,
+            final Duration responseDelay
+    ) {
+        this.sslContext = sslContext;
+        this.result = result;
+        this.loginAck = loginAck;
+        this.done = done;
+        this.responseDelayNanos = responseDelay.toNanos();
+    }
+
+    @Override
+    public void handlerAdded(final ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+        final ByteBuf buffer = (ByteBuf) msg;
+        if (state == State.PRELOGIN || state == State.PLAIN) {
+            requests.accept(buffer);
+            return;
+        }
+        tlsInbound.writeBytes(buffer);
+        buffer.release();
+        readTls();
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        requests.close();
+        tlsInbound.release();
+        if (tls != null) {
+            tls.finishAndReleaseAll();
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        LOG.warn("Closing fake server connection", cause);
+        ctx.close();
+    }
+
+    private void readTls() {
+        ByteBuf chunk;
+        while (state != State.PLAIN && (chunk = nextTlsChunk()) != null) {
+            final boolean handshaking = state == State.HANDSHAKE;
+            tls.writeInbound(chunk);
+            writeTls(handshaking);
+            if (handshaking && sslHandler.handshakeFuture().isSuccess()) {
+                state = loginOnly ? State.LOGIN : State.ENCRYPTED;
+            }
+            ByteBuf plaintext;
+            while ((plaintext = tls.readInbound()) != null) {
+                requests.accept(plaintext);
+            }
+        }
+        if (state == State.PLAIN && tlsInbound.isReadable()) {
+            requests.accept(tlsInbound.readRetainedSlice(tlsInbound.readableBytes()));
+        }
+        tlsInbound.discardSomeReadBytes();
+    }
+
+    // The payload of a prelogin packet or a TLS record, whichever is next, or null if it's incomplete
+    private ByteBuf nextTlsChunk() {
+        final int start = tlsInbound.readerIndex();
+        if (tlsInbound.readableBytes() >= TDS_HEADER_SIZE && tlsInbound.getUnsignedByte(start) == PRELOGIN) {
+            final int length = tlsInbound.getUnsignedShort(start + 2);
+            if (tlsInbound.readableBytes() < length) {
+                return null;
+            }
+            tlsInbound.skipBytes(TDS_HEADER_SIZE);
+            return tlsInbound.readRetainedSlice(length - TDS_HEADER_SIZE);
+        }
+        if (tlsInbound.readableBytes() >= TLS_RECORD_HEADER_SIZE) {
+            final int length = TLS_RECORD_HEADER_SIZE + tlsInbound.getUnsignedShort(start + 3);
+            return tlsInbound.readableBytes() < length ? null : tlsInbound.readRetainedSlice(length);
+        }
+        return null;
+    }
+
+    private void writeTls(final boolean handshaking) {
+        final ByteBuf records = buffer();
+        ByteBuf record;
+        while ((record = tls.readOutbound()) != null) {
+            records.writeBytes(record);
+            record.release();
+        }
+        if (!records.isReadable()) {
+            records.release();
+            return;
+        }
+        ctx.writeAndFlush(handshaking ? message(PRELOGIN, records, DEFAULT_PACKET_SIZE) : records);
+    }
+
+    private void onPacket(final SqlServerMessage message) {
+        try {
+            final TDSHeader header = message.parsedHeader();
+            if (!header.isEndOfMessage()) {
+                return;
+            }
+            switch (header.getMessageType()) {
+                case PRELOGIN:
+                    onPrelogin(message.payload());
+                    break;
+                case LOGIN7:
+                    if (state == State.LOGIN) {
+                        state = State.PLAIN;
+                    }
+                    respond(loginAck);
+                    break;
+                case SQL_BATCH:
+                case RPC:
+                    respondLater(result);
+                    break;
+                default:
+                    respond(done);
+                    break;
+            }
+        } finally {
+            message.release();
+        }
+    }
+
+    // Encrypts as much as the client asks for and at least the login
+    private void onPrelogin(final ByteBuf payload) {
+        final int requested = preloginEncryption(payload);
+        final int encryption = requested == ENCRYPT_OFF || requested == ENCRYPT_NOT_SUPPORTED
+                ? requested
+                : ENCRYPT_ON;
+        ctx.writeAndFlush(message(TABULAR_RESULT, preloginPayload(encryption), DEFAULT_PACKET_SIZE));
+        if (encryption == ENCRYPT_NOT_SUPPORTED) {
+            state = State.PLAIN;
+            return;
+        }
+        sslHandler = sslContext.newHandler(ByteBufAllocator.DEFAULT);
+        tls = new EmbeddedChannel(sslHandler);
+        loginOnly = encryption == ENCRYPT_OFF;
+        state = State.HANDSHAKE;
+    }
+
+    private void respondLater(final byte[] response) {
+        if (responseDelayNanos > 0) {
+            ctx.executor().schedule(() -> respond(response), responseDelayNanos, TimeUnit.NANOSECONDS);
+        } else {
+            respond(response);
+        }
+    }
+
+    private void respond(final byte[] response) {
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        if (state == State.ENCRYPTED) {
+            tls.writeOutbound(wrappedBuffer(response));
+            writeTls(false);
+        } else {
+            ctx.writeAndFlush(wrappedBuffer(response));
+        }
+    }
+}
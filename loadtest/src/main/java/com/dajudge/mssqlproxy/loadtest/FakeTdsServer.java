@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.loadtest;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+
+import javax.net.ssl.KeyManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+
+import static com.dajudge.mssqlproxy.loadtest.Tds.DEFAULT_PACKET_SIZE;
+import static com.dajudge.mssqlproxy.loadtest.Tds.TABULAR_RESULT;
+import static com.dajudge.mssqlproxy.loadtest.Tds.donePayload;
+import static com.dajudge.mssqlproxy.loadtest.Tds.loginAckPayload;
+import static com.dajudge.mssqlproxy.loadtest.Tds.message;
+import static com.dajudge.mssqlproxy.loadtest.Tds.resultPayload;
+
+// An in-process stand-in for SQL Server: answers the prelogin, does the TLS handshake, acknowledges every login and
+// answers every SQL batch and RPC with the same result of a configurable size after a configurable delay. It
+// encrypts like a server with a certificate but without forced encryption would, i.e. the login only unless the
+// client asks for more.
+public class FakeTdsServer {
+    private static final String KEYSTORE = "fake-tds-server.p12";
+    private static final char[] KEYSTORE_PASSWORD = "fake-tds-server".toCharArray();
+    private final int resultBytes;
+    private final Duration responseDelay;
+    private final int threads;
+    private EventLoopGroup eventLoopGroup;
+    private Channel serverChannel;
+    private SslContext sslContext;
+    private byte[] result;
+    private byte[] loginAck;
+    private byte[] done;
+
+    public FakeTdsServer(final int resultBytes, final Duration responseDelay, final int threads) {
+        this.resultBytes = resultBytes;
+        this.responseDelay = responseDelay;
+        this.threads = threads;
+    }
+
+    public FakeTdsServer start() {
+        sslContext = createSslContext();
+        result = bytes(message(TABULAR_RESULT, resultPayload(resultBytes), DEFAULT_PACKET_SIZE));
+        loginAck = bytes(message(TABULAR_RESULT, loginAckPayload(), DEFAULT_PACKET_SIZE));
+        done = bytes(message(TABULAR_RESULT, donePayload(), DEFAULT_PACKET_SIZE));
+        eventLoopGroup = new NioEventLoopGroup(threads);
+        serverChannel = new ServerBootstrap()
+                .group(eventLoopGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(final SocketChannel ch) {
+                        ch.pipeline().addLast(new FakeTdsConnection(
+                                sslContext,
+                                result,
+                                loginAck,
+                                done,
+                                responseDelay
+                        ));
+                    }
+                })
+                .bind("127.0.0.1", 0)
+                .syncUninterruptibly()
+                .channel();
+        return this;
+    }
+
+    public int getPort() {
+        return ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    }
+
+    public void stop() {
+        serverChannel.close().syncUninterruptibly();
+        eventLoopGroup.shutdownGracefully().syncUninterruptibly();
+    }
+
+    private static byte[] bytes(final ByteBuf buffer) {
+        try {
+            final byte[] bytes = new byte[buffer.readableBytes()];
+            buffer.readBytes(bytes);
+            return bytes;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    // TLS 1.2, like SQL Server: the handshake is relayed inside prelogin packets, which TLS 1.3's post-handshake
+    // messages would not be
+    private static SslContext createSslContext() {
+        try (final InputStream is = FakeTdsServer.class.getClassLoader().getResourceAsStream(KEYSTORE)) {
+            if (is == null) {
+                throw new IllegalStateException("Resource not found: " + KEYSTORE);
+            }
+            final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(is, KEYSTORE_PASSWORD);
+            final KeyManagerFactory keyManagerFactory = KeyManagerFactory
+                    .getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keyStore, KEYSTORE_PASSWORD);
+            return SslContextBuilder.forServer(keyManagerFactory)
+                    .sslProvider(SslProvider.JDK)
+                    .protocols("TLSv1.2")
+                    .build();
+        } catch (final IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to set up TLS for the fake server", e);
+        }
+    }
+}
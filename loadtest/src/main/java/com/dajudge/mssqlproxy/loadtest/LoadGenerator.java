@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.loadtest;
+
+import com.dajudge.mssqlproxy.core.MssqlProxyApplication;
+import com.dajudge.mssqlproxy.core.MssqlProxyApplication.ProxyConfig;
+import com.dajudge.mssqlproxy.core.net.Transport;
+import com.dajudge.proxybase.config.Endpoint;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+
+// Runs sessions against a proxy for a while and measures what they see. Each session slot reconnects as soon as its
+// session ends, so with a limited number of batches per session the connect rate is measured as well.
+public class LoadGenerator {
+    private static final String USERNAME = "loadtest";
+    private static final String PASSWORD = "loadtest";
+    private static final long RECONNECT_DELAY_MILLIS = 100;
+    private final Endpoint proxy;
+    private final int sessions;
+    private final int batchesPerSession;
+    private final Requests requests;
+    private final int threads;
+    private final Set<Channel> channels = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private EventLoopGroup eventLoopGroup;
+    private LoadStats stats;
+    private volatile boolean running;
+
+    public LoadGenerator(
+            final Endpoint proxy,
+            final int sessions,
+            final int batchesPerSession,
+            final String sql,
+            final int threads
+    ) {
+        this.proxy = proxy;
+        this.sessions = sessions;
+        this.batchesPerSession = batchesPerSession;
+        this.requests = new Requests(USERNAME, PASSWORD, sql);
+        this.threads = threads;
+    }
+
+    public LoadStats run(final Duration warmup, final Duration duration) throws InterruptedException {
+        stats = new LoadStats();
+        eventLoopGroup = new NioEventLoopGroup(threads);
+        running = true;
+        try {
+            final Bootstrap bootstrap = new Bootstrap()
+                    .group(eventLoopGroup)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(final SocketChannel ch) {
+                            ch.pipeline().addLast(new LoadSession(stats, requests, batchesPerSession));
+                        }
+                    });
+            for (int i = 0; i < sessions; i++) {
+                connect(bootstrap);
+            }
+            Thread.sleep(warmup.toMillis());
+            stats.measuring(true);
+            Thread.sleep(duration.toMillis());
+            stats.measuring(false);
+        } finally {
+            running = false;
+            channels.forEach(Channel::close);
+            eventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+        return stats;
+    }
+
+    private void connect(final Bootstrap bootstrap) {
+        bootstrap.connect(proxy.getHost(), proxy.getPort()).addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                stats.failed();
+                reconnectLater(bootstrap);
+                return;
+            }
+            final Channel channel = future.channel();
+            channels.add(channel);
+            channel.closeFuture().addListener(closed -> {
+                channels.remove(channel);
+                if (running) {
+                    connect(bootstrap);
+                }
+            });
+        });
+    }
+
+    private void reconnectLater(final Bootstrap bootstrap) {
+        if (running) {
+            eventLoopGroup.schedule(() -> connect(bootstrap), RECONNECT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Options are given as --name=value, see parseOptions() for the names and defaults
+    public static void main(final String[] args) throws InterruptedException {
+        final Map<String, String> options = parseOptions(args);
+        final FakeTdsServer server = new FakeTdsServer(
+                Integer.parseInt(options.get("result-bytes")),
+                Duration.ofMillis(Long.parseLong(options.get("response-delay-millis"))),
+                Integer.parseInt(options.get("server-threads"))
+        ).start();
+        try {
+            final Endpoint proxyEndpoint = new Endpoint("127.0.0.1", freePort());
+            final ProxyConfig config = new ProxyConfig(
+                    proxyEndpoint,
+                    new Endpoint("127.0.0.1", server.getPort()),
+                    USERNAME,
+                    PASSWORD
+            ).withSplice(Boolean.parseBoolean(options.get("splice")));
+            final MssqlProxyApplication proxyApp = new MssqlProxyApplication(
+                    singletonList(config),
+                    Transport.valueOf(options.get("transport")),
+                    Integer.parseInt(options.get("proxy-threads"))
+            ).start();
+            try {
+                final LoadStats stats = new LoadGenerator(
+                        proxyEndpoint,
+                        Integer.parseInt(options.get("sessions")),
+                        Integer.parseInt(options.get("batches-per-session")),
+                        options.get("sql"),
+                        Integer.parseInt(options.get("client-threads"))
+                ).run(
+                        Duration.ofSeconds(Long.parseLong(options.get("warmup-seconds"))),
+                        Duration.ofSeconds(Long.parseLong(options.get("duration-seconds")))
+                );
+                System.out.println("Options: " + options);
+                System.out.print(stats.report(Duration.ofSeconds(Long.parseLong(options.get("duration-seconds")))));
+            } finally {
+                proxyApp.shutdown();
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static Map<String, String> parseOptions(final String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        options.put("sessions", "16");
+        options.put("batches-per-session", "0");
+        options.put("sql", "select * from data");
+        options.put("warmup-seconds", "5");
+        options.put("duration-seconds", "30");
+        options.put("result-bytes", "1024");
+        options.put("response-delay-millis", "0");
+        options.put("transport", Transport.bestAvailable().name());
+        options.put("splice", "false");
+        options.put("proxy-threads", "0");
+        options.put("server-threads", "0");
+        options.put("client-threads", "0");
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            final String name = arg.startsWith("--") && separator > 2 ? arg.substring(2, separator) : null;
+            if (name == null || !options.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", known options: " + options.keySet());
+            }
+            options.put(name, arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    // The proxy doesn't tell which port it got when asked for an ephemeral one
+    private static int freePort() {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to find a free port", e);
+        }
+    }
+}
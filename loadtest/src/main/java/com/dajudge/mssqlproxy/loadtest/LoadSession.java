@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.loadtest;
+
+import com.dajudge.mssqlproxy.core.protocol.MessageSplitter;
+import com.dajudge.mssqlproxy.core.protocol.SqlServerMessage;
+import com.dajudge.proxybase.Sink;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TokenScanner.containsLoginAck;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+
+// One client session: prelogin and login, then one SQL batch after the other, each sent as soon as the previous
+// one was answered. The latency of a batch is the time from writing it to the last packet of its response.
+class LoadSession extends ChannelInboundHandlerAdapter {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadSession.class);
+    private static final int LATENCY_BATCH = 1024;
+
+    private enum State {
+        PRELOGIN,
+        LOGIN,
+        READY
+    }
+
+    private final LoadStats stats;
+    private final Requests requests;
+    private final int batchesPerSession;
+    private final MessageSplitter responses = new MessageSplitter(new Sink<SqlServerMessage>() {
+        @Override
+        public void accept(final SqlServerMessage message) {
+            onPacket(message);
+        }
+
+        @Override
+        public ChannelFuture close() {
+            return null;
+        }
+    });
+    private final long[] latencies = new long[LATENCY_BATCH];
+    private int latencyCount;
+    private ChannelHandlerContext ctx;
+    private State state = State.PRELOGIN;
+    private boolean loginAcknowledged;
+    private int batches;
+    private long sentNanos;
+
+    LoadSession(final LoadStats stats, final Requests requests, final int batchesPerSession) {
+        this.stats = stats;
+        this.requests = requests;
+        this.batchesPerSession = batchesPerSession;
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+        send(requests.prelogin);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+        responses.accept((ByteBuf) msg);
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        responses.close();
+        flushLatencies();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        LOG.debug("Session failed", cause);
+        stats.failed();
+        ctx.close();
+    }
+
+    private void onPacket(final SqlServerMessage message) {
+        final boolean endOfMessage;
+        try {
+            stats.received(message.header().readableBytes() + message.payload().readableBytes());
+            endOfMessage = message.parsedHeader().isEndOfMessage();
+            if (state == State.LOGIN) {
+                loginAcknowledged |= containsLoginAck(message.payload());
+            }
+        } finally {
+            message.release();
+        }
+        if (endOfMessage) {
+            onResponse();
+        }
+    }
+
+    private void onResponse() {
+        switch (state) {
+            case PRELOGIN:
+                state = State.LOGIN;
+                send(requests.login);
+                break;
+            case LOGIN:
+                if (!loginAcknowledged) {
+                    LOG.debug("Login was rejected");
+                    stats.failed();
+                    ctx.close();
+                    return;
+                }
+                stats.connected();
+                state = State.READY;
+                sendBatch();
+                break;
+            default:
+                recordLatency(System.nanoTime() - sentNanos);
+                if (batchesPerSession > 0 && ++batches >= batchesPerSession) {
+                    ctx.close();
+                } else {
+                    sendBatch();
+                }
+                break;
+        }
+    }
+
+    private void sendBatch() {
+        sentNanos = System.nanoTime();
+        send(requests.batch);
+    }
+
+    private void send(final Requests.Request request) {
+        stats.sent(request.packets, request.bytes.length);
+        ctx.writeAndFlush(wrappedBuffer(request.bytes));
+    }
+
+    private void recordLatency(final long nanos) {
+        if (!stats.isMeasuring()) {
+            return;
+        }
+        latencies[latencyCount++] = nanos;
+        if (latencyCount == latencies.length) {
+            flushLatencies();
+        }
+    }
+
+    private void flushLatencies() {
+        stats.latencies(latencies, latencyCount);
+        latencyCount = 0;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.loadtest;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+
+// What the sessions observed while measuring. Latencies are kept as raw samples, which the sessions hand over in
+// batches, so the percentiles are exact.
+public class LoadStats {
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private volatile boolean measuring;
+    private long[] latencies = new long[1024];
+    private int latencyCount;
+
+    void measuring(final boolean measuring) {
+        this.measuring = measuring;
+    }
+
+    boolean isMeasuring() {
+        return measuring;
+    }
+
+    void connected() {
+        if (measuring) {
+            connects.increment();
+        }
+    }
+
+    void failed() {
+        if (measuring) {
+            failures.increment();
+        }
+    }
+
+    void sent(final int packets, final int bytes) {
+        if (measuring) {
+            packetsSent.add(packets);
+            bytesSent.add(bytes);
+        }
+    }
+
+    void received(final int bytes) {
+        if (measuring) {
+            packetsReceived.increment();
+            bytesReceived.add(bytes);
+        }
+    }
+
+    synchronized void latencies(final long[] samples, final int count) {
+        if (latencyCount + count > latencies.length) {
+            latencies = Arrays.copyOf(latencies, Math.max(latencies.length * 2, latencyCount + count));
+        }
+        System.arraycopy(samples, 0, latencies, latencyCount, count);
+        latencyCount += count;
+        requests.add(count);
+    }
+
+    public long connects() {
+        return connects.sum();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    public long requests() {
+        return requests.sum();
+    }
+
+    public synchronized long latencyPercentileNanos(final double percentile) {
+        if (latencyCount == 0) {
+            return 0;
+        }
+        Arrays.sort(latencies, 0, latencyCount);
+        final int rank = (int) Math.ceil(percentile / 100 * latencyCount);
+        return latencies[Math.max(0, Math.min(rank, latencyCount) - 1)];
+    }
+
+    public String report(final Duration elapsed) {
+        final double seconds = elapsed.toNanos() / 1e9;
+        return format("Measured for %.1f s%n", seconds)
+                + format("  connects/s:  %12.1f%n", connects.sum() / seconds)
+                + format("  requests/s:  %12.1f%n", requests.sum() / seconds)
+                + format("  packets/s:   %12.1f sent, %12.1f received%n",
+                packetsSent.sum() / seconds, packetsReceived.sum() / seconds)
+                + format("  bytes/s:     %12.1f sent, %12.1f received%n",
+                bytesSent.sum() / seconds, bytesReceived.sum() / seconds)
+                + format("  latency:     p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                millis(latencyPercentileNanos(50)),
+                millis(latencyPercentileNanos(99)),
+                millis(latencyPercentileNanos(99.9)),
+                millis(latencyPercentileNanos(100)))
+                + format("  failures:    %12d%n", failures.sum());
+    }
+
+    private static double millis(final long nanos) {
+        return nanos / 1e6;
+    }
+}
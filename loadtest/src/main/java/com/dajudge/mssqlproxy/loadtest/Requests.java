@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.loadtest;
+
+import io.netty.buffer.ByteBuf;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static com.dajudge.mssqlproxy.loadtest.Tds.DEFAULT_PACKET_SIZE;
+import static com.dajudge.mssqlproxy.loadtest.Tds.ENCRYPT_OFF;
+import static com.dajudge.mssqlproxy.loadtest.Tds.LOGIN7;
+import static com.dajudge.mssqlproxy.loadtest.Tds.PRELOGIN;
+import static com.dajudge.mssqlproxy.loadtest.Tds.SQL_BATCH;
+import static com.dajudge.mssqlproxy.loadtest.Tds.login7Payload;
+import static com.dajudge.mssqlproxy.loadtest.Tds.message;
+import static com.dajudge.mssqlproxy.loadtest.Tds.preloginPayload;
+import static com.dajudge.mssqlproxy.loadtest.Tds.sqlBatchPayload;
+
+// The messages every session sends, encoded once up front
+class Requests {
+    final Request prelogin;
+    final Request login;
+    final Request batch;
+
+    static class Request {
+        final byte[] bytes;
+        final int packets;
+
+        Request(final ByteBuf message) {
+            try {
+                bytes = new byte[message.readableBytes()];
+                message.getBytes(message.readerIndex(), bytes);
+                int count = 0;
+                for (int index = 0; index < bytes.length; index += length(bytes, index)) {
+                    count++;
+                }
+                packets = count;
+            } finally {
+                message.release();
+            }
+        }
+
+        private static int length(final byte[] bytes, final int index) {
+            return Math.max(TDS_HEADER_SIZE, ((bytes[index + 2] & 0xFF) << 8) | (bytes[index + 3] & 0xFF));
+        }
+    }
+
+    Requests(final String username, final String password, final String sql) {
+        // The proxy doesn't encrypt the client side anyway
+        prelogin = new Request(message(PRELOGIN, preloginPayload(ENCRYPT_OFF), DEFAULT_PACKET_SIZE));
+        login = new Request(message(
+                LOGIN7,
+                login7Payload(username, password, DEFAULT_PACKET_SIZE),
+                DEFAULT_PACKET_SIZE
+        ));
+        batch = new Request(message(SQL_BATCH, sqlBatchPayload(sql), DEFAULT_PACKET_SIZE));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.loadtest;
+
+import com.dajudge.mssqlproxy.core.protocol.transport.Login7Message;
+import com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader;
+import io.netty.buffer.ByteBuf;
+
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.STATUS_EOM;
+import static com.dajudge.mssqlproxy.core.protocol.transport.TDSHeader.TDS_HEADER_SIZE;
+import static io.netty.buffer.Unpooled.buffer;
+import static java.lang.Math.min;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+
+// The messages the load generator and the fake server exchange, just enough of TDS 7.4 for the proxy to relay them
+final class Tds {
+    static final int SQL_BATCH = 0x01;
+    static final int RPC = 0x03;
+    static final int TABULAR_RESULT = 0x04;
+    static final int ATTENTION = 0x06;
+    static final int LOGIN7 = 0x10;
+    static final int PRELOGIN = 0x12;
+    static final int DEFAULT_PACKET_SIZE = 4096;
+
+    static final int ENCRYPTION_OPTION = 1;
+    static final int ENCRYPT_OFF = 0;
+    static final int ENCRYPT_ON = 1;
+    static final int ENCRYPT_NOT_SUPPORTED = 2;
+    static final int ENCRYPT_REQUIRED = 3;
+
+    private static final int TDS_VERSION_7_4 = 0x74000004;
+    private static final int LOGIN7_FIXED_LENGTH = 94;
+    private static final int LOGINACK = 0xAD;
+    private static final int COLMETADATA = 0x81;
+    private static final int ROW = 0xD1;
+    private static final int DONE = 0xFD;
+    private static final int DONE_COUNT = 0x10;
+    private static final int DONE_ATTN = 0x20;
+    private static final int SELECT = 0xC1;
+    private static final int BIGVARBINARY = 0xA5;
+    private static final int MAX_ROW_BYTES = 8000;
+    private static final int ALL_HEADERS_LENGTH = 22;
+    private static final int TRANSACTION_DESCRIPTOR = 2;
+
+    private Tds() {
+    }
+
+    // Cuts the payload into packets of at most packetSize bytes, the last one flagged as end of message
+    static ByteBuf message(final int type, final ByteBuf payload, final int packetSize) {
+        final int maxPayload = packetSize - TDS_HEADER_SIZE;
+        final ByteBuf message = buffer(payload.readableBytes() + TDS_HEADER_SIZE);
+        int packetId = 1;
+        do {
+            final int length = min(maxPayload, payload.readableBytes());
+            final int status = length == payload.readableBytes() ? STATUS_EOM : 0;
+            message.writeBytes(new TDSHeader(type, status, TDS_HEADER_SIZE + length, 0, packetId++ & 0xFF, 0)
+                    .serialize());
+            message.writeBytes(payload, length);
+        } while (payload.isReadable());
+        payload.release();
+        return message;
+    }
+
+    // VERSION, ENCRYPTION, INSTOPT, THREADID and MARS
+    static ByteBuf preloginPayload(final int encryption) {
+        final int[] options = {0, ENCRYPTION_OPTION, 2, 3, 4};
+        final int[] lengths = {6, 1, 1, 4, 1};
+        final ByteBuf payload = buffer();
+        int offset = options.length * 5 + 1;
+        for (int i = 0; i < options.length; i++) {
+            payload.writeByte(options[i]).writeShort(offset).writeShort(lengths[i]);
+            offset += lengths[i];
+        }
+        payload.writeByte(0xFF);
+        payload.writeInt(0x0E000000).writeShort(0);
+        payload.writeByte(encryption);
+        payload.writeByte(0);
+        payload.writeInt(0);
+        payload.writeByte(0);
+        return payload;
+    }
+
+    static int preloginEncryption(final ByteBuf payload) {
+        int index = payload.readerIndex();
+        while (payload.getUnsignedByte(index) != 0xFF) {
+            if (payload.getUnsignedByte(index) == ENCRYPTION_OPTION) {
+                return payload.getUnsignedByte(payload.readerIndex() + payload.getUnsignedShort(index + 1));
+            }
+            index += 5;
+        }
+        return ENCRYPT_NOT_SUPPORTED;
+    }
+
+    static ByteBuf login7Payload(final String username, final String password, final int packetSize) {
+        final ByteBuf fixed = buffer(LOGIN7_FIXED_LENGTH, LOGIN7_FIXED_LENGTH)
+                .writeIntLE(LOGIN7_FIXED_LENGTH)
+                .writeIntLE(TDS_VERSION_7_4)
+                .writeIntLE(packetSize)
+                .writeZero(LOGIN7_FIXED_LENGTH - 12);
+        final Login7Message login = new Login7Message(fixed);
+        fixed.release();
+        login.setHostname("localhost");
+        login.setUsername(username);
+        login.setPassword(password);
+        login.setAppName("mssqlproxy-loadtest");
+        login.setServerName("localhost");
+        login.setLibraryName("mssqlproxy-loadtest");
+        login.setDatabase("master");
+        final byte[] bytes = login.serialize();
+        return buffer(bytes.length).writeBytes(bytes);
+    }
+
+    static ByteBuf loginAckPayload() {
+        final byte[] program = "fake".getBytes(UTF_16LE);
+        final ByteBuf payload = buffer();
+        payload.writeByte(LOGINACK)
+                .writeShortLE(1 + 4 + 1 + program.length + 4)
+                .writeByte(1)
+                .writeInt(TDS_VERSION_7_4)
+                .writeByte(program.length / 2)
+                .writeBytes(program)
+                .writeInt(0x0E000000);
+        return done(payload, 0, 0);
+    }
+
+    static ByteBuf sqlBatchPayload(final String sql) {
+        final ByteBuf payload = buffer();
+        payload.writeIntLE(ALL_HEADERS_LENGTH)
+                .writeIntLE(ALL_HEADERS_LENGTH - 4)
+                .writeShortLE(TRANSACTION_DESCRIPTOR)
+                .writeLongLE(0)
+                .writeIntLE(1)
+                .writeBytes(sql.getBytes(UTF_16LE));
+        return payload;
+    }
+
+    // A single varbinary column with as many rows as it takes to return resultBytes bytes
+    static ByteBuf resultPayload(final int resultBytes) {
+        final byte[] name = "data".getBytes(UTF_16LE);
+        final ByteBuf payload = buffer(resultBytes + 64);
+        payload.writeByte(COLMETADATA)
+                .writeShortLE(1)
+                .writeIntLE(0)
+                .writeShortLE(0)
+                .writeByte(BIGVARBINARY)
+                .writeShortLE(MAX_ROW_BYTES)
+                .writeByte(name.length / 2)
+                .writeBytes(name);
+        int rows = 0;
+        for (int remaining = resultBytes; remaining > 0; remaining -= MAX_ROW_BYTES) {
+            final int length = min(remaining, MAX_ROW_BYTES);
+            payload.writeByte(ROW).writeShortLE(length);
+            for (int i = 0; i < length; i++) {
+                payload.writeByte(i);
+            }
+            rows++;
+        }
+        return done(payload, DONE_COUNT, rows);
+    }
+
+    // Acknowledges an attention as well as any other request
+    static ByteBuf donePayload() {
+        return done(buffer(), DONE_ATTN, 0);
+    }
+
+    private static ByteBuf done(final ByteBuf payload, final int status, final long rows) {
+        return payload.writeByte(DONE).writeShortLE(status).writeShortLE(SELECT).writeLongLE(rows);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 The mssqlproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dajudge.mssqlproxy.loadtest;
+
+import com.dajudge.mssqlproxy.core.MssqlProxyApplication;
+import com.dajudge.mssqlproxy.core.MssqlProxyApplication.ProxyConfig;
+import com.dajudge.mssqlproxy.core.net.Transport;
+import com.dajudge.proxybase.config.Endpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadGeneratorTest {
+    private FakeTdsServer server;
+    private MssqlProxyApplication proxyApp;
+    private Endpoint proxy;
+
+    @Before
+    public void setup() throws IOException {
+        server = new FakeTdsServer(10000, Duration.ZERO, 1).start();
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            proxy = new Endpoint("127.0.0.1", socket.getLocalPort());
+        }
+        proxyApp = new MssqlProxyApplication(singletonList(new ProxyConfig(
+                proxy,
+                new Endpoint("127.0.0.1", server.getPort()),
+                "sa",
+                "secret"
+        )), Transport.NIO, 1).start();
+    }
+
+    @After
+    public void teardown() {
+        proxyApp.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void runs_batches_through_the_proxy() throws InterruptedException {
+        final LoadStats stats = new LoadGenerator(proxy, 2, 0, "select 1", 1)
+                .run(Duration.ofSeconds(2), Duration.ofMillis(500));
+        assertEquals(0, stats.failures());
+        assertTrue(stats.requests() > 0);
+        assertTrue(stats.latencyPercentileNanos(50) > 0);
+    }
+
+    @Test
+    public void reconnects_after_the_batches_of_a_session() throws InterruptedException {
+        final LoadStats stats = new LoadGenerator(proxy, 2, 3, "select 1", 1)
+                .run(Duration.ofSeconds(2), Duration.ofMillis(500));
+        assertEquals(0, stats.failures());
+        assertTrue(stats.connects() > 0);
+    }
+}